@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Batch mode: runs commands read one per line from an input stream in
+ *  this process, so a script running many commands starts one JVM. each
+ *  line is split into arguments as a shell would split it, quotes and
+ *  backslashes included, and run as Main runs a command, except that an
+ *  error ends only its command. each command's output is written after a
+ *  line giving its exit status and the length in bytes of its output,
+ *  eg. "0 25", so a reader can take exactly that many bytes without
+ *  looking for a delimiter in the output. blank lines are skipped.
+ *  @author David Babazadeh
+ */
+class Batch {
+
+    /** runs the commands read from IN in working directory CWD, writing
+     *  the status, length and output of each to standard output. it is
+     *  refused where errors already end just a command, within the
+     *  daemon or another batch: there other commands may be running, and
+     *  it takes over the process's System.out and error handling.
+     *  @param cwd
+     *  @param in */
+    static void run(File cwd, InputStream in) {
+        if (GLet.keepsRunning()) {
+            GLet.error("Cannot run batch within the daemon or a batch.");
+        }
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BufferedReader lines = new BufferedReader(new InputStreamReader(in));
+        boolean keep = GLet.keepsRunning();
+        GLet.keepRunning(true);
+        System.setOut(new PrintStream(out, true));
+        try {
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                List<String> args = split(line);
+                int status;
+                if (args == null) {
+                    System.out.println("Unmatched quote.");
+                    status = 0;
+                } else if (args.isEmpty()) {
+                    continue;
+                } else {
+                    status = Main.execute(new Repo(cwd),
+                            args.toArray(new String[0]));
+                }
+                stdout.print(status + " " + out.size() + "\n");
+                out.writeTo(stdout);
+                stdout.flush();
+                out.reset();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            System.setOut(stdout);
+            GLet.keepRunning(keep);
+        }
+    }
+
+    /** returns the arguments of LINE, split at unquoted blanks. text in
+     *  single quotes is taken as it is; in double quotes, and outside
+     *  quotes, a backslash takes the next character as it is (in double
+     *  quotes, only before a quote, backslash, '$' or '`'). returns null
+     *  if a quote is not closed.
+     *  @param line */
+    static List<String> split(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else if (c == '\\' && i + 1 < line.length()
+                           && DQUOTE_ESCAPES.indexOf(line.charAt(i + 1))
+                           >= 0) {
+                    arg.append(line.charAt(i += 1));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    result.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    arg.append(line.charAt(i += 1));
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        if (arg != null) {
+            result.add(arg.toString());
+        }
+        return result;
+    }
+
+    /** characters a backslash escapes within double quotes. */
+    private static final String DQUOTE_ESCAPES = "\"\\$`";
+}
@@ -1,17 +1,41 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class Blob implements Serializable {
 
+    /** pinned so blobs serialized by earlier versions stay readable. */
+    private static final long serialVersionUID = 6377541601781240710L;
+
     /** name of working file. */
     private String filename;
 
     /** contents of working file. */
     private byte[] content;
 
+    /** memoized sha1 id; null until computed. */
+    private transient String id;
+
     Blob(File file) {
         filename = file.getName();
         content = Utils.readContents(file);
@@ -21,6 +45,12 @@ public class Blob implements Serializable {
         this(new File(path));
     }
 
+    /** blob holding CONTENTS, eg. one read back from its encoding.
+     * @param contents */
+    Blob(byte[] contents) {
+        content = contents;
+    }
+
     public byte[] getContents() {
         return content;
     }
@@ -29,4 +59,290 @@ public class Blob implements Serializable {
         return new String(content, StandardCharsets.UTF_8);
     }
 
+    /** returns this blob in the binary object format: header, length
+     * and the raw contents. the working file's name is not part of a
+     * blob, so identical files share one. */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(content.length + HEADER);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Codec.writeHeader(out, Codec.BLOB_MAGIC);
+            out.writeLong(content.length);
+            out.write(content);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing blob.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** returns blob encoded in IN.
+     * @param in */
+    static Blob decode(DataInput in) throws IOException {
+        Codec.readHeader(in, Codec.BLOB_MAGIC);
+        byte[] contents = new byte[inMemoryLength(in.readLong())];
+        in.readFully(contents);
+        return new Blob(contents);
+    }
+
+    /** returns chunked blob encoded in IN, reassembled from its chunks,
+     * which are stored in BLOBS.
+     * @param in
+     * @param blobs */
+    static Blob decodeChunked(DataInput in, File blobs) throws IOException {
+        Codec.readHeader(in, Codec.CHUNKED_MAGIC);
+        ByteArrayOutputStream contents =
+            new ByteArrayOutputStream(inMemoryLength(in.readLong()));
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            String chunk = Codec.readID(in);
+            in.readInt();
+            contents.write(ObjectStore.readObject(new File(blobs, chunk),
+                    Blob.class).content);
+        }
+        return new Blob(contents.toByteArray());
+    }
+
+    /** returns LENGTH, the length of a blob being read into memory,
+     * erroring if it is too long for an array; such blobs can only be
+     * streamed, as by copy and checkout.
+     * @param length */
+    private static int inMemoryLength(long length) {
+        if (length < 0 || length > MAX_IN_MEMORY) {
+            throw Utils.error("blob of %d bytes is too large to read into"
+                    + " memory", length);
+        }
+        return (int) length;
+    }
+
+    /** records that this blob is stored under ID, saving a rehash.
+     * @param id0 */
+    void setID(String id0) {
+        id = id0;
+    }
+
+    /** returns sha1 hash id of the blob's encoding, memoized. */
+    public String id() {
+        if (id == null) {
+            id = Utils.sha1(encode());
+        }
+        return id;
+    }
+
+    /** returns id of the blob FILE would be stored as, hashing FILE in
+     * a single pass through a fixed-size buffer.
+     * @param file */
+    static String hash(File file) {
+        return stream(file, null);
+    }
+
+    /** stores FILE as a blob in directory BLOBS in a single pass through
+     * a fixed-size buffer, hashing while it deflates. returns its id.
+     * @param file
+     * @param blobs */
+    static String store(File file, File blobs) {
+        return stream(file, blobs);
+    }
+
+    /** writes the contents of the blob stored in BLOB to DEST, copying
+     * through a fixed-size buffer.
+     * @param blob
+     * @param dest */
+    static void checkout(File blob, File dest) {
+        try (OutputStream out = Files.newOutputStream(dest.toPath())) {
+            copy(blob, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** writes the contents of the blob stored in BLOB to OUT through a
+     * fixed-size buffer. chunked blobs are written chunk by chunk.
+     * @param blob
+     * @param out */
+    static void copy(File blob, OutputStream out) throws IOException {
+        copy(blob, out, Long.MAX_VALUE);
+    }
+
+    /** writes at most the first LIMIT bytes of the contents of the blob
+     * stored in BLOB to OUT, as copy does, reading no further. returns
+     * the number of bytes written.
+     * @param blob
+     * @param out
+     * @param limit */
+    static long copy(File blob, OutputStream out, long limit)
+        throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(ObjectStore.open(blob), BUFFER))) {
+            in.mark(4);
+            int magic = in.readInt();
+            in.reset();
+            if (magic == Codec.CHUNKED_MAGIC) {
+                Codec.readHeader(in, Codec.CHUNKED_MAGIC);
+                in.readLong();
+                long written = 0;
+                for (int n = in.readInt(); n > 0 && written < limit;
+                     n -= 1) {
+                    written += copy(new File(blob.getParentFile(),
+                            Codec.readID(in)), out, limit - written);
+                    in.readInt();
+                }
+                return written;
+            } else if (magic != Codec.BLOB_MAGIC) {
+                byte[] content =
+                    ObjectStore.readObject(blob, Blob.class).content;
+                int length = (int) Math.min(content.length, limit);
+                out.write(content, 0, length);
+                return length;
+            }
+            Codec.readHeader(in, Codec.BLOB_MAGIC);
+            long written = Math.min(in.readLong(), limit);
+            long remaining = written;
+            byte[] buf = new byte[BUFFER];
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) {
+                    throw Utils.error("blob %s is truncated", blob.getName());
+                }
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+            return written;
+        }
+    }
+
+    /** returns the (id, length) of each chunk of the blob stored in BLOB
+     * in order, or null if it is not a chunked blob.
+     * @param blob */
+    static List<Map.Entry<String, Integer>> chunks(File blob) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(ObjectStore.open(blob), BUFFER))) {
+            in.mark(4);
+            if (in.readInt() != Codec.CHUNKED_MAGIC) {
+                return null;
+            }
+            in.reset();
+            Codec.readHeader(in, Codec.CHUNKED_MAGIC);
+            in.readLong();
+            ArrayList<Map.Entry<String, Integer>> result = new ArrayList<>();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String id = Codec.readID(in);
+                result.add(new AbstractMap.SimpleEntry<>(id, in.readInt()));
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns the length of the contents of the blob stored in BLOB,
+     * reading only its header, or -1 for blobs in the java-serialized
+     * format.
+     * @param blob */
+    static long size(File blob) {
+        try (DataInputStream in = new DataInputStream(
+                ObjectStore.open(blob))) {
+            int magic = in.readInt();
+            if (magic != Codec.BLOB_MAGIC && magic != Codec.CHUNKED_MAGIC) {
+                return -1;
+            }
+            in.readUnsignedByte();
+            return in.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns the header of an encoded blob of LENGTH bytes, which
+     * precedes the contents in the encoding and so in its hash.
+     * @param length */
+    static byte[] header(long length) {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER);
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            Codec.writeHeader(out, Codec.BLOB_MAGIC);
+            out.writeLong(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return header.toByteArray();
+    }
+
+    /** returns the id the contents of the blob stored in BLOB have as
+     * an ordinary blob, hashing them through a fixed-size buffer. it is
+     * the id BLOB is stored under unless BLOB is a chunked blob stored
+     * before chunked blobs took that id.
+     * @param blob */
+    static String contentID(File blob) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(header(size(blob)));
+            copy(blob, new DigestOutputStream(
+                    OutputStream.nullOutputStream(), md));
+            return Codec.hex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** hashes FILE as a blob through a FileChannel, and when BLOBS is
+     * non-null, also deflates it into a temporary file there which is
+     * moved into place under its id. returns the id.
+     * @param file
+     * @param blobs */
+    private static String stream(File file, File blobs) {
+        File temp = blobs == null ? null : new File(blobs,
+                "incoming-" + Thread.currentThread().getId() + "-"
+                + System.nanoTime() + ".tmp");
+        boolean installed = false;
+        try {
+            String id;
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ);
+                 OutputStream out = temp == null
+                     ? OutputStream.nullOutputStream()
+                     : ObjectStore.deflating(temp)) {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                long length = channel.size();
+                byte[] header = header(length);
+                md.update(header);
+                out.write(header);
+                ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+                long total = 0;
+                while (channel.read(buf) != -1) {
+                    md.update(buf.array(), 0, buf.position());
+                    out.write(buf.array(), 0, buf.position());
+                    total += buf.position();
+                    buf.clear();
+                }
+                if (total != length) {
+                    throw Utils.error("%s changed while being read",
+                            file.getName());
+                }
+                id = Codec.hex(md.digest());
+            }
+            if (temp != null) {
+                File target = new File(blobs, id);
+                if (!ObjectStore.exists(target)) {
+                    ObjectStore.install(temp, target);
+                    IdIndex.added(target);
+                    installed = true;
+                }
+            }
+            return id;
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null && !installed) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** longest blob read into memory: about the longest array. */
+    private static final long MAX_IN_MEMORY = Integer.MAX_VALUE - 8;
+
+    /** length of encoded header: magic, version, length. */
+    static final int HEADER = 4 + 1 + 8;
+
+    /** size of the buffer files are streamed through. */
+    private static final int BUFFER = 1 << 16;
+
 }
@@ -0,0 +1,131 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/** Splits files into content-defined chunks for chunked blobs. a gear
+ *  rolling hash is fed the file a byte at a time, and a chunk ends where
+ *  the hash's high bits are all zero (once the chunk is at least the
+ *  minimum size) or at the maximum size. since boundaries depend only on
+ *  nearby content, appending to or editing a file leaves most chunks,
+ *  and so most stored chunk blobs, unchanged. a file with a single chunk
+ *  is stored just as that chunk, which has the file's id.
+ *  @author David Babazadeh
+ */
+class Chunker {
+
+    /** chunker making chunks of at least MIN, about AVG (rounded down to
+     *  a power of two) and at most MAX bytes.
+     *  @param min
+     *  @param avg
+     *  @param max */
+    Chunker(int min, int avg, int max) {
+        _min = Math.max(1, min);
+        _max = Math.max(_min, max);
+        _shift = Long.SIZE
+            - Integer.numberOfTrailingZeros(Integer.highestOneBit(
+                    Math.max(2, avg)));
+    }
+
+    /** stores FILE in directory BLOBS as a chunked blob: its chunks,
+     *  each encoded as an ordinary blob, and its chunk list: header,
+     *  total length, chunk count and each chunk's id and length. the list
+     *  is stored under the id FILE has as an ordinary blob, hashed in the
+     *  same pass, so a file's id does not depend on whether or how it is
+     *  chunked. returns that id.
+     *  @param file
+     *  @param blobs */
+    String store(File file, File blobs) {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        DataOutputStream listOut = new DataOutputStream(list);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entriesOut = new DataOutputStream(entries);
+        String id;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            long length = Files.size(file.toPath());
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(Blob.header(length));
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(_max);
+            byte[] buf = new byte[BUFFER];
+            long total = 0;
+            int count = 0;
+            long hash = 0;
+            for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                for (int i = 0; i < n; i += 1) {
+                    chunk.write(buf[i]);
+                    hash = (hash << 1) + GEAR[buf[i] & BYTE_MASK];
+                    int size = chunk.size();
+                    if (size >= _max
+                            || size >= _min && hash >>> _shift == 0) {
+                        emit(chunk, entriesOut, blobs);
+                        count += 1;
+                        hash = 0;
+                    }
+                }
+                total += n;
+            }
+            if (chunk.size() > 0) {
+                emit(chunk, entriesOut, blobs);
+                count += 1;
+            }
+            if (total != length) {
+                throw Utils.error("%s changed while being read",
+                        file.getName());
+            }
+            id = Codec.hex(md.digest());
+            Codec.writeHeader(listOut, Codec.CHUNKED_MAGIC);
+            listOut.writeLong(total);
+            listOut.writeInt(count);
+            entries.writeTo(listOut);
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectStore.write(new File(blobs, id), list.toByteArray());
+        return id;
+    }
+
+    /** appends CHUNK's id and length to OUT, stores it in BLOBS and
+     *  empties CHUNK.
+     *  @param chunk
+     *  @param out
+     *  @param blobs */
+    private void emit(ByteArrayOutputStream chunk, DataOutputStream out,
+                      File blobs) throws IOException {
+        Blob blob = new Blob(chunk.toByteArray());
+        Codec.writeID(out, blob.id());
+        out.writeInt(chunk.size());
+        ObjectStore.write(new File(blobs, blob.id()), blob.encode());
+        chunk.reset();
+    }
+
+    /** chunk size bounds. */
+    private final int _min, _max;
+
+    /** a boundary needs the hash's bits from _shift up to be zero. */
+    private final int _shift;
+
+    /** random value added to the rolling hash for each byte value. the
+     *  seed is fixed so every repository finds the same boundaries. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** masks a byte to its unsigned value. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** size of read buffer. */
+    private static final int BUFFER = 1 << 16;
+}
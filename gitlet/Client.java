@@ -0,0 +1,32 @@
+package gitlet;
+
+import java.io.File;
+
+/** A thin client for the gitlet daemon: sends its command to the daemon
+ *  serving the working directory's repository and prints the reply, or
+ *  runs the command itself, as Main, if no daemon is running or it is
+ *  batch, whose commands come from this process's input. it loads
+ *  little more than Daemon, so a command costs a connection rather than
+ *  a fresh start of gitlet.
+ *  @author David Babazadeh
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, where ARGS are as for Main. */
+    public static void main(String... args) {
+        File cwd = new File(System.getProperty("user.dir"));
+        if (args.length > 0 && args[0].equals("batch")) {
+            Main.main(args);
+            return;
+        }
+        Integer status = Daemon.send(
+            new File(new File(cwd, WorkTree.GITLET), Daemon.SOCKET), cwd,
+            args, System.out, System.err);
+        if (status == null) {
+            Main.main(args);
+            return;
+        }
+        System.out.flush();
+        System.exit(status);
+    }
+}
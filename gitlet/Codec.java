@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/** Helpers for the versioned binary object format that replaced java
+ *  serialization of commits and blobs. every object begins with a
+ *  four-byte magic number naming its type and a one-byte format version.
+ *  @author David Babazadeh
+ */
+class Codec {
+
+    /** writes the header of an object of type MAGIC to OUT.
+     *  @param out
+     *  @param magic */
+    static void writeHeader(DataOutput out, int magic) throws IOException {
+        writeHeader(out, magic, VERSION);
+    }
+
+    /** writes the header of an object of type MAGIC in format VERSION
+     *  to OUT.
+     *  @param out
+     *  @param magic
+     *  @param version */
+    static void writeHeader(DataOutput out, int magic, int version)
+        throws IOException {
+        out.writeInt(magic);
+        out.writeByte(version);
+    }
+
+    /** reads the header of an object of type MAGIC from IN, erroring on
+     *  a type or version this code does not understand.
+     *  @param in
+     *  @param magic */
+    static void readHeader(DataInput in, int magic) throws IOException {
+        readHeader(in, magic, VERSION);
+    }
+
+    /** reads the header of an object of type MAGIC from IN, returning
+     *  its format version, and erroring on a type this code does not
+     *  understand or a version later than LATEST.
+     *  @param in
+     *  @param magic
+     *  @param latest */
+    static int readHeader(DataInput in, int magic, int latest)
+        throws IOException {
+        if (in.readInt() != magic) {
+            throw Utils.error("unrecognized object type");
+        }
+        int version = in.readUnsignedByte();
+        if (version < VERSION || version > latest) {
+            throw Utils.error("unsupported object version %d", version);
+        }
+        return version;
+    }
+
+    /** writes S to OUT as length-prefixed UTF-8, which unlike writeUTF
+     *  has no 64K limit.
+     *  @param out
+     *  @param s */
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** returns a string written by writeString from IN.
+     *  @param in */
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** writes hexadecimal object ID to OUT as 20 raw bytes.
+     *  @param out
+     *  @param id */
+    static void writeID(DataOutput out, String id) throws IOException {
+        out.write(raw(id));
+    }
+
+    /** returns a hexadecimal object id read from IN.
+     *  @param in */
+    static String readID(DataInput in) throws IOException {
+        byte[] bytes = new byte[ID_BYTES];
+        in.readFully(bytes);
+        return hex(bytes);
+    }
+
+    /** returns the 20 raw bytes of hexadecimal ID.
+     *  @param id */
+    static byte[] raw(String id) {
+        if (id.length() < 2 * ID_BYTES) {
+            throw Utils.error("malformed id %s", id);
+        }
+        byte[] result = new byte[ID_BYTES];
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int hi = Character.digit(id.charAt(2 * k), HEX);
+            int lo = Character.digit(id.charAt(2 * k + 1), HEX);
+            if (hi < 0 || lo < 0) {
+                throw Utils.error("malformed id %s", id);
+            }
+            result[k] = (byte) (hi << 4 | lo);
+        }
+        return result;
+    }
+
+    /** returns RAW as a hexadecimal id.
+     *  @param raw */
+    static String hex(byte[] raw) {
+        byte[] result = new byte[2 * raw.length];
+        for (int k = 0; k < raw.length; k += 1) {
+            result[2 * k] = DIGITS[(raw[k] >> 4) & NIBBLE];
+            result[2 * k + 1] = DIGITS[raw[k] & NIBBLE];
+        }
+        return new String(result, StandardCharsets.ISO_8859_1);
+    }
+
+    /** type of commit objects ("GLCM"). */
+    static final int COMMIT_MAGIC = 0x474c434d;
+
+    /** type of blob objects ("GLBL"). */
+    static final int BLOB_MAGIC = 0x474c424c;
+
+    /** type of chunked blobs, lists of chunk blobs ("GLCH"). */
+    static final int CHUNKED_MAGIC = 0x474c4348;
+
+    /** type of tree objects ("GLTR"). */
+    static final int TREE_MAGIC = 0x474c5452;
+
+    /** first format version, still current for all but commits. */
+    static final int VERSION = 1;
+
+    /** length of a raw sha1 id. */
+    static final int ID_BYTES = 20;
+
+    /** radix of object ids. */
+    private static final int HEX = 16;
+
+    /** low four bits. */
+    private static final int NIBBLE = 0xf;
+
+    /** hexadecimal digits. */
+    private static final byte[] DIGITS =
+        "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+}
@@ -1,12 +1,25 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Locale;
 import java.io.Serializable;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /** Commit Nodes along tree branches representing different versions
  * of a directory.
@@ -14,6 +27,9 @@ import java.util.TreeMap;
  */
 public class Commit implements Serializable {
 
+    /** pinned so commits serialized by earlier versions stay readable. */
+    private static final long serialVersionUID = 9003128892086938337L;
+
     /** metadata - date created. */
     private final Date _timestamp;
 
@@ -32,18 +48,32 @@ public class Commit implements Serializable {
     /** for merge. */
     private final String _parent2;
 
-    /** map for all blobs. */
+    /** map for all blobs. commits stored with a tree fill it only when
+     * every filename is asked for; null until then. */
     private TreeMap<String, String> _blobs = new TreeMap<String, String>();
 
+    /** id of root tree, null for commits from before trees until their
+     * tree is built from _blobs. */
+    private transient String _tree = Tree.EMPTY;
+
+    /** files updated (or removed, mapped to null) since _tree. */
+    private transient TreeMap<String, String> _changes = new TreeMap<>();
+
+    /** .gitlet directory holding this commit's trees, or null. */
+    private transient File _gitlet;
+
+    /** memoized sha1 id; null until computed or after a change. */
+    private transient String _id;
+
     /** returns committed filenames. */
     public Set<String> filenames() {
-        return _blobs.keySet();
+        return manifest().keySet();
     }
 
     /** returns true if commit tracks given file.
      * @param name */
     public boolean containsKey(String name) {
-        return _blobs.containsKey(name);
+        return blobs(name) != null;
     }
 
     /** returns commit message. */
@@ -56,7 +86,12 @@ public class Commit implements Serializable {
      * @param filename
      */
     public String blobs(String filename) {
-        return _blobs.get(filename);
+        if (_blobs != null) {
+            return _blobs.get(filename);
+        } else if (_changes.containsKey(filename)) {
+            return _changes.get(filename);
+        }
+        return Tree.lookup(trees(), _tree, filename);
     }
 
     public Commit(String message, String parentRef1, String parentRef2) {
@@ -70,10 +105,12 @@ public class Commit implements Serializable {
             return;
         }
         _timestamp = new Date();
-        Commit parent1 = Utils.readObject(new File(parentRef1), Commit.class);
-        _blobs = parent1._blobs;
+        Commit parent1 = ObjectStore.readObject(new File(parentRef1),
+                Commit.class);
+        _gitlet = parent1._gitlet;
+        _tree = parent1.tree(false);
+        _blobs = _tree == null ? new TreeMap<>(parent1._blobs) : null;
         _version = parent1._version + 1;
-
     }
 
     public Commit(String message, String parentRef1) {
@@ -84,26 +121,204 @@ public class Commit implements Serializable {
         this(message, "", "");
     }
 
+    /** commit read back from its encoding, see decode. */
+    private Commit(Date timestamp, String message, String author,
+                   int version, String parent1, String parent2,
+                   TreeMap<String, String> blobs, String tree,
+                   File gitlet) {
+        _timestamp = timestamp;
+        _message = message;
+        _author = author;
+        _version = version;
+        _parent1 = parent1;
+        _parent2 = parent2;
+        _blobs = blobs;
+        _tree = tree;
+        _gitlet = gitlet;
+    }
+
+    /** returns commit with MESSAGE by AUTHOR made at TIMESTAMP, whose
+     * parents PARENT1 and PARENT2 (paths of stored commits, or "") and
+     * depth VERSION are given rather than read, and whose root tree, in
+     * repository directory GITLET, is TREE. used when importing history.
+     * @param timestamp
+     * @param message
+     * @param author
+     * @param version
+     * @param parent1
+     * @param parent2
+     * @param tree
+     * @param gitlet */
+    static Commit of(Date timestamp, String message, String author,
+                     int version, String parent1, String parent2,
+                     String tree, File gitlet) {
+        return new Commit(timestamp, message, author, version, parent1,
+                parent2, null, tree, gitlet);
+    }
+
+    /** returns copy of this commit with its parent references replaced
+     * by PARENT1 & PARENT2 and its blob ids renamed by BLOBIDS, used
+     * when migrating objects to a new format.
+     * @param parent1
+     * @param parent2
+     * @param blobIDs */
+    Commit migrate(String parent1, String parent2,
+                   Map<String, String> blobIDs) {
+        TreeMap<String, String> blobs = new TreeMap<>();
+        for (Map.Entry<String, String> entry : manifest().entrySet()) {
+            blobs.put(entry.getKey(), blobIDs.get(entry.getValue()));
+        }
+        return new Commit(_timestamp, _message, _author, _version,
+                parent1, parent2, blobs, null, _gitlet);
+    }
+
+    /** returns this commit in the binary object format: header, then
+     * timestamp, message, author, depth, parent ids and root tree id.
+     * parents are stored by id alone, so the encoding (and so the id)
+     * does not depend on where the repo is. trees not yet written for
+     * this commit's changes are written first. */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Codec.writeHeader(out, Codec.COMMIT_MAGIC, TREE_VERSION);
+            out.writeLong(_timestamp.getTime());
+            Codec.writeString(out, _message);
+            Codec.writeString(out, _author);
+            out.writeInt(_version);
+            out.writeByte((isInitialCommit() ? 0 : 1)
+                    + (hasParent2() ? 1 : 0));
+            if (!isInitialCommit()) {
+                Codec.writeID(out, parent1ID());
+            }
+            if (hasParent2()) {
+                Codec.writeID(out, parent2ID());
+            }
+            Codec.writeID(out, tree(true));
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** returns commit encoded in IN, whose parents are stored in DIR.
+     * commits of the first format version list every file rather than
+     * naming a tree.
+     * @param in
+     * @param dir */
+    static Commit decode(DataInput in, File dir) throws IOException {
+        int format = Codec.readHeader(in, Codec.COMMIT_MAGIC, TREE_VERSION);
+        Date timestamp = new Date(in.readLong());
+        String message = Codec.readString(in);
+        String author = Codec.readString(in);
+        int version = in.readInt();
+        int parents = in.readUnsignedByte();
+        String parent1 = parents > 0
+                ? new File(dir, Codec.readID(in)).getPath() : "";
+        String parent2 = parents > 1
+                ? new File(dir, Codec.readID(in)).getPath() : "";
+        if (format >= TREE_VERSION) {
+            return new Commit(timestamp, message, author, version,
+                    parent1, parent2, null, Codec.readID(in),
+                    dir.getParentFile());
+        }
+        TreeMap<String, String> blobs = new TreeMap<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            String filename = Codec.readString(in);
+            blobs.put(filename, Codec.readID(in));
+        }
+        return new Commit(timestamp, message, author, version,
+                parent1, parent2, blobs, null, dir.getParentFile());
+    }
+
+    /** records that this commit is stored in FILE, saving a rehash and
+     * locating its trees.
+     * @param file */
+    void stored(File file) {
+        _id = file.getName();
+        _gitlet = file.getParentFile().getParentFile();
+        if (_changes == null) {
+            _changes = new TreeMap<>();
+        }
+    }
+
+    /** returns id of the root tree, building trees for any changes (and
+     * for commits from before trees) if BUILD, else returning null if
+     * there is no tree yet.
+     * @param build */
+    String tree(boolean build) {
+        if (build && _tree == null) {
+            _tree = Tree.update(trees(), null, _blobs);
+            _changes.clear();
+        } else if (build && !_changes.isEmpty()) {
+            _tree = Tree.update(trees(), _tree, _changes);
+            _changes.clear();
+        }
+        return _tree == null || !_changes.isEmpty() ? null : _tree;
+    }
+
+    /** returns the filenames tracked here that are tracked with other
+     * blobs, or not at all, by OTHER. subtrees shared by the two commits
+     * are skipped.
+     * @param other */
+    public Set<String> changedFiles(Commit other) {
+        TreeSet<String> result = new TreeSet<>();
+        String mine = tree(false), theirs = other.tree(false);
+        if (mine != null && theirs != null) {
+            Tree.diff(trees(), mine, theirs, "", result);
+            return result;
+        }
+        for (String filename : filenames()) {
+            if (!compareBlobs(other, filename)) {
+                result.add(filename);
+            }
+        }
+        for (String filename : other.filenames()) {
+            if (!containsKey(filename)) {
+                result.add(filename);
+            }
+        }
+        return result;
+    }
+
+    /** returns every filename mapped to its blob id, in order. */
+    SortedMap<String, String> files() {
+        return Collections.unmodifiableSortedMap(manifest());
+    }
+
+    /** returns every filename mapped to its blob id, reading all trees
+     * the first time. */
+    private TreeMap<String, String> manifest() {
+        if (_blobs == null) {
+            _blobs = new TreeMap<>();
+            Tree.flatten(trees(), _tree, "", _blobs);
+            for (Map.Entry<String, String> change : _changes.entrySet()) {
+                if (change.getValue() == null) {
+                    _blobs.remove(change.getKey());
+                } else {
+                    _blobs.put(change.getKey(), change.getValue());
+                }
+            }
+        }
+        return _blobs;
+    }
+
+    /** returns directory of trees, or null for a commit not in a repo. */
+    private File trees() {
+        return _gitlet == null ? null : new File(_gitlet, Tree.DIR);
+    }
+
     /**
      * updates blob treenode.
-     * @param file -> File file represents staged file:
-     *             (cwd-filename :: serialized blob)
-     * @param repo
+     * @param filename -> name of working file
+     * @param blobID -> id of its stored blob
      */
-    public void updateBlob(File file, File repo) {
-        if (!_blobs.containsKey(file.getName()) || !blobs(file.getName())
-                .equals(Utils.sha1(Utils.readContents(file)))) {
-
-            byte[] contents = Utils.readContents(file);
-            String blobID = Utils.sha1(contents);
-            _blobs.put(file.getName(), blobID);
-            try {
-                File blob = new File(repo, "blobs/" + blobID);
-                blob.createNewFile();
-                Utils.writeContents(blob, contents);
-            } catch (IOException e) {
-                e.printStackTrace();
+    public void updateBlob(String filename, String blobID) {
+        if (!blobID.equals(blobs(filename))) {
+            if (_blobs != null) {
+                _blobs.put(filename, blobID);
             }
+            _changes.put(filename, blobID);
+            _id = null;
         }
     }
 
@@ -112,7 +327,13 @@ public class Commit implements Serializable {
      * @param filename -> name of blob to stop tracking
      */
     public void removeblob(String filename) {
-        _blobs.remove(filename);
+        if (blobs(filename) != null) {
+            if (_blobs != null) {
+                _blobs.remove(filename);
+            }
+            _changes.put(filename, null);
+            _id = null;
+        }
     }
 
     /**
@@ -120,7 +341,7 @@ public class Commit implements Serializable {
      * @param location
      */
     public void saveCommit(File location) {
-        Utils.writeObject(location, this);
+        ObjectStore.write(location, encode());
     }
 
     /**
@@ -129,7 +350,7 @@ public class Commit implements Serializable {
      * @return location of file.
      */
     public File getLocation(File dir) {
-        return new File(dir, GLet.sha1Obj(this));
+        return new File(dir, id());
     }
 
     /**
@@ -139,11 +360,37 @@ public class Commit implements Serializable {
         return _parent1.equals("");
     }
 
+    /** returns id of parent1, or "" for the initial commit. */
+    public String parent1ID() {
+        return isInitialCommit() ? ""
+            : GLet.abbvHash(_parent1, GLet.HASH_LEN);
+    }
+
+    /** returns id of merged parent, or "" if there is none. */
+    public String parent2ID() {
+        return hasParent2() ? GLet.abbvHash(_parent2, GLet.HASH_LEN) : "";
+    }
+
     /** returns true if this has merged parent. */
     public boolean hasParent2() {
         return !_parent2.equals("");
     }
 
+    /** returns name of creator. */
+    public String author() {
+        return _author;
+    }
+
+    /** returns time of creation. */
+    public Date timestamp() {
+        return _timestamp;
+    }
+
+    /** returns depth from initial commit. */
+    public int version() {
+        return _version;
+    }
+
     /** returns positive if a > b.
      * @param b */
     public int compareVersions(Commit b) {
@@ -167,13 +414,23 @@ public class Commit implements Serializable {
      * returns true if same.
      * @param b */
     public boolean equals(Commit b) {
-        return GLet.sha1Obj(this).equals(GLet.sha1Obj(b));
+        return id().equals(b.id());
     }
 
     /** searches backwards from nodes to find ancestors.
      * returns those ancestors. */
     public ArrayList<String> ancestors() {
         ArrayList<String> all = new ArrayList<String>();
+        int row = graphRow();
+        if (row >= 0) {
+            CommitGraph graph = CommitGraph.of(_gitlet);
+            BitSet rows = graph.ancestors(row);
+            for (int r = rows.nextSetBit(0); r >= 0;
+                 r = rows.nextSetBit(r + 1)) {
+                all.add(graph.id(r));
+            }
+            return all;
+        }
         Commit a = this;
         all.add(a.id());
         while (a != null) {
@@ -195,14 +452,32 @@ public class Commit implements Serializable {
      * commit's history somewhere.
      * @param filename */
     public boolean tracks(String filename) {
-        if (_parent1.equals("")) {
+        int row = graphRow();
+        if (row >= 0) {
+            CommitGraph graph = CommitGraph.of(_gitlet);
+            String checked = null;
+            for (; graph.parent1(row) >= 0; row = graph.parent1(row)) {
+                String tree = graph.tree(row);
+                if (!tree.equals(checked)
+                        && Tree.lookup(trees(), tree, filename) != null) {
+                    return true;
+                }
+                checked = tree;
+            }
             return false;
-        } else if (containsKey(filename)) {
-            return true;
-        } else {
-            Commit p = parent1();
-            return p.tracks(filename);
         }
+        for (Commit c = this; !c.isInitialCommit(); c = c.parent1()) {
+            if (c.containsKey(filename)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** returns this commit's row in the commit graph, or -1 if it is
+     * not there. */
+    private int graphRow() {
+        return _gitlet == null ? -1 : CommitGraph.of(_gitlet).index(id());
     }
 
     /** returns parent1 commit. */
@@ -210,7 +485,7 @@ public class Commit implements Serializable {
         if (isInitialCommit()) {
             return null;
         }
-        return Utils.readObject(new File(_parent1), Commit.class);
+        return ObjectStore.readObject(new File(_parent1), Commit.class);
     }
 
     /** returns parent2 commit. */
@@ -218,38 +493,66 @@ public class Commit implements Serializable {
         if (!hasParent2()) {
             return null;
         }
-        return Utils.readObject(new File(_parent2), Commit.class);
+        return ObjectStore.readObject(new File(_parent2), Commit.class);
     }
 
-    /** recursively displays commit logs backwards until initial commit. */
-    public void logHistory() {
-        log();
-        if (!_parent1.equals("")) {
-            Commit p = Utils.readObject(new File(_parent1), Commit.class);
-            p.logHistory();
-        }
+    /** writes this commit's log entry to OUT in standard format, or with
+     * ONELINE as its abbreviated id and message on one line.
+     * @param out
+     * @param oneline */
+    void log(Writer out, boolean oneline) throws IOException {
+        log(out, id(), parent1ID(), parent2ID(), _timestamp.getTime(),
+                _message, oneline);
     }
 
-    /** displays commit log in standard format. */
-    public void log() {
-        System.out.println("===");
-        System.out.println("commit " + id());
-        if (!_parent2.equals("")) {
-            System.out.println("Merge: " + GLet.abbvHash(_parent1, 7)
-                    + " " + GLet.abbvHash(_parent2, 7));
+    /** writes the log entry of commit ID, whose parents are PARENT1 and
+     * PARENT2 ("" if none), made at TIMESTAMP (in milliseconds) with
+     * MESSAGE, to OUT as log(OUT, ONELINE) does.
+     * @param out
+     * @param id
+     * @param parent1
+     * @param parent2
+     * @param timestamp
+     * @param message
+     * @param oneline */
+    static void log(Writer out, String id, String parent1, String parent2,
+                    long timestamp, String message, boolean oneline)
+        throws IOException {
+        if (oneline) {
+            out.write(id.substring(0, ABBREVIATED) + " " + message + "\n");
+            return;
         }
-
-        System.out.format("Date: %ta %tb %td %tT %tY %tz\n", _timestamp,
-                _timestamp, _timestamp, _timestamp, _timestamp,
-                _timestamp, _timestamp);
-        System.out.println(_message);
-        System.out.println();
+        out.write("===\ncommit " + id + "\n");
+        if (!parent2.isEmpty()) {
+            out.write("Merge: " + parent1.substring(0, ABBREVIATED)
+                    + " " + parent2.substring(0, ABBREVIATED) + "\n");
+        }
+        out.write("Date: " + DATE.format(Instant.ofEpochMilli(timestamp))
+                + "\n");
+        out.write(message + "\n\n");
     }
 
-    /** returns sha1 hash id of itself.
+    /** length of abbreviated ids in logs. */
+    static final int ABBREVIATED = 7;
+
+    /** format of log dates, eg. "Thu Jan 01 00:00:00 1970 +0000", in the
+     * default time zone. */
+    private static final DateTimeFormatter DATE =
+        DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy Z",
+                Locale.getDefault(Locale.Category.FORMAT))
+            .withZone(ZoneId.systemDefault());
+
+    /** format version of commits naming a root tree. */
+    static final int TREE_VERSION = 2;
+
+    /** returns sha1 hash id of itself, hashing its encoding only the
+     * first time it is asked for.
      */
     public String id() {
-        return GLet.sha1Obj(this);
+        if (_id == null) {
+            _id = Utils.sha1(encode());
+        }
+        return _id;
     }
 
 }
@@ -0,0 +1,514 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/** The commit graph kept in .gitlet/commit-graph: a header, then one
+ *  fixed-width row per commit holding its id, the rows of its parents,
+ *  its generation number (one more than its furthest parent's, the
+ *  initial commit's being 1), timestamp and root tree id. the file is
+ *  memory-mapped, so walking history reads no commit objects. rows are
+ *  appended as commits are made, each after its parents', and the row
+ *  count in the header is written last, so a partly written append is
+ *  ignored. appends hold a lock on the file and first reread the count,
+ *  so appends from different processes (eg. a command run while the
+ *  daemon has the graph open) do not write over each other's rows, and
+ *  a graph asked for again is remapped if the file has changed since.
+ *  commits missing from the graph, eg. in repositories made before it,
+ *  have to be read as objects.
+ *
+ *  rows are found by id through .gitlet/commit-graph.idx: a fan-out
+ *  table counting the ids whose first byte is at most each value, then
+ *  (raw id, row) entries sorted by id, binary searched in place, like
+ *  IdIndex and Pack. it covers the first rows of the graph; the rows
+ *  appended since are kept in a table in memory, and once there are
+ *  TAIL_LIMIT of them the lookup file is rewritten to cover them.
+ *  @author David Babazadeh
+ */
+class CommitGraph {
+
+    /** returns the commit graph of repository directory GITLET, mapping
+     *  it the first time it is asked for.
+     *  @param gitlet */
+    static synchronized CommitGraph of(File gitlet) {
+        CommitGraph result = OPEN.computeIfAbsent(gitlet.getAbsolutePath(),
+            k -> new CommitGraph(new File(gitlet, FILE)));
+        result.refresh();
+        return result;
+    }
+
+    /** deletes the commit graph of GITLET, eg. once commit ids change.
+     *  @param gitlet */
+    static synchronized void delete(File gitlet) {
+        OPEN.remove(gitlet.getAbsolutePath());
+        new File(gitlet, FILE).delete();
+        new File(gitlet, FILE + LOOKUP).delete();
+    }
+
+    /** graph stored in FILE, which need not exist yet.
+     *  @param file */
+    private CommitGraph(File file) {
+        _file = file;
+        _lookupFile = new File(file.getPath() + LOOKUP);
+        load();
+    }
+
+    /** returns the number of commits in the graph. */
+    int size() {
+        return _count;
+    }
+
+    /** returns the row of commit ID, or -1 if it is not in the graph.
+     *  @param id */
+    synchronized int index(String id) {
+        if (_tail == null) {
+            openLookup();
+        }
+        Integer row = _tail.get(id);
+        if (row != null) {
+            return row;
+        }
+        if (_lookup == null) {
+            return -1;
+        }
+        byte[] key = Codec.raw(id), raw = new byte[Codec.ID_BYTES];
+        int first = key[0] & BYTE;
+        int lo = first == 0 ? 0 : _lookup.getInt(FANOUT_AT + 4 * (first - 1));
+        int hi = _lookup.getInt(FANOUT_AT + 4 * first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            _lookup.get(LOOKUP_HEADER + mid * ENTRY, raw);
+            int cmp = Arrays.compareUnsigned(raw, key);
+            if (cmp == 0) {
+                return _lookup.getInt(LOOKUP_HEADER + mid * ENTRY
+                        + Codec.ID_BYTES);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** returns the id of the commit in ROW.
+     *  @param row */
+    String id(int row) {
+        return rawID(row, 0);
+    }
+
+    /** returns the row of the first parent of ROW, or -1.
+     *  @param row */
+    int parent1(int row) {
+        return _rows.getInt(pos(row) + PARENT1);
+    }
+
+    /** returns the row of the merged parent of ROW, or -1.
+     *  @param row */
+    int parent2(int row) {
+        return _rows.getInt(pos(row) + PARENT2);
+    }
+
+    /** returns the generation number of ROW.
+     *  @param row */
+    int generation(int row) {
+        return _rows.getInt(pos(row) + GENERATION);
+    }
+
+    /** returns the timestamp of ROW in milliseconds.
+     *  @param row */
+    long timestamp(int row) {
+        return _rows.getLong(pos(row) + TIMESTAMP);
+    }
+
+    /** returns the root tree id of ROW.
+     *  @param row */
+    String tree(int row) {
+        return rawID(row, TREE);
+    }
+
+    /** returns the rows of ROW and all its ancestors.
+     *  @param row */
+    BitSet ancestors(int row) {
+        BitSet result = new BitSet(_count);
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.push(row);
+        while (!pending.isEmpty()) {
+            int r = pending.pop();
+            if (r < 0 || result.get(r)) {
+                continue;
+            }
+            result.set(r);
+            pending.push(parent1(r));
+            pending.push(parent2(r));
+        }
+        return result;
+    }
+
+    /** adds COMMIT, and any of its ancestors not yet in the graph, in
+     *  parent-first order. ancestors are read as objects only when they
+     *  are missing.
+     *  @param commit */
+    synchronized void add(Commit commit) {
+        add(List.of(commit));
+    }
+
+    /** adds COMMITS, and any of their ancestors not yet in the graph, in
+     *  parent-first order, with one write. ancestors among COMMITS are
+     *  taken from there; others are read as objects only when they are
+     *  missing. the write holds a lock on the file, released when it is
+     *  closed, and if the file has grown since it was mapped the graph
+     *  is remapped, through the locked channel as closing another would
+     *  release the lock, and what is missing worked out again.
+     *  @param commits */
+    synchronized void add(List<Commit> commits) {
+        HashMap<String, Integer> generations = new HashMap<>();
+        ArrayList<Commit> added = missing(commits, generations);
+        if (added.isEmpty()) {
+            return;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(_file, "rw")) {
+            out.getChannel().lock();
+            if (out.length() < HEADER || count(out) != _count) {
+                load(out.getChannel());
+                generations.clear();
+                added = missing(commits, generations);
+            }
+            if (!added.isEmpty()) {
+                append(out, added, generations);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        load();
+    }
+
+    /** returns those of COMMITS, and of their ancestors, missing from
+     *  the graph, in parent-first order, putting their generation numbers
+     *  in GENERATIONS. ancestors among COMMITS are taken from there;
+     *  others are read as objects only when they are missing.
+     *  @param commits
+     *  @param generations */
+    private ArrayList<Commit> missing(List<Commit> commits,
+                                      HashMap<String, Integer> generations) {
+        HashMap<String, Commit> given = new HashMap<>();
+        for (Commit c : commits) {
+            given.put(c.id(), c);
+        }
+        ArrayList<Commit> added = new ArrayList<>();
+        ArrayDeque<Commit> stack = new ArrayDeque<>();
+        for (Commit commit : commits) {
+            stack.push(commit);
+            while (!stack.isEmpty()) {
+                Commit c = stack.peek();
+                if (index(c.id()) >= 0 || generations.containsKey(c.id())) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                int generation = 0;
+                for (String parent
+                         : new String[] {c.parent1ID(), c.parent2ID()}) {
+                    if (parent.isEmpty()) {
+                        continue;
+                    }
+                    int row = index(parent);
+                    if (row >= 0) {
+                        generation = Math.max(generation, generation(row));
+                    } else if (generations.containsKey(parent)) {
+                        generation = Math.max(generation,
+                                generations.get(parent));
+                    } else if (given.containsKey(parent)) {
+                        stack.push(given.get(parent));
+                        ready = false;
+                    } else {
+                        stack.push(parent.equals(c.parent1ID())
+                                ? c.parent1() : c.parent2());
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    generations.put(c.id(), generation + 1);
+                    added.add(c);
+                }
+            }
+        }
+        return added;
+    }
+
+    /** writes rows for COMMITS, whose generation numbers are in
+     *  GENERATIONS, to OUT, the locked file, after the existing rows.
+     *  @param out
+     *  @param commits
+     *  @param generations */
+    private void append(RandomAccessFile out, ArrayList<Commit> commits,
+                        HashMap<String, Integer> generations)
+        throws IOException {
+        HashMap<String, Integer> rows = new HashMap<>();
+        ByteBuffer buf = ByteBuffer.allocate(commits.size() * ROW);
+        for (Commit c : commits) {
+            rows.put(c.id(), _count + rows.size());
+            buf.put(Codec.raw(c.id()));
+            buf.putInt(row(c.parent1ID(), rows));
+            buf.putInt(row(c.parent2ID(), rows));
+            buf.putInt(generations.get(c.id()));
+            buf.putLong(c.timestamp().getTime());
+            buf.put(Codec.raw(c.tree(true)));
+        }
+        if (_count == 0) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            _lookupFile.delete();
+        }
+        out.seek(HEADER + (long) _count * ROW);
+        out.write(buf.array());
+        out.setLength(out.getFilePointer());
+        out.seek(COUNT);
+        out.writeInt(_count + commits.size());
+    }
+
+    /** returns the row of commit ID, which is either in the graph or
+     *  in the rows being added, ADDED, or -1 if ID is "".
+     *  @param id
+     *  @param added */
+    private int row(String id, HashMap<String, Integer> added) {
+        if (id.isEmpty()) {
+            return -1;
+        }
+        Integer row = added.get(id);
+        return row != null ? row : index(id);
+    }
+
+    /** returns the row count in the header of the file IN.
+     *  @param in */
+    private static int count(RandomAccessFile in) throws IOException {
+        in.seek(COUNT);
+        return in.readInt();
+    }
+
+    /** remaps the file if its length has changed since it was mapped,
+     *  as when another process has appended to it. */
+    private synchronized void refresh() {
+        if (_file.length() != _length) {
+            load();
+        }
+    }
+    /** maps the file, treating one that is missing or not a commit
+     *  graph as empty. */
+    private void load() {
+        try (FileChannel ch = !_file.isFile() ? null
+                 : FileChannel.open(_file.toPath(), StandardOpenOption.READ)) {
+            load(ch);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** maps the file through CH, treating no channel (a missing file) or
+     *  a file that is not a commit graph as empty. the count in the
+     *  header is read from the mapping, and so may already count rows
+     *  another process appended past its end; only the rows mapped are
+     *  taken, and the file is remapped when next asked for.
+     *  @param ch */
+    private void load(FileChannel ch) throws IOException {
+        _count = 0;
+        _rows = null;
+        _tail = null;
+        _length = 0;
+        if (ch == null) {
+            return;
+        }
+        long size = ch.size();
+        MappedByteBuffer rows =
+            ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < HEADER || rows.getInt(0) != MAGIC
+                || rows.getInt(4) != VERSION) {
+            return;
+        }
+        int count = rows.getInt(COUNT);
+        _rows = rows;
+        _count = (int) Math.min(count, (size - HEADER) / ROW);
+        _length = HEADER + (long) count * ROW == size ? size : -1;
+    }
+
+    /** maps the lookup file, if it is well formed and covers no more
+     *  rows than the graph, and puts the rows after those it covers in
+     *  the tail, first rewriting it if there are TAIL_LIMIT of those. */
+    private void openLookup() {
+        _lookup = null;
+        int covered = 0;
+        if (_count > 0 && _lookupFile.isFile()) {
+            try (FileChannel ch = FileChannel.open(_lookupFile.toPath(),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer lookup =
+                    ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                int count = ch.size() >= LOOKUP_HEADER
+                    && lookup.getInt(0) == LOOKUP_MAGIC
+                    && lookup.getInt(4) == VERSION
+                    ? lookup.getInt(COUNT) : -1;
+                if (count > 0 && count <= _count && ch.size()
+                        == LOOKUP_HEADER + (long) count * ENTRY) {
+                    byte[] raw = new byte[Codec.ID_BYTES];
+                    lookup.get(LOOKUP_HEADER, raw);
+                    if (Codec.hex(raw).equals(id(lookup.getInt(
+                            LOOKUP_HEADER + Codec.ID_BYTES)))) {
+                        _lookup = lookup;
+                        covered = count;
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        if (_count - covered >= TAIL_LIMIT) {
+            writeLookup();
+            openLookup();
+            return;
+        }
+        _tail = new HashMap<>();
+        for (int row = covered; row < _count; row += 1) {
+            _tail.put(id(row), row);
+        }
+    }
+
+    /** writes a lookup file covering every row, through a temporary
+     *  file of this process's own, as another may be writing it too. */
+    private void writeLookup() {
+        String[] ids = new String[_count];
+        Integer[] order = new Integer[_count];
+        int[] fanout = new int[FANOUT];
+        for (int row = 0; row < _count; row += 1) {
+            ids[row] = id(row);
+            order[row] = row;
+            fanout[Integer.parseInt(ids[row].substring(0, 2), HEX)] += 1;
+        }
+        Arrays.sort(order, (x, y) -> ids[x].compareTo(ids[y]));
+        File temp = new File(_lookupFile.getPath() + "-"
+                + ProcessHandle.current().pid() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(LOOKUP_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_count);
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                out.writeInt(total);
+            }
+            for (int row : order) {
+                out.write(Codec.raw(ids[row]));
+                out.writeInt(row);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectStore.install(temp, _lookupFile);
+    }
+
+    /** returns the id stored at OFFSET within ROW.
+     *  @param row
+     *  @param offset */
+    private String rawID(int row, int offset) {
+        byte[] raw = new byte[Codec.ID_BYTES];
+        _rows.get(pos(row) + offset, raw);
+        return Codec.hex(raw);
+    }
+
+    /** returns the position of ROW in the file.
+     *  @param row */
+    private static int pos(int row) {
+        return HEADER + row * ROW;
+    }
+
+    /** name of the commit graph within .gitlet. */
+    static final String FILE = "commit-graph";
+
+    /** magic number heading the file ("GLCG"). */
+    static final int MAGIC = 0x474c4347;
+
+    /** format version of the file. */
+    static final int VERSION = 1;
+
+    /** position of the row count in the header. */
+    static final int COUNT = 8;
+
+    /** length of the header: magic, version, count. */
+    static final int HEADER = 12;
+
+    /** offsets within a row of its fields. */
+    static final int PARENT1 = Codec.ID_BYTES, PARENT2 = PARENT1 + 4,
+        GENERATION = PARENT2 + 4, TIMESTAMP = GENERATION + 4,
+        TREE = TIMESTAMP + 8;
+
+    /** length of a row: id, parents, generation, timestamp, tree. */
+    static final int ROW = TREE + Codec.ID_BYTES;
+
+    /** suffix of the name of the lookup file. */
+    static final String LOOKUP = ".idx";
+
+    /** magic number heading the lookup file ("GLCL"). */
+    static final int LOOKUP_MAGIC = 0x474c434c;
+
+    /** entries in the lookup file's fan-out table. */
+    static final int FANOUT = 256;
+
+    /** position of the fan-out table in the lookup file. */
+    static final int FANOUT_AT = HEADER;
+
+    /** length of the lookup file's header: magic, version, count,
+     *  fan-out. */
+    static final int LOOKUP_HEADER = FANOUT_AT + 4 * FANOUT;
+
+    /** length of a lookup entry: id and row. */
+    static final int ENTRY = Codec.ID_BYTES + 4;
+
+    /** most rows kept in memory rather than in the lookup file. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** mask of a byte. */
+    private static final int BYTE = 0xff;
+
+    /** radix of ids. */
+    private static final int HEX = 16;
+
+    /** the graph file and its lookup file. */
+    private final File _file, _lookupFile;
+
+    /** length of the file when mapped, or -1 if it did not end at the
+     *  last row then, as when another process was appending. */
+    private long _length;
+
+    /** the mapped file, or null if it is empty. */
+    private MappedByteBuffer _rows;
+
+    /** number of rows. */
+    private int _count;
+
+    /** the mapped lookup file, or null. */
+    private MappedByteBuffer _lookup;
+
+    /** rows by commit id of the rows the lookup file does not cover,
+     *  or null until first needed. */
+    private HashMap<String, Integer> _tail;
+
+    /** opened graphs by repository directory. */
+    private static final HashMap<String, CommitGraph> OPEN = new HashMap<>();
+}
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.Set;
+
+/** Repository settings, kept as key=value lines in .gitlet/config.
+ *  @author David Babazadeh
+ */
+class Config {
+
+    /** settings stored in FILE, which need not exist yet.
+     *  @param file */
+    Config(File file) {
+        _file = file;
+        if (file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                _props.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** returns value of KEY, or null if unset.
+     *  @param key */
+    String get(String key) {
+        return _props.getProperty(key);
+    }
+
+    /** returns value of KEY as a long, or DFLT if unset or malformed.
+     *  @param key
+     *  @param dflt */
+    long getLong(String key, long dflt) {
+        try {
+            return Long.parseLong(_props.getProperty(key, "").trim());
+        } catch (NumberFormatException excp) {
+            return dflt;
+        }
+    }
+
+    /** returns value of KEY as a boolean, or DFLT if unset.
+     *  @param key
+     *  @param dflt */
+    boolean getBoolean(String key, boolean dflt) {
+        String value = _props.getProperty(key);
+        return value == null ? dflt : Boolean.parseBoolean(value.trim());
+    }
+
+    /** returns all keys that are set. */
+    Set<String> keys() {
+        return _props.stringPropertyNames();
+    }
+
+    /** sets KEY to VALUE, or unsets it if VALUE is null, and saves.
+     *  @param key
+     *  @param value */
+    void set(String key, String value) {
+        if (value == null) {
+            _props.remove(key);
+        } else {
+            _props.setProperty(key, value);
+        }
+        File temp = new File(_file.getPath() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+            _props.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectStore.install(temp, _file);
+    }
+
+    /** returns size in bytes from which files are hashed, stored and
+     *  checked out by streaming rather than in memory. */
+    long bigFileThreshold() {
+        return getLong(BIG_FILE_THRESHOLD, DEFAULT_BIG_FILE_THRESHOLD);
+    }
+
+    /** returns true if files of at least chunking.minFileSize bytes are
+     *  to be stored as chunked blobs. off unless chunking.enabled. */
+    boolean chunking() {
+        return getBoolean(CHUNKING, false);
+    }
+
+    /** returns size in bytes from which files are chunked. */
+    long chunkingMinFileSize() {
+        return getLong(CHUNKING_MIN_FILE, DEFAULT_CHUNKING_MIN_FILE);
+    }
+
+    /** returns a chunker using the configured chunk sizes. */
+    Chunker chunker() {
+        return new Chunker((int) getLong(CHUNK_MIN, DEFAULT_CHUNK_MIN),
+                (int) getLong(CHUNK_AVG, DEFAULT_CHUNK_AVG),
+                (int) getLong(CHUNK_MAX, DEFAULT_CHUNK_MAX));
+    }
+
+    /** returns the name of the remote missing blobs are fetched from,
+     *  or null if this is not a partial clone; see Promisor. */
+    String promisor() {
+        return get(PROMISOR);
+    }
+
+    /** key of bigFileThreshold. */
+    static final String BIG_FILE_THRESHOLD = "core.bigFileThreshold";
+
+    /** key of promisor. */
+    static final String PROMISOR = "remote.promisor";
+
+    /** default bigFileThreshold: 8 MiB. */
+    static final long DEFAULT_BIG_FILE_THRESHOLD = 8L << 20;
+
+    /** keys of chunking settings. */
+    static final String CHUNKING = "chunking.enabled",
+        CHUNKING_MIN_FILE = "chunking.minFileSize",
+        CHUNK_MIN = "chunking.minChunk", CHUNK_AVG = "chunking.avgChunk",
+        CHUNK_MAX = "chunking.maxChunk";
+
+    /** default chunking.minFileSize: 1 MiB. */
+    static final long DEFAULT_CHUNKING_MIN_FILE = 1L << 20;
+
+    /** default chunk sizes: 16, 64 and 256 KiB. */
+    static final long DEFAULT_CHUNK_MIN = 16L << 10,
+        DEFAULT_CHUNK_AVG = 64L << 10, DEFAULT_CHUNK_MAX = 256L << 10;
+
+    /** file holding the settings. */
+    private final File _file;
+
+    /** the settings. */
+    private final Properties _props = new Properties();
+}
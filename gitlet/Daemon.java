@@ -0,0 +1,352 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** A long-running gitlet server, listening on the Unix domain socket
+ *  .gitlet/daemon.sock, so that commands sent by a thin client (Client)
+ *  skip starting a JVM and find the object caches, commit graph and
+ *  indexes already loaded. each request names a working directory and a
+ *  command, which is run as Main would run it, and is answered with what
+ *  the command wrote to standard output and standard error and its exit
+ *  status. requests are served on threads of their own (virtual threads
+ *  where the JVM has them); read-only commands on a repository run at
+ *  once, while any other waits for them and runs alone.
+ *
+ *  a request is the working directory and the argument count and
+ *  arguments, strings written as Codec.writeString does; the reply is an
+ *  OUT frame and an ERR frame, each a tag, a length and that many bytes,
+ *  then an EXIT tag and the exit status. while the daemon serves, errors
+ *  (GLet.error) end just the command.
+ *  @author David Babazadeh
+ */
+class Daemon {
+
+    /** daemon of repository directory GITLET.
+     *  @param gitlet */
+    Daemon(File gitlet) {
+        _socket = new File(gitlet, SOCKET);
+        _cwd = gitlet.getAbsoluteFile().getParentFile();
+    }
+
+    /** returns true if the daemon is running: if its socket accepts a
+     *  connection. */
+    boolean running() {
+        try (SocketChannel channel = SocketChannel.open(address(_socket))) {
+            return channel.isConnected();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** starts the daemon in a background process writing its output to
+     *  .gitlet/daemon.log, and waits until it is listening. */
+    void start() {
+        if (running()) {
+            System.out.println("The daemon is already running.");
+            return;
+        }
+        String java = ProcessHandle.current().info().command()
+            .orElse("java");
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"), Main.class.getName(),
+                "daemon", "run");
+        builder.directory(_cwd);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(_socket.getParentFile(), LOG));
+        try {
+            builder.start();
+        } catch (IOException excp) {
+            GLet.error("Could not start the daemon.");
+        }
+        long deadline = System.nanoTime() + FsMonitor.START_WAIT;
+        while (System.nanoTime() < deadline) {
+            if (running()) {
+                return;
+            }
+            try {
+                Thread.sleep(FsMonitor.START_POLL);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+        GLet.error("The daemon did not start.");
+    }
+
+    /** asks a running daemon to stop and waits until it has. */
+    void stop() {
+        if (send(_socket, _cwd, new String[] {"daemon", STOP},
+                 OutputStream.nullOutputStream(),
+                 OutputStream.nullOutputStream()) == null) {
+            System.out.println("The daemon is not running.");
+            return;
+        }
+        long deadline = System.nanoTime() + FsMonitor.START_WAIT;
+        while (_socket.exists() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(FsMonitor.START_POLL);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+    }
+
+    /** serves requests in this process until asked to stop. */
+    void run() {
+        if (running()) {
+            GLet.error("The daemon is already running.");
+        }
+        _socket.delete();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address(_socket));
+            _server = server;
+            System.setOut(new PrintStream(new Routed(System.out, OUT),
+                    true));
+            System.setErr(new PrintStream(new Routed(System.err, ERR),
+                    true));
+            GLet.keepRunning(true);
+            ExecutorService pool = executor();
+            try {
+                while (true) {
+                    SocketChannel channel = server.accept();
+                    pool.execute(() -> serve(channel));
+                }
+            } catch (ClosedChannelException excp) {
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            }
+        } catch (IOException | InterruptedException excp) {
+            GLet.keepRunning(false);
+            GLet.error("The daemon stopped: %s", excp.getMessage());
+        } finally {
+            GLet.keepRunning(false);
+            _socket.delete();
+        }
+    }
+
+    /** sends the command ARGS, to be run in working directory CWD, to the
+     *  daemon listening on SOCKET, copying what it writes to OUT and ERR.
+     *  returns its exit status, or null if no daemon is listening.
+     *  @param socket
+     *  @param cwd
+     *  @param args
+     *  @param out
+     *  @param err */
+    static Integer send(File socket, File cwd, String[] args,
+                        OutputStream out, OutputStream err) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(address(socket));
+        } catch (IOException excp) {
+            return null;
+        }
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            Codec.writeString(request, cwd.getAbsolutePath());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                Codec.writeString(request, arg);
+            }
+            request.flush();
+            DataInputStream reply = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                byte tag = reply.readByte();
+                if (tag == EXIT) {
+                    return reply.readInt();
+                }
+                byte[] bytes = new byte[reply.readInt()];
+                reply.readFully(bytes);
+                (tag == OUT_FRAME ? out : err).write(bytes);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** reads one request from CHANNEL, runs it and replies. a connection
+     *  closed before a whole request is read (eg. by running()) is
+     *  ignored.
+     *  @param channel */
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            DataInputStream request = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            File cwd;
+            String[] args;
+            try {
+                cwd = new File(Codec.readString(request));
+                args = new String[request.readInt()];
+                for (int i = 0; i < args.length; i += 1) {
+                    args[i] = Codec.readString(request);
+                }
+            } catch (EOFException excp) {
+                return;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(),
+                err = new ByteArrayOutputStream();
+            boolean stop = args.length == 2 && args[0].equals("daemon")
+                && args[1].equals(STOP);
+            int status = stop ? 0 : execute(cwd, args, out, err);
+            DataOutputStream reply = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            for (byte tag : new byte[] {OUT_FRAME, ERR_FRAME}) {
+                ByteArrayOutputStream frame = tag == OUT_FRAME ? out : err;
+                reply.writeByte(tag);
+                reply.writeInt(frame.size());
+                frame.writeTo(reply);
+            }
+            reply.writeByte(EXIT);
+            reply.writeInt(status);
+            reply.flush();
+            if (stop) {
+                _server.close();
+            }
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** runs command ARGS in working directory CWD as Main does, sending
+     *  what it writes to OUT and ERR, and returns its exit status.
+     *  @param cwd
+     *  @param args
+     *  @param out
+     *  @param err */
+    private static int execute(File cwd, String[] args, OutputStream out,
+                               OutputStream err) {
+        ReadWriteLock rw = LOCKS.computeIfAbsent(
+            new File(cwd, WorkTree.GITLET).getAbsolutePath(),
+            k -> new ReentrantReadWriteLock());
+        Lock lock = args.length > 0 && READ_ONLY.contains(args[0])
+            ? rw.readLock() : rw.writeLock();
+        OUT.set(out);
+        ERR.set(err);
+        lock.lock();
+        try {
+            return Main.execute(new Repo(cwd), args);
+        } finally {
+            lock.unlock();
+            OUT.remove();
+            ERR.remove();
+        }
+    }
+
+    /** returns an executor running each task on a virtual thread of its
+     *  own where the JVM has them, or else on a pooled thread. */
+    private static ExecutorService executor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /** returns the address of SOCKET.
+     *  @param socket */
+    private static UnixDomainSocketAddress address(File socket) {
+        return UnixDomainSocketAddress.of(socket.toPath());
+    }
+
+    /** an output stream writing to the stream a thread has set in TARGET,
+     *  or to FALLBACK if it has set none. */
+    private static final class Routed extends OutputStream {
+
+        /** writes to the stream in TARGET, else to FALLBACK.
+         *  @param fallback
+         *  @param target */
+        Routed(OutputStream fallback, ThreadLocal<OutputStream> target) {
+            _fallback = fallback;
+            _target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            stream().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            stream().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            stream().flush();
+        }
+
+        /** returns the stream written to by this thread. */
+        private OutputStream stream() {
+            OutputStream result = _target.get();
+            return result == null ? _fallback : result;
+        }
+
+        /** stream written when a thread has set none. */
+        private final OutputStream _fallback;
+
+        /** stream set by each thread. */
+        private final ThreadLocal<OutputStream> _target;
+    }
+
+    /** name of the socket within .gitlet. */
+    static final String SOCKET = "daemon.sock";
+
+    /** name of the daemon's log within .gitlet. */
+    static final String LOG = "daemon.log";
+
+    /** argument of the request asking the daemon to stop. */
+    static final String STOP = "stop";
+
+    /** tags of reply frames. */
+    static final byte OUT_FRAME = 'o', ERR_FRAME = 'e', EXIT = 'x';
+
+    /** commands that only read the repository, so may run together.
+     *  not merge-base, which adds the commits it is given to the commit
+     *  graph if they are missing from it. */
+    static final Set<String> READ_ONLY =
+        Set.of("log", "global-log", "find");
+
+    /** standard output and error of the request each thread serves. */
+    private static final ThreadLocal<OutputStream> OUT = new ThreadLocal<>(),
+        ERR = new ThreadLocal<>();
+
+    /** readers-writer locks by repository directory. */
+    private static final ConcurrentHashMap<String, ReadWriteLock> LOCKS =
+        new ConcurrentHashMap<>();
+
+    /** the socket. */
+    private final File _socket;
+
+    /** the working directory. */
+    private final File _cwd;
+
+    /** the listening channel while serving. */
+    private volatile ServerSocketChannel _server;
+}
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/** Copy/insert deltas between two versions of an object, used by packs
+ *  to store successive versions of a file against each other.
+ *  a delta is the target length followed by a list of instructions,
+ *  each either copying a range of the base or inserting literal bytes.
+ *  @author David Babazadeh
+ */
+class Delta {
+
+    /** returns a delta converting BASE into TARGET.
+     *  @param base
+     *  @param target */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(target.length);
+            int literal = 0, j = 0;
+            while (j < target.length) {
+                Integer start = j + BLOCK <= target.length
+                        ? blocks.get(hash(target, j)) : null;
+                int len = 0;
+                if (start != null) {
+                    while (start + len < base.length && j + len < target.length
+                            && base[start + len] == target[j + len]) {
+                        len += 1;
+                    }
+                }
+                if (len < BLOCK) {
+                    j += 1;
+                    continue;
+                }
+                insert(out, target, literal, j);
+                out.writeByte(COPY);
+                out.writeInt(start);
+                out.writeInt(len);
+                j += len;
+                literal = j;
+            }
+            insert(out, target, literal, j);
+            out.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** returns the result of applying DELTA to BASE.
+     *  @param base
+     *  @param delta */
+    static byte[] apply(byte[] base, byte[] delta) {
+        try (DataInputStream in =
+                 new DataInputStream(new ByteArrayInputStream(delta))) {
+            byte[] result = new byte[in.readInt()];
+            int pos = 0;
+            while (pos < result.length) {
+                byte op = in.readByte();
+                int len;
+                if (op == COPY) {
+                    int start = in.readInt();
+                    len = in.readInt();
+                    System.arraycopy(base, start, result, pos, len);
+                } else {
+                    len = in.readInt();
+                    in.readFully(result, pos, len);
+                }
+                pos += len;
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+    }
+
+    /** writes an insert of TARGET[FROM, TO) to OUT if it is non-empty.
+     *  @param out
+     *  @param target
+     *  @param from
+     *  @param to */
+    private static void insert(DataOutputStream out, byte[] target,
+                               int from, int to) throws IOException {
+        if (from < to) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** returns hash of the BLOCK bytes of DATA starting at START.
+     *  @param data
+     *  @param start */
+    private static int hash(byte[] data, int start) {
+        int h = 1;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = HASH_MULT * h + data[i];
+        }
+        return h;
+    }
+
+    /** length of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+
+    /** multiplier of block hash. */
+    private static final int HASH_MULT = 31;
+
+    /** instruction codes. */
+    private static final byte COPY = 1, INSERT = 2;
+}
@@ -1,24 +1,33 @@
 package gitlet;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-
-import java.io.IOException;
-import java.nio.file.InvalidPathException;
-
-import static java.lang.Math.max;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
  *  next.
+ *
+ *  Lines are interned as small integers when the sequences are set, so
+ *  they are compared as ints.  Common subsequences are found by Myers'
+ *  O(ND) algorithm, dividing each problem at its middle snake so that
+ *  only O(N + M) space is used, or, in histogram mode, by repeatedly
+ *  matching the region around the rarest line common to both sides and
+ *  dividing there (falling back to Myers where no line is rare enough),
+ *  which aligns changes with unique lines such as declarations rather
+ *  than with blank lines and braces.  Work is kept on an explicit stack,
+ *  so neither mode recurses.
  *  @author P. N. Hilfinger */
 public class Diff {
 
@@ -27,8 +36,7 @@ public class Diff {
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
         _lines1 = new ArrayList<>(seq1);
         _lines2 = new ArrayList<>(seq2);
-        _lls = null;
-        _todo = null;
+        intern();
     }
 
     /** Set the sequences currently being compared to the contents
@@ -48,8 +56,14 @@ public class Diff {
                  excp) {
             _lines2 = Collections.emptyList();
         }
-        _lls = null;
-        _todo = null;
+        intern();
+    }
+
+    /** Use histogram matching iff HISTOGRAM when finding common
+     *  subsequences (the default is Myers' algorithm). */
+    public void setHistogram(boolean histogram) {
+        _histogram = histogram;
+        _common = null;
     }
 
     /** Return the first of the current sequences. */
@@ -76,59 +90,11 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
-        if (_lls == null) {
-            _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
-            for (int[] row : _lls) {
-                Arrays.fill(row, -1);
-            }
-        }
         if (k1 == 0 || k2 == 0
             || k1 > _lines1.size() || k2 > _lines2.size()) {
             return 0;
-        } else if (_lls[k1][k2] == -1) {
-            initStack();
-            push(k1, k2, 0);
-            while (!empty()) {
-                pop();
-                if (_llsTop1 == 0 || _llsTop2 == 0) {
-                    _lls[_llsTop1][_llsTop2] = 0;
-                } else if (_lls[_llsTop1][_llsTop2] != -1) {
-                    continue;
-                } else {
-                    switch (_llsState) {
-                    case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                            .equals(_lines2.get(_llsTop2 - 1))) {
-                            push(_llsTop1, _llsTop2, 4);
-                            push(_llsTop1 - 1, _llsTop2 - 1, 0);
-                        } else {
-                            push(_llsTop1, _llsTop2, 1);
-                        }
-                        continue;
-                    case 1:
-                        push(_llsTop1, _llsTop2, 2);
-                        push(_llsTop1, _llsTop2 - 1, 0);
-                        continue;
-                    case 2:
-                        push(_llsTop1, _llsTop2, 3);
-                        push(_llsTop1 - 1, _llsTop2, 0);
-                        continue;
-                    case 3:
-                        _lls[_llsTop1][_llsTop2]
-                            = max(_lls[_llsTop1][_llsTop2 - 1],
-                                  _lls[_llsTop1 - 1][_llsTop2]);
-                        continue;
-                    case 4:
-                        _lls[_llsTop1][_llsTop2]
-                            = _lls[_llsTop1 - 1][_llsTop2 - 1] + 1;
-                        continue;
-                    default:
-                        assert false;
-                    }
-                }
-            }
         }
-        return _lls[k1][k2];
+        return (k1 + k2 - distance(k1, k2)) / 2;
     }
 
     /** Return the length of the longest common subsequence of the current
@@ -142,10 +108,7 @@ public class Diff {
      *  content. */
     public boolean sequencesEqual() {
         checkData();
-        if (_lines1.size() != _lines2.size()) {
-            return false;
-        }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
+        return Arrays.equals(_ids1, _ids2);
     }
 
     /** Return an array containing the int values of the items in LIST. */
@@ -164,32 +127,32 @@ public class Diff {
      *  a sequence of 3n values s01, s02, L0, s11, s12, L1,..., where
      *  si1 is the starting line position of the subsequence in the
      *  first file (0-based), si2 is the starting position in the second
-     *  file, and Li is the length of the subsequence. */
+     *  file, and Li is the length of the subsequence.  In histogram mode
+     *  the subsequence is common but need not be the largest. */
     public int[] commonSubsequence() {
-        ArrayDeque<Integer> resultList = new ArrayDeque<>();
-
-        int k1, k2;
-        k1 = _lines1.size(); k2 = _lines2.size();
-        while (k1 > 0 && k2 > 0) {
-            int ls = lls(k1, k2);
-            if (lls(k1 - 1, k2) == ls) {
-                k1 -= 1;
-            } else if (lls(k1, k2 - 1) == ls) {
-                k2 -= 1;
-            } else {
-                int L;
-                L = 1;
-                while (k1 > L && k2 > L && lls(k1 - L - 1, k2 - L) != ls - L
-                       && lls(k1 - L, k2 - L  - 1) != ls - L) {
-                    L += 1;
+        checkData();
+        if (_common == null) {
+            _runs = new ArrayList<>();
+            _stack = new int[INITIAL_STACK];
+            _top = 0;
+            push(_histogram ? HISTOGRAM : MYERS, 0, _ids1.length,
+                 0, _ids2.length);
+            while (_top > 0) {
+                _top -= FRAME;
+                int kind = _stack[_top], a0 = _stack[_top + 1],
+                    a1 = _stack[_top + 2], b0 = _stack[_top + 3],
+                    b1 = _stack[_top + 4];
+                if (kind == RUN) {
+                    run(a0, b0, a1);
+                } else {
+                    region(kind, a0, a1, b0, b1);
                 }
-                resultList.offerFirst(L);
-                resultList.offerFirst(k2 - L);
-                resultList.offerFirst(k1 - L);
-                k1 -= L; k2 -= L;
             }
+            _common = toIntArr(_runs);
+            _runs = null;
+            _stack = null;
         }
-        return toIntArr(resultList);
+        return _common.clone();
     }
 
     /** Return the edit that converts the first of the sequences being compared
@@ -224,6 +187,284 @@ public class Diff {
         return toIntArr(result);
     }
 
+    /** Write to OUT the differences between the sequences being compared
+     *  in unified format, as hunks of changed lines with up to CONTEXT
+     *  unchanged lines around them, each line prefixed by ' ', '-' or
+     *  '+'.  Nothing is written if the sequences are equal. */
+    public void unified(Writer out, int context) throws IOException {
+        int[] edits = diffs();
+        for (int start = 0; start < edits.length;) {
+            int end = start + 4;
+            while (end < edits.length
+                   && edits[end] - (edits[end - 4] + edits[end - 3])
+                      <= 2 * context) {
+                end += 4;
+            }
+            int lo1 = Math.max(0, edits[start] - context),
+                lo2 = Math.max(0, edits[start + 2] - context),
+                hi1 = Math.min(_lines1.size(),
+                               edits[end - 4] + edits[end - 3] + context),
+                hi2 = Math.min(_lines2.size(),
+                               edits[end - 2] + edits[end - 1] + context);
+            out.write("@@ -" + range(lo1, hi1 - lo1) + " +"
+                      + range(lo2, hi2 - lo2) + " @@\n");
+            int k1 = lo1;
+            for (int e = start; e < end; e += 4) {
+                for (; k1 < edits[e]; k1 += 1) {
+                    out.write(" " + _lines1.get(k1) + "\n");
+                }
+                for (int k = 0; k < edits[e + 1]; k += 1) {
+                    out.write("-" + _lines1.get(edits[e] + k) + "\n");
+                }
+                for (int k = 0; k < edits[e + 3]; k += 1) {
+                    out.write("+" + _lines2.get(edits[e + 2] + k) + "\n");
+                }
+                k1 = edits[e] + edits[e + 1];
+            }
+            for (; k1 < hi1; k1 += 1) {
+                out.write(" " + _lines1.get(k1) + "\n");
+            }
+            start = end;
+        }
+    }
+
+    /** Return the lines of CONTENTS, decoded as UTF-8 and split at
+     *  newlines.  A last line not ending in a newline is followed by a
+     *  second line marking that, so that it differs from the same line
+     *  with a newline and prints as unified diffs show it. */
+    public static List<String> lines(byte[] contents) {
+        ArrayList<String> result = new ArrayList<>();
+        String text = new String(contents, StandardCharsets.UTF_8);
+        int start = 0;
+        for (int nl = text.indexOf('\n'); nl >= 0;
+             nl = text.indexOf('\n', start)) {
+            result.add(text.substring(start, nl));
+            start = nl + 1;
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start) + NO_NEWLINE);
+        }
+        return result;
+    }
+
+    /** Return a hunk range of LENGTH lines from 0-based START, as unified
+     *  diffs number them. */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /** Set _ids1 and _ids2 to the lines of the current sequences, equal
+     *  lines having equal ids, numbered from 0 in order of appearance,
+     *  and forget any common subsequence found before. */
+    private void intern() {
+        HashMap<String, Integer> ids = new HashMap<>();
+        _ids1 = new int[_lines1.size()];
+        _ids2 = new int[_lines2.size()];
+        for (int k = 0; k < _ids1.length; k += 1) {
+            _ids1[k] = ids.computeIfAbsent(_lines1.get(k), s -> ids.size());
+        }
+        for (int k = 0; k < _ids2.length; k += 1) {
+            _ids2[k] = ids.computeIfAbsent(_lines2.get(k), s -> ids.size());
+        }
+        _common = null;
+    }
+
+    /** Return the least number of lines to delete from and insert into
+     *  the first K1 lines of the first sequence to give the first K2 of
+     *  the second, by Myers' greedy algorithm in O((K1 + K2) D) time and
+     *  O(K1 + K2) space. */
+    private int distance(int k1, int k2) {
+        int max = k1 + k2, off = max + 1;
+        int[] v = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[off + k - 1] < v[off + k + 1])
+                    ? v[off + k + 1] : v[off + k - 1] + 1;
+                int y = x - k;
+                while (x < k1 && y < k2 && _ids1[x] == _ids2[y]) {
+                    x += 1;
+                    y += 1;
+                }
+                v[off + k] = x;
+                if (x >= k1 && y >= k2) {
+                    return d;
+                }
+            }
+        }
+        return max;
+    }
+
+    /** Find the common subsequence of lines [A0 .. A1 - 1] of the first
+     *  sequence and [B0 .. B1 - 1] of the second by method KIND (MYERS
+     *  or HISTOGRAM): match their common prefix and suffix, then push the
+     *  work left, dividing what remains. */
+    private void region(int kind, int a0, int a1, int b0, int b1) {
+        int prefix = 0;
+        while (a0 + prefix < a1 && b0 + prefix < b1
+               && _ids1[a0 + prefix] == _ids2[b0 + prefix]) {
+            prefix += 1;
+        }
+        run(a0, b0, prefix);
+        a0 += prefix;
+        b0 += prefix;
+        int suffix = 0;
+        while (a1 - suffix > a0 && b1 - suffix > b0
+               && _ids1[a1 - suffix - 1] == _ids2[b1 - suffix - 1]) {
+            suffix += 1;
+        }
+        a1 -= suffix;
+        b1 -= suffix;
+        push(RUN, a1, suffix, b1, 0);
+        if (a0 == a1 || b0 == b1) {
+            return;
+        }
+        if (kind == HISTOGRAM && histogram(a0, a1, b0, b1)) {
+            return;
+        }
+        int[] snake = middleSnake(a0, a1, b0, b1);
+        push(MYERS, snake[2], a1, snake[3], b1);
+        push(RUN, snake[0], snake[2] - snake[0], snake[1], 0);
+        push(MYERS, a0, snake[0], b0, snake[1]);
+    }
+
+    /** Divide lines [A0 .. A1 - 1] of the first sequence and [B0 .. B1 -
+     *  1] of the second, whose first lines differ and whose last lines
+     *  differ, at the longest run of matching lines around the line of
+     *  the second that occurs least often, but at least once and at most
+     *  MAX_CHAIN times, in the first, pushing the work on both sides of
+     *  it.  Once the runs around a line of the second are found, the
+     *  search goes on after the longest of them, as lines within it
+     *  would only find it again; so each line is extended over about
+     *  once, rather than once per line of the run.  Return false if
+     *  there is no such line. */
+    private boolean histogram(int a0, int a1, int b0, int b1) {
+        HashMap<Integer, Integer> last = new HashMap<>(),
+            counts = new HashMap<>();
+        int[] previous = new int[a1 - a0];
+        for (int i = a0; i < a1; i += 1) {
+            Integer prev = last.put(_ids1[i], i);
+            previous[i - a0] = prev == null ? -1 : prev;
+            counts.merge(_ids1[i], 1, Integer::sum);
+        }
+        int bestCount = MAX_CHAIN + 1, best1 = -1, best2 = -1, bestLength = 0;
+        for (int j = b0, next; j < b1; j = next) {
+            next = j + 1;
+            Integer count = counts.get(_ids2[j]);
+            if (count == null || count > bestCount) {
+                continue;
+            }
+            for (int i = last.get(_ids2[j]); i >= a0; i = previous[i - a0]) {
+                int s1 = i, s2 = j, e1 = i + 1, e2 = j + 1;
+                while (s1 > a0 && s2 > b0 && _ids1[s1 - 1] == _ids2[s2 - 1]) {
+                    s1 -= 1;
+                    s2 -= 1;
+                }
+                while (e1 < a1 && e2 < b1 && _ids1[e1] == _ids2[e2]) {
+                    e1 += 1;
+                    e2 += 1;
+                }
+                next = Math.max(next, e2);
+                if (count < bestCount || e1 - s1 > bestLength) {
+                    bestCount = count;
+                    best1 = s1;
+                    best2 = s2;
+                    bestLength = e1 - s1;
+                }
+            }
+        }
+        if (best1 < 0) {
+            return false;
+        }
+        push(HISTOGRAM, best1 + bestLength, a1, best2 + bestLength, b1);
+        push(RUN, best1, bestLength, best2, 0);
+        push(HISTOGRAM, a0, best1, b0, best2);
+        return true;
+    }
+
+    /** Return the middle snake {x, y, u, v} of an edit path of least
+     *  length between lines [A0 .. A1 - 1] of the first sequence and
+     *  [B0 .. B1 - 1] of the second, both non-empty: the lines x .. u - 1
+     *  of the first match y .. v - 1 of the second, and the edit paths
+     *  from (A0, B0) to (x, y) and from (u, v) to (A1, B1) are each no
+     *  longer than half the whole. */
+    private int[] middleSnake(int a0, int a1, int b0, int b1) {
+        int n = a1 - a0, m = b1 - b0, delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2, off = max + 1;
+        int[] vf = new int[2 * max + 3], vb = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d
+                    || (k != d && vf[off + k - 1] < vf[off + k + 1])
+                    ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                int y = x - k, x0 = x, y0 = y;
+                while (x < n && y < m && _ids1[a0 + x] == _ids2[b0 + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[off + k] = x;
+                int kb = delta - k;
+                if (odd && kb >= -(d - 1) && kb <= d - 1
+                    && x + vb[off + kb] >= n) {
+                    return new int[] {a0 + x0, b0 + y0, a0 + x, b0 + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d
+                    || (k != d && vb[off + k - 1] < vb[off + k + 1])
+                    ? vb[off + k + 1] : vb[off + k - 1] + 1;
+                int y = x - k, x0 = x, y0 = y;
+                while (x < n && y < m
+                       && _ids1[a1 - 1 - x] == _ids2[b1 - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[off + k] = x;
+                int kf = delta - k;
+                if (!odd && kf >= -d && kf <= d && x + vf[off + kf] >= n) {
+                    return new int[] {a1 - x, b1 - y, a1 - x0, b1 - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Add a run of LENGTH matching lines starting at line A of the first
+     *  sequence and B of the second to the common subsequence being
+     *  found, joining it to the last run if it continues that. */
+    private void run(int a, int b, int length) {
+        if (length == 0) {
+            return;
+        }
+        int n = _runs.size();
+        if (n > 0 && _runs.get(n - 3) + _runs.get(n - 1) == a
+            && _runs.get(n - 2) + _runs.get(n - 1) == b) {
+            _runs.set(n - 1, _runs.get(n - 1) + length);
+        } else {
+            _runs.add(a);
+            _runs.add(b);
+            _runs.add(length);
+        }
+    }
+
+    /** Push work of KIND with arguments A0, A1, B0, B1 on the work stack:
+     *  a region [A0 .. A1 - 1] x [B0 .. B1 - 1] to match by MYERS or
+     *  HISTOGRAM, or a RUN of A1 lines from A0 and B0. */
+    private void push(int kind, int a0, int a1, int b0, int b1) {
+        if (_top + FRAME > _stack.length) {
+            _stack = Arrays.copyOf(_stack, 2 * _stack.length);
+        }
+        _stack[_top] = kind;
+        _stack[_top + 1] = a0;
+        _stack[_top + 2] = a1;
+        _stack[_top + 3] = b0;
+        _stack[_top + 4] = b1;
+        _top += FRAME;
+    }
+
     /** Raise an exception if there are no current data sequences for
      *  comparison. */
     private void checkData() {
@@ -232,45 +473,42 @@ public class Diff {
         }
     }
 
-    /** Initialize work stack for lls. */
-    private void initStack() {
-        _todo = new int[6 * (_lines1.size() +  _lines2.size() + 1)];
-        _todop = 0;
-    }
+    /** Kinds of work on the work stack. */
+    private static final int MYERS = 0, HISTOGRAM = 1, RUN = 2;
 
-    /** Push an item on the work stack for computing lls(I1, I2). STATE
-     *  indicates which inner recursive calls have happened so far for these
-     *  arguments. */
-    private void push(int i1, int i2, int state) {
-        _todo[_todop + 1] = i1;
-        _todo[_todop + 2] = i2;
-        _todo[_todop] = state;
-        _todop += 3;
-    }
+    /** Ints per item of the work stack. */
+    private static final int FRAME = 5;
 
-    /** Pop an item from the work stack. */
-    private void pop() {
-        _todop -= 3;
-        _llsTop1 = _todo[_todop + 1]; _llsTop2 = _todo[_todop + 2];
-        _llsState = _todo[_todop];
-    }
+    /** Initial size of the work stack. */
+    private static final int INITIAL_STACK = 64 * FRAME;
 
-    /** Return true iff the work stack is empty. */
-    private boolean empty() {
-        return _todop <= 0;
-    }
+    /** Most times a line may occur in the first sequence's region for
+     *  histogram matching to divide there. */
+    static final int MAX_CHAIN = 64;
+
+    /** Marks a last line with no newline; see lines. */
+    static final String NO_NEWLINE = "\n\\ No newline at end of file";
 
     /** The sequences being compared. */
     private List<String> _lines1, _lines2;
 
-    /** The memo table for longest common subsequence.  _lls[a][b] contains the
-     *  length of the longest common sequence of the prefixes of the current
-     *  data sequences of lengths a and b, or -1 if not calculated. */
-    private int[][] _lls;
+    /** The ids of the lines of the sequences being compared. */
+    private int[] _ids1, _ids2;
+
+    /** True iff common subsequences are found by histogram matching. */
+    private boolean _histogram;
+
+    /** The common subsequence, as commonSubsequence returns it, or null
+     *  if not yet found. */
+    private int[] _common;
+
+    /** The runs of the common subsequence being found. */
+    private ArrayList<Integer> _runs;
+
+    /** The work stack used by commonSubsequence. */
+    private int[] _stack;
 
-    /** A stack structure used by lls. */
-    private int[] _todo;
-    /** Structure for the work queue used by lls. */
-    private int _todop, _llsState, _llsTop1, _llsTop2;
+    /** Number of ints in use in _stack. */
+    private int _top;
 
 }
@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Three-way merge of the lines of two versions of a file with the
+ *  version they both came from (the base), as diff3 does. each version
+ *  is matched against the base by Diff; base lines matched in both are
+ *  stable, and between them the versions differ in chunks. a chunk
+ *  changed on one side only takes that side, one changed the same way
+ *  on both takes either, and one changed differently on both is a
+ *  conflict, written between markers. the merged file is written as it
+ *  is found. lines keep their line terminators and are held as
+ *  ISO-8859-1 strings, one char per byte, so any bytes merge back
+ *  unchanged.
+ *  @author David Babazadeh
+ */
+class Diff3 {
+
+    /** writes to OUT the merge of OURS and THEIRS from BASE, marking
+     *  conflicts with CONFLICT_START, CONFLICT_SEPARATOR and
+     *  CONFLICT_END. returns true if there were conflicts.
+     *  @param base
+     *  @param ours
+     *  @param theirs
+     *  @param out */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs,
+                         OutputStream out) throws IOException {
+        return new Diff3(lines(base), lines(ours), lines(theirs))
+            .write(out);
+    }
+
+    /** returns the lines of CONTENTS, each with its terminator, one
+     *  char per byte.
+     *  @param contents */
+    static List<String> lines(byte[] contents) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (contents[i] == '\n') {
+                result.add(new String(contents, start, i + 1 - start,
+                        StandardCharsets.ISO_8859_1));
+                start = i + 1;
+            }
+        }
+        if (start < contents.length) {
+            result.add(new String(contents, start, contents.length - start,
+                    StandardCharsets.ISO_8859_1));
+        }
+        return result;
+    }
+
+    /** a merge of OURS and THEIRS from BASE.
+     *  @param base
+     *  @param ours
+     *  @param theirs */
+    private Diff3(List<String> base, List<String> ours, List<String> theirs) {
+        _base = base;
+        _ours = ours;
+        _theirs = theirs;
+        _matchOurs = match(base, ours);
+        _matchTheirs = match(base, theirs);
+    }
+
+    /** returns, for each line of BASE, the line of OTHER it is matched
+     *  with, or -1 if it is not.
+     *  @param base
+     *  @param other */
+    private static int[] match(List<String> base, List<String> other) {
+        int[] result = new int[base.size()];
+        Arrays.fill(result, -1);
+        Diff diff = new Diff();
+        diff.setSequences(base, other);
+        int[] common = diff.commonSubsequence();
+        for (int k = 0; k < common.length; k += 3) {
+            for (int i = 0; i < common[k + 2]; i += 1) {
+                result[common[k] + i] = common[k + 1] + i;
+            }
+        }
+        return result;
+    }
+
+    /** writes the merge to OUT, returning true if there were
+     *  conflicts.
+     *  @param out */
+    private boolean write(OutputStream out) throws IOException {
+        boolean conflicts = false;
+        int o = 0, a = 0, b = 0;
+        int n = _base.size();
+        while (true) {
+            while (o < n && _matchOurs[o] == a && _matchTheirs[o] == b) {
+                write(out, _base, o, o + 1);
+                o += 1;
+                a += 1;
+                b += 1;
+            }
+            if (o == n && a == _ours.size() && b == _theirs.size()) {
+                return conflicts;
+            }
+            int o1 = o;
+            while (o1 < n && (_matchOurs[o1] < 0 || _matchTheirs[o1] < 0)) {
+                o1 += 1;
+            }
+            int a1 = o1 < n ? _matchOurs[o1] : _ours.size(),
+                b1 = o1 < n ? _matchTheirs[o1] : _theirs.size();
+            List<String> base = _base.subList(o, o1),
+                ours = _ours.subList(a, a1), theirs = _theirs.subList(b, b1);
+            if (ours.equals(base) || ours.equals(theirs)) {
+                write(out, _theirs, b, b1);
+            } else if (theirs.equals(base)) {
+                write(out, _ours, a, a1);
+            } else {
+                conflicts = true;
+                write(out, CONFLICT_START);
+                write(out, _ours, a, a1);
+                write(out, CONFLICT_SEPARATOR);
+                write(out, _theirs, b, b1);
+                write(out, CONFLICT_END);
+            }
+            o = o1;
+            a = a1;
+            b = b1;
+        }
+    }
+
+    /** writes lines [FROM .. TO - 1] of LINES to OUT.
+     *  @param out
+     *  @param lines
+     *  @param from
+     *  @param to */
+    private static void write(OutputStream out, List<String> lines,
+                              int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            write(out, lines.get(i));
+        }
+    }
+
+    /** writes LINE to OUT, one byte per char.
+     *  @param out
+     *  @param line */
+    private static void write(OutputStream out, String line)
+        throws IOException {
+        out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /** markers around the two sides of a conflict. */
+    static final String CONFLICT_START = "<<<<<<< HEAD\n",
+        CONFLICT_SEPARATOR = "=======\n", CONFLICT_END = ">>>>>>>\n";
+
+    /** the lines of the base and of the two versions merged. */
+    private final List<String> _base, _ours, _theirs;
+
+    /** the line of ours and of theirs each base line is matched with,
+     *  or -1. */
+    private final int[] _matchOurs, _matchTheirs;
+}
@@ -35,7 +35,7 @@ public class DumpObj {
      *  in FILES. */
     public static void main(String... files) {
         for (String fileName : files) {
-            Dumpable obj = Utils.readObject(new File(fileName),
+            Dumpable obj = ObjectStore.readObject(new File(fileName),
                                             Dumpable.class);
             obj.dump();
             System.out.println("---");
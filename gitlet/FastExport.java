@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+/** Fast export: writes the history of branches in the text format of git
+ *  fast-import, which FastImport reads back into the same commits. the
+ *  commits are taken from the commit graph in the order it holds them,
+ *  parents first, so history is streamed one commit at a time rather than
+ *  gathered first: each commit lists only the files that differ from its
+ *  first parent, found by comparing their trees, and each blob is written
+ *  the first time a commit uses it, copied from the store without being
+ *  read whole. a commit is marked by its row in the graph plus one and
+ *  blobs after that, and is written on the first branch given (the
+ *  current branch when every branch is exported) that contains it; each
+ *  branch is then reset to its own tip. committer times are given in
+ *  milliseconds after a point when they are not whole seconds.
+ *  @author David Babazadeh
+ */
+class FastExport {
+
+    /** exporter from REPO.
+     *  @param repo */
+    FastExport(Repo repo) {
+        _gitlet = repo.gitlet();
+        _commits = new File(_gitlet, "commits");
+        _blobs = new File(_gitlet, "blobs");
+        _trees = new File(_gitlet, Tree.DIR);
+        _branches = new File(_gitlet, "branches");
+        _current = repo.currentBranch();
+        _names = repo.branchNames();
+    }
+
+    /** writes the history of BRANCHNAMES, or of every branch if there
+     *  are none, to OUT.
+     *  @param branchnames
+     *  @param out */
+    void run(List<String> branchnames, OutputStream out) {
+        ArrayList<String> names = new ArrayList<>(branchnames);
+        if (names.isEmpty()) {
+            names.addAll(_names);
+            names.remove(_current);
+            names.add(0, _current);
+        }
+        CommitGraph graph = CommitGraph.of(_gitlet);
+        for (String name : names) {
+            graph.add(GLet.refToCommit(new File(_branches, name)));
+        }
+        int[] tips = new int[names.size()];
+        BitSet[] reached = new BitSet[names.size()];
+        BitSet all = new BitSet();
+        for (int i = 0; i < tips.length; i += 1) {
+            String id = Utils.readContentsAsString(
+                    new File(_branches, names.get(i)));
+            tips[i] = graph.index(new File(id).getName());
+            reached[i] = graph.ancestors(tips[i]);
+            all.or(reached[i]);
+        }
+        _out = new BufferedOutputStream(out, BUFFER);
+        _nextMark = graph.size() + 1;
+        try {
+            for (int row = all.nextSetBit(0); row >= 0;
+                 row = all.nextSetBit(row + 1)) {
+                if (graph.parent1(row) >= 0) {
+                    int branch = 0;
+                    while (!reached[branch].get(row)) {
+                        branch += 1;
+                    }
+                    commit(graph, row, names.get(branch));
+                }
+            }
+            for (int i = 0; i < tips.length; i += 1) {
+                write("reset " + HEADS + names.get(i) + "\n");
+                write("from " + ref(graph, tips[i]) + "\n\n");
+            }
+            _out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** writes the commit in ROW of GRAPH on BRANCH, after any blobs it
+     *  is the first to use.
+     *  @param graph
+     *  @param row
+     *  @param branch */
+    private void commit(CommitGraph graph, int row, String branch)
+        throws IOException {
+        String tree = graph.tree(row);
+        int parent1 = graph.parent1(row), parent2 = graph.parent2(row);
+        TreeSet<String> paths = new TreeSet<>();
+        Tree.diff(_trees, graph.tree(parent1), tree, "", paths);
+        ArrayList<String> changes = new ArrayList<>();
+        for (String path : paths) {
+            String blob = Tree.lookup(_trees, tree, path);
+            changes.add(blob == null ? "D " + quote(path)
+                        : "M " + FILE_MODE + " :" + blob(blob) + " "
+                        + quote(path));
+        }
+        Commit commit = ObjectStore.readObject(
+                new File(_commits, graph.id(row)), Commit.class);
+        boolean root = graph.parent1(parent1) < 0;
+        if (root) {
+            write("reset " + HEADS + branch + "\n");
+        }
+        write("commit " + HEADS + branch + "\n");
+        write("mark :" + (row + 1) + "\n");
+        write("committer " + commit.author() + " <> "
+              + time(commit.timestamp().getTime()) + " " + ZONE + "\n");
+        data(commit.getMessage().getBytes(StandardCharsets.UTF_8));
+        if (!root) {
+            write("from " + ref(graph, parent1) + "\n");
+        }
+        if (parent2 >= 0) {
+            write("merge " + ref(graph, parent2) + "\n");
+        }
+        for (String change : changes) {
+            write(change + "\n");
+        }
+        write("\n");
+    }
+
+    /** returns the mark of blob ID, writing the blob first if it has
+     *  none yet.
+     *  @param id */
+    private int blob(String id) throws IOException {
+        Integer mark = _blobMarks.get(id);
+        if (mark != null) {
+            return mark;
+        }
+        mark = _nextMark;
+        _nextMark += 1;
+        _blobMarks.put(id, mark);
+        write("blob\nmark :" + mark + "\n");
+        File file = new File(_blobs, id);
+        long size = Blob.size(file);
+        if (size < 0) {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            Blob.copy(file, contents);
+            data(contents.toByteArray());
+        } else {
+            write("data " + size + "\n");
+            Blob.copy(file, _out);
+            write("\n");
+        }
+        return mark;
+    }
+
+    /** returns how the commit in ROW of GRAPH is referred to: by mark,
+     *  or by id if it is the initial commit, which is not written.
+     *  @param graph
+     *  @param row */
+    private static String ref(CommitGraph graph, int row) {
+        return graph.parent1(row) < 0 ? graph.id(row) : ":" + (row + 1);
+    }
+
+    /** returns MILLIS, milliseconds since the epoch, in seconds.
+     *  @param millis */
+    private static String time(long millis) {
+        return BigDecimal.valueOf(millis, MILLI_DIGITS).stripTrailingZeros()
+            .toPlainString();
+    }
+
+    /** returns PATH, in double quotes with special characters escaped if
+     *  it would otherwise be misread.
+     *  @param path */
+    private static String quote(String path) {
+        if (!path.startsWith("\"") && path.indexOf('\n') < 0) {
+            return path;
+        }
+        return "\"" + path.replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n") + "\"";
+    }
+
+    /** writes a data command holding CONTENTS.
+     *  @param contents */
+    private void data(byte[] contents) throws IOException {
+        write("data " + contents.length + "\n");
+        _out.write(contents);
+        write("\n");
+    }
+
+    /** writes TEXT.
+     *  @param text */
+    private void write(String text) throws IOException {
+        _out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** prefix of branch refs. */
+    private static final String HEADS = "refs/heads/";
+
+    /** mode files are written with. */
+    private static final String FILE_MODE = "100644";
+
+    /** time zone committer times are written in. */
+    private static final String ZONE = "+0000";
+
+    /** digits of milliseconds in a second. */
+    private static final int MILLI_DIGITS = 3;
+
+    /** size of the buffer the stream is written through. */
+    private static final int BUFFER = 1 << 16;
+
+    /** the .gitlet directory and the directories of commits, blobs,
+     *  trees and branches there. */
+    private final File _gitlet, _commits, _blobs, _trees, _branches;
+
+    /** the current branch. */
+    private final String _current;
+
+    /** the names of all branches. */
+    private final List<String> _names;
+
+    /** the stream. */
+    private OutputStream _out;
+
+    /** marks of the blobs written. */
+    private final HashMap<String, Integer> _blobMarks = new HashMap<>();
+
+    /** mark of the next blob. */
+    private int _nextMark;
+}
@@ -0,0 +1,714 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/** Fast import: reads history written in the text format of git
+ *  fast-import (as FastExport writes it) and stores it without going
+ *  through the working directory or the staging area. blobs and commits
+ *  are written straight into packs, a new pack every BATCH objects, and
+ *  each commit's tree is made from its first parent's by applying only
+ *  the files the stream changes, so no parent is read back and no
+ *  manifest is built. the commit graph and commit metadata are brought up
+ *  to date once per pack, and branches at each checkpoint and at the end.
+ *  trees go into the packs too, and are read back from there (or, until
+ *  the pack is written, kept in memory) through Tree.Store.
+ *  the working directory and staging area are left alone, even when the
+ *  current branch moves.
+ *
+ *  the commands understood are blob (with mark and data), commit (with
+ *  mark, author, which is ignored, committer, data, from, one merge, and
+ *  the file commands M, D, R, C and deleteall), reset, checkpoint,
+ *  progress and done; feature and option are ignored. data is either
+ *  counted or delimited, committer times may give milliseconds after a
+ *  point (eg. 1700000000.250), and time zones are ignored. only regular
+ *  files are stored; their mode is not. a commit with no from and no
+ *  branch to follow has the initial commit as its parent.
+ *  @author David Babazadeh
+ */
+class FastImport implements Tree.Store {
+
+    /** importer into REPO.
+     *  @param repo */
+    FastImport(Repo repo) {
+        _repo = repo;
+        _gitlet = repo.gitlet();
+        _commits = new File(_gitlet, "commits");
+        _blobs = new File(_gitlet, "blobs");
+        _trees = new File(_gitlet, Tree.DIR);
+        _branches = new File(_gitlet, "branches");
+        _root = new Commit("initial commit");
+    }
+
+    /** imports the stream IN, then reports how much was imported.
+     *  @param in */
+    void run(InputStream in) {
+        _in = new BufferedInputStream(in, BUFFER);
+        next();
+        while (_line != null) {
+            String command = _line.split(" ", 2)[0];
+            switch (command) {
+            case "blob":
+                blob();
+                break;
+            case "commit":
+                commit(branch(_line.substring(command.length()).trim()));
+                break;
+            case "reset":
+                reset(branch(_line.substring(command.length()).trim()));
+                break;
+            case "checkpoint":
+                next();
+                flush();
+                writeBranches();
+                break;
+            case "progress":
+                System.out.println(_line.substring(command.length()).trim());
+                next();
+                break;
+            case "feature": case "option":
+                next();
+                break;
+            case "done":
+                _line = null;
+                break;
+            default:
+                GLet.error("Unsupported fast-import command: %s", _line);
+            }
+        }
+        flush();
+        writeBranches();
+        if (_commitCount + _blobCount > 0) {
+            IdIndex.delete(_gitlet);
+        }
+        System.out.printf("Imported %d commits and %d blobs.%n",
+                _commitCount, _blobCount);
+    }
+
+    /** reads a blob command. */
+    private void blob() {
+        next();
+        Integer mark = mark();
+        skip(ORIGINAL_OID);
+        String id = blobData();
+        if (mark != null) {
+            _commitMarks.remove(mark);
+            _blobMarks.put(mark, id);
+        }
+    }
+
+    /** reads a commit command adding a commit to BRANCH.
+     *  @param branch */
+    private void commit(String branch) {
+        next();
+        Integer mark = mark();
+        skip(ORIGINAL_OID);
+        skip(AUTHOR);
+        if (!at(COMMITTER)) {
+            malformed("committer");
+        }
+        String who = _line.substring(COMMITTER.length());
+        int open = who.indexOf('<'), close = who.indexOf('>', open + 1);
+        if (open < 0 || close < 0) {
+            malformed("committer");
+        }
+        String author = who.substring(0, open).trim();
+        Date timestamp = time(who.substring(close + 1).trim());
+        next();
+        skip(ENCODING);
+        String message = textData();
+        if (message.endsWith("\n")) {
+            message = message.substring(0, message.length() - 1);
+        }
+        Commit parent1 = tip(branch), parent2 = null;
+        if (at(FROM)) {
+            parent1 = resolve(_line.substring(FROM.length()));
+            next();
+        }
+        if (at(MERGE)) {
+            parent2 = resolve(_line.substring(MERGE.length()));
+            next();
+            if (at(MERGE)) {
+                GLet.error("Octopus merges are not supported.");
+            }
+        }
+        String base = parent1.tree(true);
+        TreeMap<String, String> changes = new TreeMap<>();
+        while (true) {
+            if (DELETEALL.equals(_line)) {
+                base = Tree.EMPTY;
+                changes.clear();
+                next();
+            } else if (at(MODIFY)) {
+                modify(changes);
+            } else if (at(DELETE)) {
+                changes.put(path(_line.substring(DELETE.length())), null);
+                next();
+            } else if (at(RENAME) || at(COPY)) {
+                copy(changes, base, at(RENAME));
+            } else {
+                break;
+            }
+        }
+        Commit commit = Commit.of(timestamp, message, author,
+                parent1.version() + 1, path(parent1),
+                parent2 == null ? "" : path(parent2),
+                Tree.update(this, base, changes), _gitlet);
+        writer().add(COMMIT_KIND, commit.id(), commit.encode());
+        _pending.put(commit.id(), commit);
+        _added.add(commit);
+        _tips.put(branch, commit);
+        if (mark != null) {
+            _blobMarks.remove(mark);
+            _commitMarks.put(mark, commit);
+        }
+        _commitCount += 1;
+        if (_writer.size() >= BATCH) {
+            flush();
+        }
+    }
+
+    /** reads a reset command moving BRANCH to the commit it names, or
+     *  leaving BRANCH with no commits to follow if it names none.
+     *  @param branch */
+    private void reset(String branch) {
+        next();
+        Commit tip = null;
+        if (at(FROM)) {
+            tip = resolve(_line.substring(FROM.length()));
+            next();
+        }
+        _tips.put(branch, tip);
+    }
+
+    /** reads an M command, adding the file it changes to CHANGES.
+     *  @param changes */
+    private void modify(TreeMap<String, String> changes) {
+        String[] parts = _line.split(" ", 4);
+        if (parts.length < 4) {
+            malformed("M <mode> <dataref> <path>");
+        }
+        if (!FILE_MODES.contains(parts[1])) {
+            GLet.error("Unsupported file mode: %s", parts[1]);
+        }
+        String path = path(parts[3]), ref = parts[2], id;
+        if (ref.equals(INLINE)) {
+            next();
+            id = blobData();
+        } else {
+            if (ref.startsWith(":")) {
+                id = _blobMarks.get(markNumber(ref));
+            } else if (ID.matcher(ref).matches() && (_writer != null
+                    && _writer.contains(BLOB_KIND, ref)
+                    || ObjectStore.exists(new File(_blobs, ref)))) {
+                id = ref;
+            } else {
+                id = null;
+            }
+            if (id == null) {
+                GLet.error("No blob %s.", ref);
+            }
+            next();
+        }
+        changes.put(path, id);
+    }
+
+    /** reads an R or C command, adding to CHANGES the file it copies
+     *  (and, if RENAME, the file it removes) in tree BASE with CHANGES
+     *  applied.
+     *  @param changes
+     *  @param base
+     *  @param rename */
+    private void copy(TreeMap<String, String> changes, String base,
+                      boolean rename) {
+        String rest = _line.substring(RENAME.length());
+        int end = rest.startsWith("\"") ? closingQuote(rest) + 1
+            : rest.indexOf(' ');
+        if (end <= 0 || end >= rest.length()) {
+            malformed("<source> <destination>");
+        }
+        String source = path(rest.substring(0, end)),
+            dest = path(rest.substring(end + 1));
+        String id = changes.containsKey(source) ? changes.get(source)
+            : Tree.lookup(this, base, source);
+        if (id == null) {
+            GLet.error("No file %s to copy.", source);
+        }
+        if (rename) {
+            changes.put(source, null);
+        }
+        changes.put(dest, id);
+        next();
+    }
+
+    @Override
+    public Tree read(String id) {
+        Tree result = _pendingTrees.get(id);
+        return result != null ? result : Tree.read(_trees, id);
+    }
+
+    @Override
+    public void write(String id, Tree tree, byte[] contents) {
+        if (!_pendingTrees.containsKey(id)
+                && !ObjectStore.exists(new File(_trees, id))) {
+            writer().add(TREE_KIND, id, contents);
+            _pendingTrees.put(id, tree);
+        }
+    }
+
+    /** returns the commit named by REF: a mark, a branch or a full
+     *  commit id.
+     *  @param ref */
+    private Commit resolve(String ref) {
+        if (ref.startsWith(":")) {
+            Commit result = _commitMarks.get(markNumber(ref));
+            if (result == null) {
+                GLet.error("No commit %s.", ref);
+            }
+            return result;
+        }
+        String name = ref.startsWith(HEADS) ? ref.substring(HEADS.length())
+            : ref;
+        if (_tips.get(name) != null) {
+            return _tips.get(name);
+        } else if (!name.contains("/")
+                   && new File(_branches, name).isFile()) {
+            return GLet.refToCommit(new File(_branches, name));
+        } else if (ID.matcher(ref).matches()) {
+            if (_pending.containsKey(ref)) {
+                return _pending.get(ref);
+            }
+            File file = new File(_commits, ref);
+            if (ObjectStore.exists(file)) {
+                return ObjectStore.readObject(file, Commit.class);
+            }
+        }
+        GLet.error("No commit %s.", ref);
+        return null;
+    }
+
+    /** returns the commit BRANCH is at, or the initial commit if it has
+     *  none.
+     *  @param branch */
+    private Commit tip(String branch) {
+        if (_tips.containsKey(branch)) {
+            Commit tip = _tips.get(branch);
+            return tip == null ? _root : tip;
+        }
+        File file = new File(_branches, branch);
+        return file.isFile() ? GLet.refToCommit(file) : _root;
+    }
+
+    /** returns the branch named by REF, refs/heads/NAME, where NAME is
+     *  a branch name or, as for fetched branches, REMOTE/BRANCH.
+     *  @param ref */
+    private String branch(String ref) {
+        String name = ref.startsWith(HEADS) ? ref.substring(HEADS.length())
+            : "";
+        String[] parts = name.split("/", -1);
+        boolean valid = parts.length <= 2;
+        for (String part : parts) {
+            valid &= !part.isEmpty() && !part.equals(".")
+                && !part.equals("..");
+        }
+        if (!valid) {
+            GLet.error("Unsupported ref: %s", ref);
+        }
+        return name;
+    }
+
+    /** returns the path of stored commit COMMIT, as parents are named.
+     *  @param commit */
+    private String path(Commit commit) {
+        return new File(_commits, commit.id()).getPath();
+    }
+
+    /** returns the time WHEN, seconds since the epoch with an optional
+     *  fraction, followed by a time zone, which is ignored.
+     *  @param when */
+    private Date time(String when) {
+        try {
+            return new Date(new BigDecimal(when.split(" ")[0])
+                    .movePointRight(MILLI_DIGITS)
+                    .setScale(0, RoundingMode.FLOOR).longValueExact());
+        } catch (NumberFormatException | ArithmeticException excp) {
+            malformed("<seconds> <timezone>");
+            return null;
+        }
+    }
+
+    /** returns the number of mark REF, :N.
+     *  @param ref */
+    private int markNumber(String ref) {
+        try {
+            if (ref.startsWith(":")) {
+                return Integer.parseInt(ref.substring(1));
+            }
+        } catch (NumberFormatException excp) {
+            malformed("mark");
+        }
+        malformed("mark");
+        return 0;
+    }
+
+    /** reads a mark command if there is one, returning its number, or
+     *  returns null. */
+    private Integer mark() {
+        if (!at(MARK)) {
+            return null;
+        }
+        int result = markNumber(_line.substring(MARK.length()));
+        next();
+        return result;
+    }
+
+    /** skips lines starting with PREFIX.
+     *  @param prefix */
+    private void skip(String prefix) {
+        while (at(prefix)) {
+            next();
+        }
+    }
+
+    /** returns true if the current line starts with PREFIX.
+     *  @param prefix */
+    private boolean at(String prefix) {
+        return _line != null && _line.startsWith(prefix);
+    }
+
+    /** reads a data command, storing its contents as a blob, and returns
+     *  the blob's id. blobs past the big file threshold, or to be
+     *  chunked, are copied through a file and stored as add stores
+     *  them; others go into the pack being written. */
+    private String blobData() {
+        long length = dataLength();
+        Config config = _repo.config();
+        String id;
+        if (length >= 0 && (length >= config.bigFileThreshold()
+                            || config.chunking()
+                            && length >= config.chunkingMinFileSize())) {
+            id = spool(length);
+        } else {
+            byte[] contents = new Blob(dataContents(length)).encode();
+            id = Utils.sha1(contents);
+            if (!ObjectStore.exists(new File(_blobs, id))) {
+                writer().add(BLOB_KIND, id, contents);
+            }
+        }
+        endData();
+        _blobCount += 1;
+        return id;
+    }
+
+    /** reads a data command, returning its contents as text. */
+    private String textData() {
+        String result = new String(dataContents(dataLength()),
+                StandardCharsets.UTF_8);
+        endData();
+        return result;
+    }
+
+    /** returns the length of the contents of the data command on the
+     *  current line, or -1 if they end at a delimiter line. */
+    private long dataLength() {
+        if (!at(DATA)) {
+            malformed("data");
+        }
+        String arg = _line.substring(DATA.length());
+        if (arg.startsWith(DELIMITED)) {
+            _delimiter = arg.substring(DELIMITED.length());
+            return -1;
+        }
+        try {
+            long result = Long.parseLong(arg);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            malformed("data <count>");
+        }
+        malformed("data <count>");
+        return 0;
+    }
+
+    /** returns the contents of a data command, LENGTH bytes or, if
+     *  LENGTH is -1, the lines up to the delimiter.
+     *  @param length */
+    private byte[] dataContents(long length) {
+        try {
+            if (length >= 0) {
+                return _in.readNBytes(Math.toIntExact(length));
+            }
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] delimiter = _delimiter.getBytes(StandardCharsets.UTF_8);
+            for (byte[] line = readLine(); !Arrays.equals(line, delimiter);
+                 line = readLine()) {
+                if (line == null) {
+                    malformed(_delimiter);
+                }
+                result.write(line);
+                result.write('\n');
+            }
+            return result.toByteArray();
+        } catch (IOException | ArithmeticException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** copies LENGTH bytes of data to a file and stores it as a blob,
+     *  returning its id.
+     *  @param length */
+    private String spool(long length) {
+        File temp = new File(_gitlet, SPOOL);
+        try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+            byte[] buf = new byte[BUFFER];
+            for (long left = length; left > 0;) {
+                int n = _in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (n < 0) {
+                    malformed(length + " bytes of data");
+                }
+                out.write(buf, 0, n);
+                left -= n;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            return _repo.storeBlob(temp);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /** skips the newline that may follow data, then reads the next
+     *  line. */
+    private void endData() {
+        try {
+            _in.mark(1);
+            if (_in.read() != '\n') {
+                _in.reset();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        next();
+    }
+
+    /** reads the next line that is neither blank nor a comment into
+     *  _line, which is null at the end of the stream. */
+    private void next() {
+        do {
+            byte[] line = readLine();
+            _line = line == null ? null
+                : new String(line, StandardCharsets.UTF_8);
+        } while (_line != null && (_line.isEmpty() || _line.startsWith("#")));
+    }
+
+    /** returns the next line of the stream without its newline, or null
+     *  at the end of the stream. */
+    private byte[] readLine() {
+        try {
+            int c = _in.read();
+            if (c < 0) {
+                return null;
+            }
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            for (; c >= 0 && c != '\n'; c = _in.read()) {
+                line.write(c);
+            }
+            return line.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns the pack being written, starting one if need be. */
+    private PackWriter writer() {
+        if (_writer == null) {
+            _writer = new PackWriter(new File(_gitlet, Pack.DIR));
+        }
+        return _writer;
+    }
+
+    /** installs the pack being written, if any, and adds the commits
+     *  imported since the last flush to the commit graph and metadata. */
+    private void flush() {
+        if (_writer != null) {
+            _writer.finish();
+            _writer = null;
+            Pack.invalidate(_gitlet);
+        }
+        if (!_added.isEmpty()) {
+            CommitGraph.of(_gitlet).add(_added);
+            Metadata.of(_gitlet).add(_added);
+            _added = new ArrayList<>();
+        }
+        _pending.clear();
+        _pendingTrees.clear();
+    }
+
+    /** points each branch the stream has moved at its commit. */
+    private void writeBranches() {
+        for (String branch : _tips.keySet()) {
+            Commit tip = _tips.get(branch);
+            if (tip != null) {
+                File file = new File(_branches, branch);
+                file.getParentFile().mkdirs();
+                Utils.writeContents(file, path(tip));
+            }
+        }
+    }
+
+    /** errors, saying that EXPECTED was expected at the current line.
+     *  @param expected */
+    private void malformed(String expected) {
+        GLet.error("Malformed fast-import stream: expected %s at \"%s\".",
+                expected, _line == null ? "end of input" : _line);
+    }
+
+    /** returns PATH, unquoting it if it is in double quotes.
+     *  @param path */
+    private static String path(String path) {
+        if (!path.startsWith("\"")) {
+            return path;
+        }
+        int end = closingQuote(path);
+        if (end != path.length() - 1) {
+            GLet.error("Malformed fast-import path: %s", path);
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (int i = 1; i < end; i += 1) {
+            char c = path.charAt(i);
+            if (c != '\\') {
+                byte[] bytes = String.valueOf(c)
+                    .getBytes(StandardCharsets.UTF_8);
+                result.write(bytes, 0, bytes.length);
+                continue;
+            }
+            c = path.charAt(i += 1);
+            int escape = ESCAPES.indexOf(c);
+            if (escape >= 0) {
+                result.write(ESCAPED.charAt(escape));
+            } else if (c >= '0' && c <= '7' && i + 2 < end) {
+                result.write(Integer.parseInt(path.substring(i, i + 3),
+                        OCTAL));
+                i += 2;
+            } else {
+                result.write(c);
+            }
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** returns the index of the quote closing the quoted text that
+     *  starts S, or -1 if there is none.
+     *  @param s */
+    private static int closingQuote(String s) {
+        for (int i = 1; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\\') {
+                i += 1;
+            } else if (s.charAt(i) == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** commands and prefixes of the stream. */
+    private static final String MARK = "mark ", DATA = "data ",
+        DELIMITED = "<<", ORIGINAL_OID = "original-oid ", AUTHOR = "author ",
+        COMMITTER = "committer ", ENCODING = "encoding ", FROM = "from ",
+        MERGE = "merge ", MODIFY = "M ", DELETE = "D ", RENAME = "R ",
+        COPY = "C ", DELETEALL = "deleteall", INLINE = "inline",
+        HEADS = "refs/heads/";
+
+    /** modes of regular files. */
+    private static final Set<String> FILE_MODES =
+        Set.of("100644", "644", "100755", "755");
+
+    /** characters following a backslash in a quoted path, and those they
+     *  stand for. */
+    private static final String ESCAPES = "abfnrtv\"\\",
+        ESCAPED = "\u0007\b\f\n\r\t\u000b\"\\";
+
+    /** radix of escaped bytes in quoted paths. */
+    private static final int OCTAL = 8;
+
+    /** digits of milliseconds in a second. */
+    private static final int MILLI_DIGITS = 3;
+
+    /** a full object id. */
+    private static final Pattern ID = Pattern.compile("[0-9a-f]{40}");
+
+    /** kinds of packed commits, blobs and trees. */
+    private static final byte COMMIT_KIND = Pack.kind("commits"),
+        BLOB_KIND = Pack.kind("blobs"), TREE_KIND = Pack.kind(Tree.DIR);
+
+    /** most objects written to one pack. */
+    static final int BATCH = 1 << 16;
+
+    /** size of the buffer the stream is read through. */
+    private static final int BUFFER = 1 << 16;
+
+    /** file within .gitlet that big blobs are copied through. */
+    private static final String SPOOL = "fast-import.tmp";
+
+    /** the repository imported into. */
+    private final Repo _repo;
+
+    /** its .gitlet directory and the directories of commits, blobs,
+     *  trees and branches there. */
+    private final File _gitlet, _commits, _blobs, _trees, _branches;
+
+    /** the initial commit, parent of commits that start history. */
+    private final Commit _root;
+
+    /** the stream. */
+    private BufferedInputStream _in;
+
+    /** the current line, or null at the end of the stream. */
+    private String _line;
+
+    /** delimiter of the data being read. */
+    private String _delimiter;
+
+    /** the pack being written, or null. */
+    private PackWriter _writer;
+
+    /** blob ids by mark. */
+    private final HashMap<Integer, String> _blobMarks = new HashMap<>();
+
+    /** commits by mark. */
+    private final HashMap<Integer, Commit> _commitMarks = new HashMap<>();
+
+    /** commits in the pack being written, by id. */
+    private final HashMap<String, Commit> _pending = new HashMap<>();
+
+    /** trees in the pack being written, by id. */
+    private final HashMap<String, Tree> _pendingTrees = new HashMap<>();
+
+    /** commits not yet in the commit graph, parents first. */
+    private ArrayList<Commit> _added = new ArrayList<>();
+
+    /** the commit each branch the stream names is at, or null for one
+     *  reset to no commit. */
+    private final TreeMap<String, Commit> _tips = new TreeMap<>();
+
+    /** commits and blobs read. */
+    private int _commitCount, _blobCount;
+}
@@ -0,0 +1,559 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/** A file-system monitor: a background process that watches the working
+ *  directory with a WatchService and appends every path changed below it
+ *  to a journal in .gitlet/fsmonitor, so commands need only look at the
+ *  paths changed since they last looked. the journal starts with a line
+ *  naming the monitor's generation, which is new each time it starts; a
+ *  Token names a generation and a position in its journal. the monitor
+ *  holds a lock on .gitlet/fsmonitor/lock while it runs.
+ *
+ *  events reach the monitor a little after the changes they report, so a
+ *  command asking for a token first creates a cookie file, which the
+ *  monitor journals once it has journalled every event before it; the
+ *  token is the position after the cookie. when events are lost
+ *  (overflow), the monitor journals a marker, and asking for the changes
+ *  across it gives null, as does any doubt about the journal, so that
+ *  callers fall back to examining every file. once the journal reaches
+ *  JOURNAL_LIMIT bytes it is replaced by an empty one under a new
+ *  generation, so older tokens fall back in the same way.
+ *  @author David Babazadeh
+ */
+class FsMonitor {
+
+    /** a position in the journal of one generation of the monitor. */
+    static final class Token {
+        /** position OFFSET in the journal of GENERATION.
+         *  @param generation
+         *  @param offset */
+        Token(long generation, long offset) {
+            this.generation = generation;
+            this.offset = offset;
+        }
+
+        /** generation of the monitor. */
+        final long generation;
+
+        /** position in its journal. */
+        final long offset;
+    }
+
+    /** monitor of the working directory of repository directory GITLET.
+     *  @param gitlet */
+    FsMonitor(File gitlet) {
+        _dir = new File(gitlet, DIR);
+        _cwd = gitlet.getAbsoluteFile().getParentFile();
+    }
+
+    /** returns true if the monitor is running. */
+    boolean running() {
+        File lock = new File(_dir, LOCK);
+        if (!lock.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(lock.toPath(),
+                StandardOpenOption.WRITE)) {
+            FileLock held = ch.tryLock();
+            if (held == null) {
+                return true;
+            }
+            held.release();
+            return false;
+        } catch (OverlappingFileLockException excp) {
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** returns a token for the present state of the working directory:
+     *  every change made before this call is journalled before it. if the
+     *  journal is replaced meanwhile, the cookie is looked for in the new
+     *  one. returns null if the monitor is not running or does not answer
+     *  in time. */
+    Token token() {
+        if (!running()) {
+            return null;
+        }
+        long generation = generation();
+        if (generation == 0) {
+            return null;
+        }
+        long start = new File(_dir, JOURNAL).length();
+        String cookie =
+            ProcessHandle.current().pid() + "-" + System.nanoTime();
+        File file = new File(new File(_dir, COOKIES), cookie);
+        try {
+            if (!file.createNewFile()) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        byte[] line = (COOKIE + cookie).getBytes(StandardCharsets.UTF_8);
+        long deadline = System.nanoTime() + COOKIE_WAIT;
+        while (System.nanoTime() < deadline) {
+            long now = generation();
+            if (now != generation) {
+                generation = now;
+                start = 0;
+            }
+            long after = find(start, line);
+            if (after >= 0) {
+                if (generation() != generation) {
+                    return null;
+                }
+                return new Token(generation, after);
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+        file.delete();
+        return null;
+    }
+
+    /** returns the '/'-separated paths, relative to the working directory,
+     *  that may have changed between tokens FROM and TO, or null if that
+     *  cannot be told, eg. because events were lost or the monitor has
+     *  restarted, or replaced its journal, since FROM. the journal is
+     *  read a line at a time.
+     *  @param from
+     *  @param to */
+    Set<String> changed(Token from, Token to) {
+        if (from == null || to == null || from.generation != to.generation
+                || from.offset > to.offset) {
+            return null;
+        }
+        HashSet<String> result = new HashSet<>();
+        try (FileChannel ch = FileChannel.open(
+                new File(_dir, JOURNAL).toPath(), StandardOpenOption.READ)) {
+            if (ch.size() < to.offset) {
+                return null;
+            }
+            InputStream in = lines(ch, from.offset);
+            for (long pos = from.offset; pos < to.offset;) {
+                byte[] bytes = readLine(in);
+                if (bytes == null) {
+                    return null;
+                }
+                pos += bytes.length + 1;
+                String line = new String(bytes, StandardCharsets.UTF_8);
+                if (line.startsWith(OVERFLOWED)) {
+                    return null;
+                } else if (line.startsWith(CHANGED)) {
+                    result.add(line.substring(CHANGED.length()));
+                }
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        if (generation() != to.generation) {
+            return null;
+        }
+        return result;
+    }
+
+    /** starts the monitor in a new process and waits until it runs. */
+    void start() {
+        if (running()) {
+            System.out.println("The monitor is already running.");
+            return;
+        }
+        _dir.mkdirs();
+        String java = ProcessHandle.current().info().command()
+            .orElse("java");
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"), Main.class.getName(),
+                "fsmonitor", "run");
+        builder.directory(_cwd);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(_dir, LOG));
+        try {
+            builder.start();
+        } catch (IOException excp) {
+            GLet.error("Could not start the monitor.");
+        }
+        long deadline = System.nanoTime() + START_WAIT;
+        while (System.nanoTime() < deadline) {
+            if (running() && generation() != 0) {
+                return;
+            }
+            try {
+                Thread.sleep(START_POLL);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+        GLet.error("The monitor did not start.");
+    }
+
+    /** asks a running monitor to stop and waits until it has. */
+    void stop() {
+        if (!running()) {
+            System.out.println("The monitor is not running.");
+            return;
+        }
+        try {
+            new File(new File(_dir, COOKIES), STOP).createNewFile();
+        } catch (IOException excp) {
+            GLet.error("Could not stop the monitor.");
+        }
+        long deadline = System.nanoTime() + START_WAIT;
+        while (running() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(START_POLL);
+            } catch (InterruptedException excp) {
+                break;
+            }
+        }
+    }
+
+    /** runs the monitor in this process until asked to stop, or until the
+     *  working directory goes away. does nothing if a monitor is already
+     *  running. an error watching or journalling ends it, reported in its
+     *  log. */
+    void run() {
+        File cookies = new File(_dir, COOKIES);
+        cookies.mkdirs();
+        for (String stale : Utils.plainFilenamesIn(cookies)) {
+            new File(cookies, stale).delete();
+        }
+        try (FileChannel lockChannel = FileChannel.open(
+                new File(_dir, LOCK).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.tryLock();
+             WatchService watcher = _cwd.toPath().getFileSystem()
+                 .newWatchService()) {
+            if (lock == null) {
+                return;
+            }
+            _watcher = watcher;
+            _cookies = cookies.toPath().register(watcher, ENTRY_CREATE);
+            try {
+                newJournal();
+                registerAll(_cwd.toPath());
+                _journal.flush();
+                watch();
+            } finally {
+                if (_journal != null) {
+                    _journal.close();
+                }
+                new File(_dir, JOURNAL).delete();
+            }
+        } catch (IOException | ClosedWatchServiceException excp) {
+            GLet.error("The monitor stopped: %s", excp);
+        }
+    }
+
+    /** starts a new journal, under a generation later than any before,
+     *  and moves it into place once its first line is written, closing
+     *  the one it replaces. */
+    private void newJournal() throws IOException {
+        if (_journal != null) {
+            _journal.close();
+        }
+        _generation = Math.max(System.currentTimeMillis(), _generation + 1);
+        File temp = new File(_dir, JOURNAL + TEMP);
+        _journal = new BufferedOutputStream(new FileOutputStream(temp));
+        _written = 0;
+        journal(HEADER + _generation);
+        _journal.flush();
+        ObjectStore.install(temp, new File(_dir, JOURNAL));
+    }
+
+    /** journals events until asked to stop. events are taken from every
+     *  key that is ready before any cookie is journalled, so a cookie
+     *  follows every change made before it was created. a journal that
+     *  has reached JOURNAL_LIMIT is replaced after the events, just before
+     *  the cookies are journalled, so they start the new one. */
+    private void watch() throws IOException {
+        while (true) {
+            WatchKey key;
+            try {
+                key = _watcher.take();
+            } catch (InterruptedException excp) {
+                return;
+            }
+            ArrayList<String> cookies = new ArrayList<>();
+            boolean stop = false;
+            for (; key != null; key = _watcher.poll()) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        journal(OVERFLOWED);
+                    } else if (key == _cookies) {
+                        String name = event.context().toString();
+                        stop |= name.equals(STOP);
+                        cookies.add(name);
+                    } else {
+                        changed(_keys.get(key)
+                                .resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    if (key == _cookies
+                            || _cwd.toPath().equals(_keys.get(key))) {
+                        return;
+                    }
+                    _keys.remove(key);
+                }
+            }
+            if (_written >= JOURNAL_LIMIT) {
+                newJournal();
+            }
+            for (String cookie : cookies) {
+                journal(COOKIE + cookie);
+                new File(new File(_dir, COOKIES), cookie).delete();
+            }
+            _journal.flush();
+            if (stop) {
+                return;
+            }
+        }
+    }
+
+    /** journals a change to PATH, first watching it and everything below
+     *  it if it is a new directory.
+     *  @param path */
+    private void changed(Path path) throws IOException {
+        String name = relative(path);
+        if (name.equals(WorkTree.GITLET) || name.contains("\n")) {
+            if (name.contains("\n")) {
+                journal(OVERFLOWED);
+            }
+            return;
+        }
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            registerAll(path);
+        }
+        journal(CHANGED + name);
+    }
+
+    /** watches directory DIR and every directory below it, outside
+     *  .gitlet and not through links. a directory that cannot be watched
+     *  is journalled as lost events.
+     *  @param dir */
+    private void registerAll(Path dir) throws IOException {
+        try {
+            _keys.put(dir.register(_watcher, ENTRY_CREATE, ENTRY_DELETE,
+                    ENTRY_MODIFY), dir);
+        } catch (IOException excp) {
+            journal(OVERFLOWED);
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)
+                        && !relative(entry).equals(WorkTree.GITLET)) {
+                    registerAll(entry);
+                }
+            }
+        } catch (IOException excp) {
+            journal(OVERFLOWED);
+        }
+    }
+
+    /** appends LINE to the journal, if it is open.
+     *  @param line */
+    private void journal(String line) throws IOException {
+        if (_journal != null) {
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            _journal.write(bytes);
+            _written += bytes.length;
+        }
+    }
+
+    /** returns the path of PATH relative to the working directory,
+     *  '/'-separated.
+     *  @param path */
+    private String relative(Path path) {
+        return _cwd.toPath().relativize(path).toString()
+            .replace(File.separatorChar, '/');
+    }
+
+    /** returns the generation named by the journal, or 0 if there is
+     *  none. */
+    private long generation() {
+        byte[] bytes = new byte[HEADER_MAX];
+        int n;
+        try (RandomAccessFile in =
+                 new RandomAccessFile(new File(_dir, JOURNAL), "r")) {
+            n = in.read(bytes);
+        } catch (IOException excp) {
+            return 0;
+        }
+        int end = indexOf(bytes, new byte[] {'\n'});
+        String head = end < 0 || end > n ? ""
+            : new String(bytes, 0, end, StandardCharsets.UTF_8);
+        if (!head.startsWith(HEADER)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(head.substring(HEADER.length()));
+        } catch (NumberFormatException excp) {
+            return 0;
+        }
+    }
+
+    /** returns the position in the journal after the first line at or
+     *  after START that is LINE, or -1. the journal is read a line at a
+     *  time.
+     *  @param start
+     *  @param line */
+    private long find(long start, byte[] line) {
+        try (FileChannel ch = FileChannel.open(
+                new File(_dir, JOURNAL).toPath(), StandardOpenOption.READ)) {
+            InputStream in = lines(ch, start);
+            long pos = start;
+            for (byte[] next = readLine(in); next != null;
+                 next = readLine(in)) {
+                pos += next.length + 1;
+                if (Arrays.equals(next, line)) {
+                    return pos;
+                }
+            }
+            return -1;
+        } catch (IOException excp) {
+            return -1;
+        }
+    }
+
+    /** returns a buffered stream reading CH from position START.
+     *  @param ch
+     *  @param start */
+    private static InputStream lines(FileChannel ch, long start)
+        throws IOException {
+        ch.position(start);
+        return new BufferedInputStream(Channels.newInputStream(ch), BUFFER);
+    }
+
+    /** returns the next line read from IN, without its newline, or null
+     *  if no whole line is left: a last line without a newline is still
+     *  being written.
+     *  @param in */
+    private static byte[] readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                return null;
+            }
+            line.write(b);
+        }
+        return line.toByteArray();
+    }
+
+    /** returns the position of the first occurrence of TARGET in BYTES,
+     *  or -1.
+     *  @param bytes
+     *  @param target */
+    private static int indexOf(byte[] bytes, byte[] target) {
+        outer:
+        for (int i = 0; i + target.length <= bytes.length; i += 1) {
+            for (int j = 0; j < target.length; j += 1) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** directory of the monitor's files within .gitlet. */
+    static final String DIR = "fsmonitor";
+
+    /** names of the lock, journal, log and cookie directory. */
+    static final String LOCK = "lock", JOURNAL = "journal", LOG = "log",
+        COOKIES = "cookies";
+
+    /** name of the cookie asking the monitor to stop. */
+    static final String STOP = "stop";
+
+    /** start of the first line of a journal, followed by the generation. */
+    static final String HEADER = "gitlet-fsmonitor ";
+
+    /** longest first line of a journal. */
+    static final int HEADER_MAX = 64;
+
+    /** length in bytes at which the journal is replaced. */
+    static final long JOURNAL_LIMIT = 1 << 20;
+
+    /** suffix of the journal being started. */
+    private static final String TEMP = ".tmp";
+
+    /** size of the buffer the journal is read through. */
+    private static final int BUFFER = 1 << 16;
+
+    /** starts of journal lines for changed paths, cookies and lost
+     *  events. */
+    static final String CHANGED = "+", COOKIE = "@", OVERFLOWED = "!";
+
+    /** nanoseconds to wait for a cookie to be journalled. */
+    static final long COOKIE_WAIT = 2_000_000_000L;
+
+    /** nanoseconds to wait for the monitor to start or stop. */
+    static final long START_WAIT = 10_000_000_000L;
+
+    /** milliseconds between checks that the monitor has started. */
+    static final int START_POLL = 20;
+
+    /** directory of the monitor's files. */
+    private final File _dir;
+
+    /** the working directory. */
+    private final File _cwd;
+
+    /** the watch service, while running. */
+    private WatchService _watcher;
+
+    /** key of the cookie directory, while running. */
+    private WatchKey _cookies;
+
+    /** watched directories by key, while running. */
+    private final HashMap<WatchKey, Path> _keys = new HashMap<>();
+
+    /** the journal, while running. */
+    private OutputStream _journal;
+
+    /** bytes written to the journal, while running. */
+    private long _written;
+
+    /** generation of the journal, while running. */
+    private long _generation;
+}
@@ -1,8 +1,7 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
-import java.util.Objects;
+import java.util.List;
 
 public class GLet {
 
@@ -13,29 +12,50 @@ public class GLet {
      * @return commit referenced by contents of file
      */
     public static Commit refToCommit(File file) {
-        return Utils.readObject(new File(Utils.readContentsAsString(file)),
-                Commit.class);
+        return ObjectStore.readObject(
+                new File(Utils.readContentsAsString(file)), Commit.class);
     }
 
     public static Blob findBlobInstance(Commit target,
                                         File dir, String filename) {
-        return Utils.readObject(new File(dir, target.blobs(filename)),
-                Blob.class);
-    }
-
-    /**
-     * returns sha1 after serializing object obj.
-     * @param obj
-     */
-    public static String sha1Obj(Serializable obj) {
-        return Utils.sha1(Utils.serialize(obj));
+        Promisor.fetch(dir.getParentFile(), target.blobs(filename));
+        return ObjectStore.readObject(
+                new File(dir, target.blobs(filename)), Blob.class);
     }
 
     public static void error(String msg, Object... args) {
+        if (_keepRunning) {
+            throw new Exit(String.format(msg + "\n", args));
+        }
         System.out.printf(msg + "\n", args);
         System.exit(0);
     }
 
+    /** ends a command with MESSAGE, already formatted, in place of
+     *  printing it and exiting the process. */
+    static final class Exit extends RuntimeException {
+        /** version of the serialized form, which Exits never use. */
+        private static final long serialVersionUID = 1L;
+
+        /** ending with MESSAGE.
+         *  @param message */
+        Exit(String message) {
+            super(message);
+        }
+    }
+
+    /** sets whether errors end just the command, by throwing Exit, as
+     *  when this process runs many commands (KEEP), or the process.
+     *  @param keep */
+    static void keepRunning(boolean keep) {
+        _keepRunning = keep;
+    }
+
+    /** returns true if errors end just the command (see keepRunning). */
+    static boolean keepsRunning() {
+        return _keepRunning;
+    }
+
     /**
      * returns ref ending with a hash as the num char abbreviated hash
      * without regex. assumed ref length >= 40.
@@ -73,25 +93,21 @@ public class GLet {
 
     /** returns full hash id from.
      * @param abbreviation in
-     * @param hashDir . */
+     * @param hashDir , looked up in its id index. errors if there is no
+     * such object or the abbreviation is ambiguous. */
     public static String expandHashID(String abbreviation, File hashDir) {
-        int len = abbreviation.length();
-        String match = null;
-        for (String id : Objects.requireNonNull(
-                Utils.plainFilenamesIn(hashDir))) {
-            if (id.substring(0, len).equals(abbreviation)) {
-                if (match != null) {
-                    throw Utils.error("invalid abbreviation/hashID");
-                }
-                match = id;
-            }
-        }
-        if (match == null) {
+        List<String> matches = IdIndex.of(hashDir).matches(abbreviation, 2);
+        if (matches.isEmpty()) {
             throw Utils.error("invalid abbreviation/hashID");
+        } else if (matches.size() > 1) {
+            throw Utils.error("ambiguous abbreviation/hashID");
         }
-        return match;
+        return matches.get(0);
     }
 
     /** length of a sha 1 hash in hexadecimal. */
     public static final int HASH_LEN = 40;
+
+    /** true if errors end just the command. */
+    private static volatile boolean _keepRunning;
 }
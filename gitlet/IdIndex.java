@@ -0,0 +1,357 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/** A persistent index of the ids of the objects of one kind, commits or
+ *  blobs, for resolving abbreviated ids. it is kept in .gitlet/ids as a
+ *  sorted base file, which starts with a fan-out table counting the ids
+ *  whose first byte is at most each value and is memory-mapped and
+ *  binary searched, and a journal of ids stored since, which is merged
+ *  into the base once it grows long. the index is built from the object
+ *  store when missing. every object stored is journalled, so a prefix
+ *  the index cannot find is taken not to be stored, unless the index is
+ *  stale: the base records when the store was last known to be indexed,
+ *  and the journal's modification time is when an object was last
+ *  journalled; if the object or pack directory changed after both, eg.
+ *  by a version that did not keep the index, it is rebuilt and searched
+ *  again. the store is listed only then, not on every miss.
+ *  @author David Babazadeh
+ */
+class IdIndex {
+
+    /** returns the index of the objects stored in directory DIR.
+     *  @param dir */
+    static synchronized IdIndex of(File dir) {
+        return OPEN.computeIfAbsent(dir.getAbsolutePath(),
+            k -> new IdIndex(dir));
+    }
+
+    /** records that object FILE has been stored, if its kind is indexed
+     *  and its index has been built.
+     *  @param file */
+    static void added(File file) {
+        added(file.getParentFile(), List.of(file.getName()));
+    }
+
+    /** records that objects IDS have been stored in directory DIR, if
+     *  its kind is indexed and its index has been built, with one write.
+     *  @param dir
+     *  @param ids */
+    static void added(File dir, Collection<String> ids) {
+        if (KINDS.contains(dir.getName()) && !ids.isEmpty()) {
+            of(dir).journal(ids);
+        }
+    }
+
+    /** deletes the indexes of repository directory GITLET, eg. once
+     *  object ids change.
+     *  @param gitlet */
+    static synchronized void delete(File gitlet) {
+        for (String kind : KINDS) {
+            IdIndex index = OPEN.remove(new File(gitlet, kind)
+                    .getAbsolutePath());
+            if (index != null) {
+                index.unmap();
+            }
+            new File(gitlet, DIR + "/" + kind + BASE).delete();
+            new File(gitlet, DIR + "/" + kind + JOURNAL).delete();
+        }
+    }
+
+    /** index of the objects stored in DIR.
+     *  @param dir */
+    private IdIndex(File dir) {
+        _dir = dir;
+        File ids = new File(dir.getParentFile(), DIR);
+        _base = new File(ids, dir.getName() + BASE);
+        _journal = new File(ids, dir.getName() + JOURNAL);
+    }
+
+    /** returns up to LIMIT ids of stored objects starting with PREFIX,
+     *  in order. PREFIX must be lowercase hexadecimal.
+     *  @param prefix
+     *  @param limit */
+    synchronized List<String> matches(String prefix, int limit) {
+        if (!PREFIX.matcher(prefix).matches()) {
+            return new ArrayList<>();
+        }
+        if (!_base.isFile()) {
+            rebuild();
+        }
+        TreeSet<String> result = find(prefix, limit);
+        if (result.isEmpty() && stale()) {
+            rebuild();
+            result = find(prefix, limit);
+        }
+        ArrayList<String> ids = new ArrayList<>(result);
+        return ids.subList(0, Math.min(limit, ids.size()));
+    }
+
+    /** returns the ids in the base, up to LIMIT of them, and in the
+     *  journal starting with PREFIX.
+     *  @param prefix
+     *  @param limit */
+    private TreeSet<String> find(String prefix, int limit) {
+        TreeSet<String> result = new TreeSet<>();
+        search(prefix, limit, result);
+        for (String id : journalIDs()) {
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** returns true if the object store may hold objects not in the
+     *  index: if the base is missing or malformed, or the object or pack
+     *  directory was changed after the store was last indexed and after
+     *  the last object was journalled. */
+    private boolean stale() {
+        MappedByteBuffer base = map();
+        if (base == null) {
+            return true;
+        }
+        long indexed = Math.max(base.getLong(STAMP), _journal.lastModified());
+        return _dir.lastModified() > indexed
+            || new File(_dir.getParentFile(), Pack.DIR).lastModified()
+            > indexed;
+    }
+
+    /** adds up to LIMIT ids from the base starting with PREFIX to OUT,
+     *  searching only the part of the base that the fan-out table gives
+     *  for PREFIX's first byte.
+     *  @param prefix
+     *  @param limit
+     *  @param out */
+    private void search(String prefix, int limit, TreeSet<String> out) {
+        MappedByteBuffer base = map();
+        if (base == null) {
+            return;
+        }
+        int first = Integer.parseInt(prefix.substring(0,
+                Math.min(2, prefix.length())), HEX);
+        int firstLo = prefix.length() == 1 ? first << 4 : first;
+        int firstHi = prefix.length() == 1 ? firstLo + NIBBLE : first;
+        int lo = firstLo == 0 ? 0 : fanout(base, firstLo - 1);
+        int hi = fanout(base, firstHi);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (id(base, mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int end = fanout(base, firstHi);
+        for (int i = lo; i < end && out.size() < limit; i += 1) {
+            String id = id(base, i);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            out.add(id);
+        }
+    }
+
+    /** appends IDS to the journal, merging the journal into the base
+     *  once it holds JOURNAL_LIMIT ids. does nothing if the base has not
+     *  been built, as building it will find IDS.
+     *  @param ids */
+    private synchronized void journal(Collection<String> ids) {
+        if (!_base.isFile()) {
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(_journal, true))) {
+            for (String id : ids) {
+                out.write(Codec.raw(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_journal.length() >= (long) JOURNAL_LIMIT * Codec.ID_BYTES) {
+            TreeSet<String> all = new TreeSet<>(journalIDs());
+            MappedByteBuffer base = map();
+            for (int i = 0; base != null && i < count(base); i += 1) {
+                all.add(id(base, i));
+            }
+            write(all, Math.max(base == null ? 0 : base.getLong(STAMP),
+                    _journal.lastModified()));
+        }
+    }
+
+    /** rebuilds the base from every object in the store and empties the
+     *  journal. */
+    private void rebuild() {
+        long stamp = Math.max(_dir.lastModified(),
+                new File(_dir.getParentFile(), Pack.DIR).lastModified());
+        write(new TreeSet<>(ObjectStore.list(_dir)), stamp);
+    }
+
+    /** replaces the base with one holding IDS, recording that the store
+     *  was indexed as of time STAMP, and empties the journal. the base is
+     *  written through a temporary file of this process's own, as another
+     *  may be rebuilding it too.
+     *  @param ids
+     *  @param stamp */
+    private void write(TreeSet<String> ids, long stamp) {
+        _base.getParentFile().mkdirs();
+        int[] fanout = new int[FANOUT];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), HEX)] += 1;
+        }
+        File temp = new File(_base.getPath() + "-"
+                + ProcessHandle.current().pid() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            out.writeInt(ids.size());
+            int total = 0;
+            for (int n : fanout) {
+                total += n;
+                out.writeInt(total);
+            }
+            for (String id : ids) {
+                out.write(Codec.raw(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        unmap();
+        ObjectStore.install(temp, _base);
+        _journal.delete();
+    }
+
+    /** returns the ids in the journal. */
+    private List<String> journalIDs() {
+        ArrayList<String> result = new ArrayList<>();
+        if (!_journal.isFile()) {
+            return result;
+        }
+        byte[] bytes = Utils.readContents(_journal);
+        byte[] raw = new byte[Codec.ID_BYTES];
+        for (int i = 0; i + raw.length <= bytes.length; i += raw.length) {
+            System.arraycopy(bytes, i, raw, 0, raw.length);
+            result.add(Codec.hex(raw));
+        }
+        return result;
+    }
+
+    /** returns the mapped base, mapping it if need be, or null if it is
+     *  missing or malformed. */
+    private MappedByteBuffer map() {
+        if (_map == null && _base.isFile()) {
+            try (FileChannel ch = FileChannel.open(_base.toPath(),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer map =
+                    ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (ch.size() >= HEADER && map.getInt(0) == MAGIC
+                        && map.getInt(4) == VERSION
+                        && ch.size() == HEADER + (long) count(map)
+                        * Codec.ID_BYTES) {
+                    _map = map;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return _map;
+    }
+
+    /** forgets the mapped base. */
+    private void unmap() {
+        _map = null;
+    }
+
+    /** returns number of ids in BASE.
+     *  @param base */
+    private static int count(MappedByteBuffer base) {
+        return base.getInt(COUNT);
+    }
+
+    /** returns number of ids in BASE whose first byte is at most B.
+     *  @param base
+     *  @param b */
+    private static int fanout(MappedByteBuffer base, int b) {
+        return base.getInt(COUNT + 4 + 4 * b);
+    }
+
+    /** returns the Ith id of BASE.
+     *  @param base
+     *  @param i */
+    private static String id(MappedByteBuffer base, int i) {
+        byte[] raw = new byte[Codec.ID_BYTES];
+        base.get(HEADER + i * Codec.ID_BYTES, raw);
+        return Codec.hex(raw);
+    }
+
+    /** directory of indexes within .gitlet. */
+    static final String DIR = "ids";
+
+    /** suffixes of base and journal files. */
+    static final String BASE = ".idx", JOURNAL = ".journal";
+
+    /** object directories that are indexed. */
+    static final List<String> KINDS = List.of("commits", "blobs");
+
+    /** magic number heading base files ("GLPX"). */
+    static final int MAGIC = 0x474c5058;
+
+    /** format version of base files. */
+    static final int VERSION = 2;
+
+    /** position in a base of the time its store was indexed as of. */
+    static final int STAMP = 8;
+
+    /** position of the id count in a base. */
+    static final int COUNT = STAMP + 8;
+
+    /** entries in the fan-out table. */
+    static final int FANOUT = 256;
+
+    /** length of a base's header: magic, version, stamp, count,
+     *  fan-out. */
+    static final int HEADER = COUNT + 4 + 4 * FANOUT;
+
+    /** number of journalled ids at which the journal is merged. */
+    static final int JOURNAL_LIMIT = 1024;
+
+    /** form of an abbreviated id. */
+    private static final Pattern PREFIX =
+        Pattern.compile("[0-9a-f]{1," + GLet.HASH_LEN + "}");
+
+    /** radix of ids. */
+    private static final int HEX = 16;
+
+    /** low four bits. */
+    private static final int NIBBLE = 0xf;
+
+    /** directory of the indexed objects. */
+    private final File _dir;
+
+    /** base and journal files. */
+    private final File _base, _journal;
+
+    /** the mapped base, or null if not mapped yet. */
+    private MappedByteBuffer _map;
+
+    /** opened indexes by object directory. */
+    private static final HashMap<String, IdIndex> OPEN = new HashMap<>();
+}
@@ -1,5 +1,11 @@
 package gitlet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
@@ -8,12 +14,49 @@ import java.util.Objects;
 public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... with -Dgitlet.stats=true, the object
+     *  caches' counters are printed to standard error on exit. */
     public static void main(String... args) {
+        if (Boolean.getBoolean(STATS)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                () -> System.err.println(ObjectStore.cacheStats())));
+        }
+        run(new Repo(), args);
+    }
+
+    /** runs the command ARGS in REPO as run does, when errors end just
+     *  the command (see GLet.keepRunning). prints an error's message, or
+     *  an exception's stack trace to standard error as the JVM would,
+     *  and returns the exit status the process would have had.
+     *  @param repo
+     *  @param args */
+    static int execute(Repo repo, String... args) {
+        try {
+            run(repo, args);
+            return 0;
+        } catch (Throwable excp) {
+            for (Throwable e = excp; e != null; e = e.getCause()) {
+                if (e instanceof GLet.Exit) {
+                    System.out.print(e.getMessage());
+                    return 0;
+                }
+            }
+            System.err.print("Exception in thread \"main\" ");
+            excp.printStackTrace();
+            return 1;
+        } finally {
+            System.out.flush();
+            System.err.flush();
+        }
+    }
+
+    /** runs the command ARGS in REPO, as main does.
+     *  @param repo
+     *  @param args */
+    static void run(Repo repo, String... args) {
         if (args.length == 0) {
             GLet.error("Please enter a command.");
         }
-        Repo repo = new Repo();
         switch (args[0]) {
         case "init":
             repo.init();
@@ -33,10 +76,10 @@ public class Main {
             repo.rm(java.util.Arrays.copyOfRange(args, 1, args.length));
             break;
         case "log":
-            repo.logHeadPath();
+            checkLogArgs(args, repo);
             break;
         case "global-log":
-            repo.logAll();
+            checkGlobalLogArgs(args, repo);
             break;
         case "find":
             checkSoloArg(args, "find requires a commit message", repo);
@@ -65,11 +108,229 @@ public class Main {
             checkSoloArg(args, "requires single branch name",  repo);
             repo.merge(args[1]);
             break;
+        case "chunk-stats":
+            GLet.checkArgs(args, 1, 2, "chunk-stats takes no arguments",
+                    repo.gitlet());
+            repo.chunkStats();
+            break;
+        case "config":
+            GLet.checkArgs(args, 1, 4, "config takes a key and a value",
+                    repo.gitlet());
+            repo.config(args.length > 1 ? args[1] : null,
+                    args.length > 2 ? args[2] : null);
+            break;
+        case "migrate":
+            GLet.checkArgs(args, 1, 2, "migrate takes no arguments",
+                    repo.gitlet());
+            repo.migrate();
+            break;
+        case "repack":
+            GLet.checkArgs(args, 1, 2, "repack takes no arguments",
+                    repo.gitlet());
+            repo.repack();
+            break;
+        case "merge-base":
+            checkMergeBaseArgs(args, repo);
+            break;
+        case "diff":
+            checkDiffArgs(args, repo);
+            break;
+        case "fsmonitor":
+            GLet.checkArgs(args, 2, 3, "fsmonitor takes start, stop, status"
+                    + " or run", repo.gitlet());
+            repo.fsmonitor(args[1]);
+            break;
+        case "batch":
+            if (args.length != 1) {
+                GLet.error("batch takes no arguments");
+            }
+            Batch.run(repo.cwd(), System.in);
+            break;
+        case "fast-import":
+            GLet.checkArgs(args, 1, 2, "fast-import takes no arguments",
+                    repo.gitlet());
+            repo.fastImport();
+            break;
+        case "fast-export":
+            GLet.checkArgs(args, 1, Integer.MAX_VALUE, "", repo.gitlet());
+            repo.fastExport(java.util.Arrays.asList(args)
+                    .subList(1, args.length));
+            break;
+        case "add-remote":
+            GLet.checkArgs(args, 3, 4, "Incorrect operands.", repo.gitlet());
+            repo.addRemote(args[1], args[2]);
+            break;
+        case "rm-remote":
+            checkSoloArg(args, "Incorrect operands.", repo);
+            repo.rmRemote(args[1]);
+            break;
+        case "fetch":
+            GLet.checkArgs(args, 3, 4, "Incorrect operands.", repo.gitlet());
+            repo.fetch(args[1], args[2]);
+            break;
+        case "push":
+            GLet.checkArgs(args, 3, 4, "Incorrect operands.", repo.gitlet());
+            repo.push(args[1], args[2]);
+            break;
+        case "pull":
+            GLet.checkArgs(args, 3, 4, "Incorrect operands.", repo.gitlet());
+            repo.pull(args[1], args[2]);
+            break;
+        case "clone":
+            checkCloneArgs(args, repo);
+            break;
+        case "daemon":
+            GLet.checkArgs(args, 2, 3, "daemon takes start, stop, status"
+                    + " or run", repo.gitlet());
+            repo.daemon(args[1]);
+            break;
         default:
             System.out.println("No command with that name exists.");
         }
     }
 
+    /**
+     * checks clone's arguments, [--filter=blob:none] and a repository
+     * directory, and runs it. unlike other commands it runs where there
+     * is no repository yet.
+     * @param args
+     * @param repo
+     */
+    private static void checkCloneArgs(String[] args, Repo repo) {
+        boolean partial = args.length == 3 && args[1].equals(BLOB_NONE);
+        if (args.length != (partial ? 3 : 2)) {
+            GLet.error("Incorrect operands.");
+        }
+        repo.clone(args[args.length - 1], partial);
+    }
+
+    /**
+     * checks merge-base's arguments, [--all] and two commits or branches,
+     * and runs it.
+     * @param args
+     * @param repo
+     */
+    private static void checkMergeBaseArgs(String[] args, Repo repo) {
+        GLet.checkArgs(args, 3, 5, "Incorrect operands.", repo.gitlet());
+        boolean all = args[1].equals("--all");
+        if (args.length != (all ? 4 : 3)) {
+            GLet.error("Incorrect operands.");
+        }
+        repo.mergeBase(args[args.length - 2], args[args.length - 1], all);
+    }
+
+    /**
+     * checks diff's arguments, [--histogram], up to two commits or
+     * branches, then optionally -- and files, and runs it.
+     * @param args
+     * @param repo
+     */
+    private static void checkDiffArgs(String[] args, Repo repo) {
+        GLet.checkRepo(repo.gitlet());
+        boolean histogram = false;
+        ArrayList<String> commits = new ArrayList<>();
+        int i;
+        for (i = 1; i < args.length && !args[i].equals("--"); i += 1) {
+            if (args[i].equals("--histogram")) {
+                histogram = true;
+            } else if (commits.size() < 2 && !args[i].startsWith("-")) {
+                commits.add(args[i]);
+            } else {
+                GLet.error("Incorrect operands.");
+            }
+        }
+        List<String> paths = java.util.Arrays.asList(args)
+            .subList(Math.min(i + 1, args.length), args.length);
+        repo.diff(commits, paths, histogram);
+    }
+
+    /**
+     * checks log's arguments, any of -n COUNT, --skip COUNT and
+     * --oneline, and runs it.
+     * @param args
+     * @param repo
+     */
+    private static void checkLogArgs(String[] args, Repo repo) {
+        GLet.checkArgs(args, 1, 7, "Incorrect operands.", repo.gitlet());
+        int skip = 0, limit = Integer.MAX_VALUE;
+        boolean oneline = false;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--oneline")) {
+                oneline = true;
+            } else if (i + 1 < args.length && args[i].equals("-n")) {
+                limit = count(args[i += 1]);
+            } else if (i + 1 < args.length && args[i].equals("--skip")) {
+                skip = count(args[i += 1]);
+            } else {
+                GLet.error("Incorrect operands.");
+            }
+        }
+        repo.logHeadPath(skip, limit, oneline);
+    }
+
+    /**
+     * checks global-log's arguments, any of --since DATE and --until
+     * DATE, and runs it.
+     * @param args
+     * @param repo
+     */
+    private static void checkGlobalLogArgs(String[] args, Repo repo) {
+        GLet.checkArgs(args, 1, 6, "Incorrect operands.", repo.gitlet());
+        long since = Long.MIN_VALUE, until = Long.MAX_VALUE;
+        for (int i = 1; i < args.length; i += 1) {
+            if (i + 1 < args.length && args[i].equals("--since")) {
+                since = time(args[i += 1], false);
+            } else if (i + 1 < args.length && args[i].equals("--until")) {
+                until = time(args[i += 1], true);
+            } else {
+                GLet.error("Incorrect operands.");
+            }
+        }
+        repo.logAll(since, until);
+    }
+
+    /**
+     * returns the time in milliseconds of ARG, a date (yyyy-mm-dd) or
+     * date and time (yyyy-mm-ddThh:mm[:ss]) in the default time zone, or
+     * exits if it is neither. a date alone is its start, or its last
+     * millisecond if END.
+     * @param arg
+     * @param end
+     */
+    private static long time(String arg, boolean end) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            if (arg.contains("T")) {
+                return LocalDateTime.parse(arg).atZone(zone).toInstant()
+                    .toEpochMilli();
+            }
+            LocalDate date = LocalDate.parse(arg);
+            return end ? date.plusDays(1).atStartOfDay(zone).toInstant()
+                .toEpochMilli() - 1
+                : date.atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            GLet.error("Incorrect operands.");
+            return 0;
+        }
+    }
+
+    /**
+     * returns the non-negative count ARG, or exits if it is not one.
+     * @param arg
+     */
+    private static int count(String arg) {
+        int result;
+        try {
+            result = Integer.parseInt(arg);
+        } catch (NumberFormatException excp) {
+            result = -1;
+        }
+        if (result < 0) {
+            GLet.error("Incorrect operands.");
+        }
+        return result;
+    }
+
     /**
      * checks if one input is given.
      * @param args
@@ -123,4 +384,9 @@ public class Main {
         }
     }
 
+    /** system property asking for the object caches' counters. */
+    static final String STATS = "gitlet.stats";
+
+    /** clone's option asking for a partial clone, without blobs. */
+    static final String BLOB_NONE = "--filter=blob:none";
 }
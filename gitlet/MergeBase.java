@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Finds the best common ancestors (merge bases) of two commits in a
+ *  CommitGraph: the common ancestors that are not ancestors of another
+ *  common ancestor. rows are visited newest generation first from both
+ *  commits, marking which of the two reach each; a row reached from both
+ *  is a candidate, and everything below it is marked stale, so the walk
+ *  stops once only stale rows are left. a row's generation is greater
+ *  than any of its ancestors', so once it is taken from the queue none
+ *  of its descendants is left in it, and each row is visited once.
+ *  candidates found below another are then dropped. the marks are
+ *  bitsets over rows, so histories of millions of commits cost a few
+ *  bits per commit.
+ *  @author David Babazadeh
+ */
+class MergeBase {
+
+    /** returns the rows of the merge bases of rows A and B of GRAPH, in
+     *  the order a breadth-first walk from A, first parents first, meets
+     *  them; the first is the one merge uses as the split point.
+     *  @param graph
+     *  @param a
+     *  @param b */
+    static List<Integer> bases(CommitGraph graph, int a, int b) {
+        if (a == b) {
+            return List.of(a);
+        }
+        return new MergeBase(graph).find(a, b);
+    }
+
+    /** a search over GRAPH.
+     *  @param graph */
+    private MergeBase(CommitGraph graph) {
+        _graph = graph;
+        int n = graph.size();
+        _fromA = new BitSet(n);
+        _fromB = new BitSet(n);
+        _stale = new BitSet(n);
+        _queued = new BitSet(n);
+        _queue = new PriorityQueue<>(
+            (x, y) -> x.equals(y) ? 0
+                : graph.generation(x) != graph.generation(y)
+                ? Integer.compare(graph.generation(y), graph.generation(x))
+                : Integer.compare(y, x));
+    }
+
+    /** returns the merge bases of A and B, as bases does.
+     *  @param a
+     *  @param b */
+    private List<Integer> find(int a, int b) {
+        _fromA.set(a);
+        _fromB.set(b);
+        push(a);
+        push(b);
+        ArrayList<Integer> candidates = new ArrayList<>();
+        while (_live > 0) {
+            int row = _queue.poll();
+            if (!_stale.get(row)) {
+                _live -= 1;
+                if (_fromA.get(row) && _fromB.get(row)) {
+                    candidates.add(row);
+                    _stale.set(row);
+                }
+            }
+            paint(row, _graph.parent1(row));
+            paint(row, _graph.parent2(row));
+        }
+        BitSet best = new BitSet(_graph.size());
+        for (int row : candidates) {
+            if (!below(row, candidates)) {
+                best.set(row);
+            }
+        }
+        return order(a, best);
+    }
+
+    /** gives PARENT the marks of its child ROW, queueing it if need be.
+     *  does nothing if PARENT is -1 (none) or has every mark already.
+     *  @param row
+     *  @param parent */
+    private void paint(int row, int parent) {
+        if (parent < 0) {
+            return;
+        }
+        boolean wasStale = _stale.get(parent);
+        boolean changed = false;
+        for (BitSet mark : new BitSet[] {_fromA, _fromB, _stale}) {
+            if (mark.get(row) && !mark.get(parent)) {
+                mark.set(parent);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        } else if (!_queued.get(parent)) {
+            push(parent);
+        } else if (!wasStale && _stale.get(parent)) {
+            _live -= 1;
+        }
+    }
+
+    /** queues ROW.
+     *  @param row */
+    private void push(int row) {
+        _queued.set(row);
+        _queue.add(row);
+        if (!_stale.get(row)) {
+            _live += 1;
+        }
+    }
+
+    /** returns true if ROW is an ancestor of another of CANDIDATES. walks
+     *  down from the others only as far as ROW's generation.
+     *  @param row
+     *  @param candidates */
+    private boolean below(int row, List<Integer> candidates) {
+        int generation = _graph.generation(row);
+        BitSet seen = new BitSet(_graph.size());
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        for (int other : candidates) {
+            if (other != row) {
+                pending.push(other);
+            }
+        }
+        while (!pending.isEmpty()) {
+            int r = pending.pop();
+            if (r == row) {
+                return true;
+            } else if (r < 0 || seen.get(r)
+                       || _graph.generation(r) <= generation) {
+                continue;
+            }
+            seen.set(r);
+            pending.push(_graph.parent1(r));
+            pending.push(_graph.parent2(r));
+        }
+        return false;
+    }
+
+    /** returns the rows set in BEST in the order a breadth-first walk
+     *  from A, first parents first, meets them. the walk goes no lower
+     *  than the lowest generation in BEST.
+     *  @param a
+     *  @param best */
+    private List<Integer> order(int a, BitSet best) {
+        ArrayList<Integer> result = new ArrayList<>();
+        int lowest = Integer.MAX_VALUE;
+        for (int row = best.nextSetBit(0); row >= 0;
+             row = best.nextSetBit(row + 1)) {
+            lowest = Math.min(lowest, _graph.generation(row));
+        }
+        int count = best.cardinality();
+        BitSet seen = new BitSet(_graph.size());
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.add(a);
+        while (!pending.isEmpty() && result.size() < count) {
+            int row = pending.remove();
+            if (row < 0 || seen.get(row)
+                    || _graph.generation(row) < lowest) {
+                continue;
+            }
+            seen.set(row);
+            if (best.get(row)) {
+                result.add(row);
+                continue;
+            }
+            pending.add(_graph.parent1(row));
+            pending.add(_graph.parent2(row));
+        }
+        return result;
+    }
+
+    /** the commit graph searched. */
+    private final CommitGraph _graph;
+
+    /** rows reached from A and from B. */
+    private final BitSet _fromA, _fromB;
+
+    /** rows below a common ancestor already found. */
+    private final BitSet _stale;
+
+    /** rows that have been queued. */
+    private final BitSet _queued;
+
+    /** rows to visit, newest generation first. */
+    private final PriorityQueue<Integer> _queue;
+
+    /** number of queued rows that are not stale. */
+    private int _live;
+}
@@ -0,0 +1,541 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The commit metadata kept in .gitlet/metadata: the id, parents,
+ *  timestamp and message of each commit, appended as commits are made, so
+ *  find and global-log read one file rather than every commit object. the
+ *  record count and end in the header are written after the records, so
+ *  a partly written append is ignored; appends hold the file's lock and
+ *  re-read the header, so those of other processes are kept. the records
+ *  up to some point are indexed in .gitlet/metadata.idx, which holds
+ *  their positions, their timestamps in order, for date ranges, and an
+ *  inverted index from the hash of each word of a message to the records
+ *  whose message has it.
+ *  both files are memory-mapped and searched in place. records appended
+ *  since the index was written are scanned, and the index is rewritten
+ *  once there are TAIL_LIMIT of them. the metadata is built from the
+ *  commit store when missing, eg. in repositories made before it.
+ *  @author David Babazadeh
+ */
+class Metadata {
+
+    /** returns the metadata of repository directory GITLET.
+     *  @param gitlet */
+    static synchronized Metadata of(File gitlet) {
+        return OPEN.computeIfAbsent(gitlet.getAbsolutePath(),
+            k -> new Metadata(gitlet));
+    }
+
+    /** deletes the metadata of GITLET, eg. once commit ids change.
+     *  @param gitlet */
+    static synchronized void delete(File gitlet) {
+        OPEN.remove(gitlet.getAbsolutePath());
+        new File(gitlet, FILE).delete();
+        new File(gitlet, FILE + INDEX).delete();
+    }
+
+    /** metadata of repository directory GITLET.
+     *  @param gitlet */
+    private Metadata(File gitlet) {
+        _commits = new File(gitlet, "commits");
+        _file = new File(gitlet, FILE);
+        _indexFile = new File(gitlet, FILE + INDEX);
+    }
+
+    /** records COMMIT, which has been saved. if the metadata is missing
+     *  it is built from the commit store instead, which finds COMMIT.
+     *  @param commit */
+    synchronized void add(Commit commit) {
+        add(List.of(commit));
+    }
+
+    /** records COMMITS, which have been saved, with one write. if the
+     *  metadata is missing it is built from the commit store instead,
+     *  which finds them.
+     *  @param commits */
+    synchronized void add(List<Commit> commits) {
+        update(commits);
+        mapIndex();
+        if (_index == null || _count - indexed() >= TAIL_LIMIT) {
+            writeIndex();
+        }
+    }
+
+    /** returns the ids of the commits whose message is MESSAGE, in order.
+     *  only the indexed records holding MESSAGE's rarest word are read,
+     *  or all of them if it has no words.
+     *  @param message */
+    synchronized TreeSet<String> find(String message) {
+        open();
+        TreeSet<String> result = new TreeSet<>();
+        List<String> words = words(message);
+        long from = HEADER;
+        if (!words.isEmpty()) {
+            int[] records = null;
+            for (String word : words) {
+                int[] postings = postings(word.hashCode());
+                if (records == null || postings.length < records.length) {
+                    records = postings;
+                }
+            }
+            for (int record : records) {
+                Entry e = entry(offset(record));
+                if (e.message.equals(message)) {
+                    result.add(e.id);
+                }
+            }
+            from = _index.getLong(INDEX_END);
+        }
+        for (long pos = from; pos < _end; pos += length(pos)) {
+            Entry e = entry(pos);
+            if (e.message.equals(message)) {
+                result.add(e.id);
+            }
+        }
+        return result;
+    }
+
+    /** returns the metadata of the commits made from SINCE to UNTIL, in
+     *  milliseconds and inclusive, in the order they were recorded. with
+     *  no bounds the file is read straight through; otherwise the indexed
+     *  records in range are found from the sorted timestamps.
+     *  @param since
+     *  @param until */
+    synchronized List<Entry> between(long since, long until) {
+        open();
+        ArrayList<Entry> result = new ArrayList<>();
+        long from = HEADER;
+        if (since != Long.MIN_VALUE || until != Long.MAX_VALUE) {
+            int n = indexed();
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (time(mid) < since) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            ArrayList<Integer> records = new ArrayList<>();
+            for (int i = lo; i < n && time(i) <= until; i += 1) {
+                records.add(
+                    _index.getInt(timesStart() + i * TIME + Long.BYTES));
+            }
+            records.sort(null);
+            for (int record : records) {
+                result.add(entry(offset(record)));
+            }
+            from = _index.getLong(INDEX_END);
+        }
+        for (long pos = from; pos < _end; pos += length(pos)) {
+            Entry e = entry(pos);
+            if (e.timestamp >= since && e.timestamp <= until) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /** the metadata of one commit. */
+    static class Entry {
+
+        /** metadata of commit ID, whose parents are PARENT1 and PARENT2
+         *  ("" if none), made at TIMESTAMP with MESSAGE.
+         *  @param id
+         *  @param parent1
+         *  @param parent2
+         *  @param timestamp
+         *  @param message */
+        Entry(String id, String parent1, String parent2, long timestamp,
+              String message) {
+            this.id = id;
+            this.parent1 = parent1;
+            this.parent2 = parent2;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        /** writes this commit's log entry to OUT, on one line if ONELINE.
+         *  @param out
+         *  @param oneline */
+        void log(Writer out, boolean oneline) throws IOException {
+            Commit.log(out, id, parent1, parent2, timestamp, message,
+                    oneline);
+        }
+
+        /** commit id and parent ids. */
+        final String id, parent1, parent2;
+
+        /** time the commit was made, in milliseconds. */
+        final long timestamp;
+
+        /** commit message. */
+        final String message;
+    }
+
+    /** maps both files afresh, as other processes may have added to
+     *  them, building the metadata from the commit store and rewriting
+     *  the index if either is missing or out of date. */
+    private void open() {
+        map();
+        if (_data == null) {
+            update(List.of());
+        }
+        mapIndex();
+        if (_index == null) {
+            writeIndex();
+        }
+    }
+
+    /** appends records for COMMITS, or builds the metadata from the
+     *  commit store if it is missing, then remaps it. the file is locked
+     *  and its header re-read first, so that records appended by another
+     *  process since it was last mapped are appended after, not over. it
+     *  is read through the locked channel alone, as closing another
+     *  channel on the file would release the lock.
+     *  @param commits */
+    private void update(List<Commit> commits) {
+        try (RandomAccessFile out = new RandomAccessFile(_file, "rw")) {
+            FileChannel ch = out.getChannel();
+            ch.lock();
+            map(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            if (_data == null) {
+                build(out);
+            } else if (!commits.isEmpty()) {
+                append(out, commits);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        map();
+    }
+
+    /** records every commit in the store, oldest first, in OUT.
+     *  @param out */
+    private void build(RandomAccessFile out) throws IOException {
+        ArrayList<Commit> commits = new ArrayList<>();
+        for (String id : ObjectStore.list(_commits)) {
+            commits.add(ObjectStore.readObject(new File(_commits, id),
+                    Commit.class));
+        }
+        commits.sort(Comparator.comparing(Commit::timestamp)
+                .thenComparing(Commit::id));
+        _count = 0;
+        append(out, commits);
+    }
+
+    /** writes records for COMMITS to OUT after the existing records,
+     *  then the new count and end.
+     *  @param out
+     *  @param commits */
+    private void append(RandomAccessFile out, List<Commit> commits)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream records = new DataOutputStream(bytes)) {
+            for (Commit c : commits) {
+                records.write(Codec.raw(c.id()));
+                records.write(raw(c.parent1ID()));
+                records.write(raw(c.parent2ID()));
+                records.writeLong(c.timestamp().getTime());
+                Codec.writeString(records, c.getMessage());
+            }
+        }
+        if (_count == 0) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+            out.writeLong(HEADER);
+            _end = HEADER;
+        }
+        out.seek(_end);
+        out.write(bytes.toByteArray());
+        out.seek(COUNT);
+        out.write(ByteBuffer.allocate(Integer.BYTES + Long.BYTES)
+                  .putInt(_count + commits.size())
+                  .putLong(_end + bytes.size()).array());
+    }
+
+    /** rewrites the index to cover every record, through a temporary
+     *  file of this process's own, as another may be rewriting it too. */
+    private void writeIndex() {
+        long[] offsets = new long[_count];
+        long[][] times = new long[_count][];
+        TreeMap<Integer, List<Integer>> postings = new TreeMap<>();
+        long pos = HEADER;
+        for (int record = 0; record < _count; record += 1) {
+            Entry e = entry(pos);
+            offsets[record] = pos;
+            times[record] = new long[] {e.timestamp, record};
+            for (String word : new HashSet<>(words(e.message))) {
+                postings.computeIfAbsent(word.hashCode(),
+                    k -> new ArrayList<>()).add(record);
+            }
+            pos += length(pos);
+        }
+        Arrays.sort(times, Comparator.<long[]>comparingLong(t -> t[0])
+                .thenComparingLong(t -> t[1]));
+        File temp = new File(_indexFile.getPath() + "-"
+                + ProcessHandle.current().pid() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_count);
+            out.writeInt(postings.size());
+            out.writeLong(pos);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (long[] t : times) {
+                out.writeLong(t[0]);
+                out.writeInt((int) t[1]);
+            }
+            int start = 0;
+            for (Map.Entry<Integer, List<Integer>> e : postings.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeInt(start);
+                out.writeInt(e.getValue().size());
+                start += e.getValue().size();
+            }
+            for (List<Integer> records : postings.values()) {
+                for (int record : records) {
+                    out.writeInt(record);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _index = null;
+        ObjectStore.install(temp, _indexFile);
+        mapIndex();
+    }
+
+    /** returns the indexed records whose message has a word hashing to
+     *  HASH, found by binary search of the word table.
+     *  @param hash */
+    private int[] postings(int hash) {
+        int words = _index.getInt(WORDS);
+        int table = timesStart() + indexed() * TIME;
+        int lo = 0, hi = words;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int h = _index.getInt(table + mid * WORD);
+            if (h < hash) {
+                lo = mid + 1;
+            } else if (h > hash) {
+                hi = mid;
+            } else {
+                int start = _index.getInt(table + mid * WORD + 4);
+                int[] result = new int[_index.getInt(table + mid * WORD + 8)];
+                int at = table + words * WORD + start * Integer.BYTES;
+                for (int i = 0; i < result.length; i += 1) {
+                    result[i] = _index.getInt(at + i * Integer.BYTES);
+                }
+                return result;
+            }
+        }
+        return new int[0];
+    }
+
+    /** returns the number of indexed records. */
+    private int indexed() {
+        return _index.getInt(COUNT);
+    }
+
+    /** returns the position of indexed RECORD in the metadata.
+     *  @param record */
+    private long offset(int record) {
+        return _index.getLong(INDEX_HEADER + record * Long.BYTES);
+    }
+
+    /** returns the Ith smallest indexed timestamp.
+     *  @param i */
+    private long time(int i) {
+        return _index.getLong(timesStart() + i * TIME);
+    }
+
+    /** returns the position of the sorted timestamps in the index. */
+    private int timesStart() {
+        return INDEX_HEADER + indexed() * Long.BYTES;
+    }
+
+    /** returns the record at POS in the metadata.
+     *  @param pos */
+    private Entry entry(long pos) {
+        int p = (int) pos;
+        byte[] message = new byte[_data.getInt(p + MESSAGE)];
+        _data.get(p + MESSAGE + Integer.BYTES, message);
+        return new Entry(id(p), id(p + PARENT1), id(p + PARENT2),
+                _data.getLong(p + TIMESTAMP),
+                new String(message, StandardCharsets.UTF_8));
+    }
+
+    /** returns the length of the record at POS in the metadata.
+     *  @param pos */
+    private int length(long pos) {
+        return MESSAGE + Integer.BYTES + _data.getInt((int) pos + MESSAGE);
+    }
+
+    /** returns the id at POS in the metadata, or "" if it is none.
+     *  @param pos */
+    private String id(int pos) {
+        byte[] raw = new byte[Codec.ID_BYTES];
+        _data.get(pos, raw);
+        return Arrays.equals(raw, NONE) ? "" : Codec.hex(raw);
+    }
+
+    /** returns the raw bytes of ID, or NONE if ID is "".
+     *  @param id */
+    private static byte[] raw(String id) {
+        return id.isEmpty() ? NONE : Codec.raw(id);
+    }
+
+    /** returns the words of MESSAGE, in lower case.
+     *  @param message */
+    static List<String> words(String message) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String word : message.toLowerCase(Locale.ROOT)
+                 .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** maps the metadata, leaving it unmapped if it is missing or
+     *  malformed. */
+    private void map() {
+        map(map(_file));
+    }
+
+    /** takes DATA, the mapped metadata or null, as the metadata, leaving
+     *  it unmapped if it is missing or malformed.
+     *  @param data */
+    private void map(ByteBuffer data) {
+        _data = null;
+        _count = 0;
+        _end = HEADER;
+        if (data != null && data.limit() >= HEADER
+                && data.getInt(0) == MAGIC && data.getInt(4) == VERSION
+                && data.getLong(END) <= data.limit()) {
+            _data = data;
+            _count = data.getInt(COUNT);
+            _end = data.getLong(END);
+        }
+    }
+
+    /** maps the index, leaving it unmapped if it is missing, malformed or
+     *  covers records the metadata does not have. */
+    private void mapIndex() {
+        _index = null;
+        ByteBuffer index = map(_indexFile);
+        if (index != null && index.limit() >= INDEX_HEADER
+                && index.getInt(0) == INDEX_MAGIC
+                && index.getInt(4) == VERSION
+                && index.getInt(COUNT) <= _count
+                && index.getLong(INDEX_END) <= _end) {
+            _index = index;
+        }
+    }
+
+    /** returns FILE mapped, or null if it is missing.
+     *  @param file */
+    private static ByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** name of the metadata within .gitlet. */
+    static final String FILE = "metadata";
+
+    /** suffix of the index's name. */
+    static final String INDEX = ".idx";
+
+    /** magic numbers heading the metadata ("GLMD") and its index
+     *  ("GLMI"). */
+    static final int MAGIC = 0x474c4d44, INDEX_MAGIC = 0x474c4d49;
+
+    /** format version of both files. */
+    static final int VERSION = 1;
+
+    /** positions in the metadata's header of the record count and of the
+     *  end of the records. */
+    static final int COUNT = 8, END = 12;
+
+    /** length of the metadata's header: magic, version, count, end. */
+    static final int HEADER = END + Long.BYTES;
+
+    /** positions in the index's header of the number of words and of the
+     *  end of the indexed records; the count of indexed records is at
+     *  COUNT. */
+    static final int WORDS = 12, INDEX_END = 16;
+
+    /** length of the index's header: magic, version, count, words,
+     *  end. */
+    static final int INDEX_HEADER = INDEX_END + Long.BYTES;
+
+    /** offsets within a record of its fields; the message is
+     *  length-prefixed. */
+    static final int PARENT1 = Codec.ID_BYTES, PARENT2 = 2 * Codec.ID_BYTES,
+        TIMESTAMP = 3 * Codec.ID_BYTES, MESSAGE = TIMESTAMP + Long.BYTES;
+
+    /** lengths of an entry of the sorted timestamps (timestamp, record)
+     *  and of the word table (hash, start, count). */
+    static final int TIME = Long.BYTES + Integer.BYTES, WORD = 12;
+
+    /** number of unindexed records at which the index is rewritten. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** raw id standing for no parent. */
+    private static final byte[] NONE = new byte[Codec.ID_BYTES];
+
+    /** the commit store. */
+    private final File _commits;
+
+    /** the metadata and its index. */
+    private final File _file, _indexFile;
+
+    /** the mapped metadata and index, or null if not mapped. */
+    private ByteBuffer _data, _index;
+
+    /** number of records. */
+    private int _count;
+
+    /** position after the last record. */
+    private long _end;
+
+    /** opened metadata by repository directory. */
+    private static final HashMap<String, Metadata> OPEN = new HashMap<>();
+}
@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A cache of objects read from the object store, shared by everything in
+ *  the process, so an object read again and again during one command (eg.
+ *  the head commit and the ancestors of both sides of a merge) is read
+ *  from disk once. each entry has a weight, and once their total passes
+ *  the cache's budget the least recently used entries are evicted; an
+ *  object weighing more than the whole budget is not kept. objects are
+ *  content addressed, so a cached object never goes out of date. hits,
+ *  misses and evictions are counted.
+ *  @author David Babazadeh
+ */
+class ObjectCache<T> {
+
+    /** cache named NAME of objects weighing at most BUDGET in total, each
+     *  weighed by WEIGHER.
+     *  @param name
+     *  @param budget
+     *  @param weigher */
+    ObjectCache(String name, long budget, ToLongFunction<T> weigher) {
+        _name = name;
+        _budget = budget;
+        _weigher = weigher;
+    }
+
+    /** returns the object cached under KEY, or null.
+     *  @param key */
+    synchronized T get(String key) {
+        T result = _entries.get(key);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** caches VALUE under KEY, evicting the least recently used objects
+     *  if that passes the budget.
+     *  @param key
+     *  @param value */
+    synchronized void put(String key, T value) {
+        long weight = _weigher.applyAsLong(value);
+        if (weight > _budget) {
+            return;
+        }
+        T old = _entries.put(key, value);
+        if (old != null) {
+            _weight -= _weigher.applyAsLong(old);
+        }
+        _weight += weight;
+        Iterator<T> eldest = _entries.values().iterator();
+        while (_weight > _budget) {
+            _weight -= _weigher.applyAsLong(eldest.next());
+            eldest.remove();
+            _evictions += 1;
+        }
+    }
+
+    /** empties the cache, keeping its counters. */
+    synchronized void clear() {
+        _entries.clear();
+        _weight = 0;
+    }
+
+    /** returns the counters and size of the cache, on one line. */
+    synchronized String stats() {
+        return String.format("%s: %d hits, %d misses, %d evictions,"
+                + " %d entries weighing %d of %d", _name, _hits, _misses,
+                _evictions, _entries.size(), _weight, _budget);
+    }
+
+    /** name of the cache in stats. */
+    private final String _name;
+
+    /** greatest total weight of the cached objects. */
+    private final long _budget;
+
+    /** weighs cached objects. */
+    private final ToLongFunction<T> _weigher;
+
+    /** cached objects by key, least recently used first. */
+    private final Map<String, T> _entries =
+        new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    /** total weight of the cached objects. */
+    private long _weight;
+
+    /** lookups that found an object, lookups that did not, and objects
+     *  evicted. */
+    private long _hits, _misses, _evictions;
+
+    /** initial capacity of _entries. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** load factor of _entries. */
+    private static final float LOAD_FACTOR = 0.75f;
+}
@@ -0,0 +1,274 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Loose-object store for blobs, trees and commits. every object is
+ *  deflated on write and inflated as a stream on read. objects written
+ *  before compression (raw java serialization) are still readable.
+ *  objects that have been repacked are found through Pack.
+ *  @author David Babazadeh
+ */
+class ObjectStore {
+
+    /** writes CONTENTS deflated to FILE, recording its id in the id
+     *  index. objects are content addressed, so an object that is
+     *  already stored is left alone.
+     *  @param file
+     *  @param contents */
+    static void write(File file, byte[] contents) {
+        if (!exists(file)) {
+            writeLoose(file, contents);
+            IdIndex.added(file);
+        }
+    }
+
+    /** writes CONTENTS deflated to loose object FILE, even if the object
+     *  is also packed. each thread writes through its own temporary file,
+     *  so threads may store the same object at once.
+     *  @param file
+     *  @param contents */
+    static void writeLoose(File file, byte[] contents) {
+        File temp = new File(file.getParentFile(), file.getName() + "-"
+                + Thread.currentThread().getId() + TEMP);
+        try (OutputStream out = deflating(temp,
+                Math.max(MIN_BUFFER, Math.min(BUFFER, contents.length)))) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        install(temp, file);
+    }
+
+    /** returns true if the object named by FILE is stored, either loose
+     *  or in a pack.
+     *  @param file */
+    static boolean exists(File file) {
+        if (file.length() > 0) {
+            return true;
+        }
+        File dir = file.getParentFile();
+        return Pack.contains(dir.getParentFile(), Pack.kind(dir.getName()),
+                file.getName());
+    }
+
+    /** returns the ids of all objects stored in DIR, loose or packed,
+     *  in lexicographic order.
+     *  @param dir */
+    static List<String> list(File dir) {
+        TreeSet<String> ids = new TreeSet<>();
+        List<String> names = Utils.plainFilenamesIn(dir);
+        for (String name : names == null ? List.<String>of() : names) {
+            if (!name.endsWith(TEMP)) {
+                ids.add(name);
+            }
+        }
+        byte kind = Pack.kind(dir.getName());
+        Pack.refresh(dir.getParentFile());
+        for (Pack pack : Pack.packs(dir.getParentFile())) {
+            ids.addAll(pack.ids(kind));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /** returns a stream over the inflated contents of FILE. files not
+     *  starting with a zlib header (legacy objects, staged blobs) are
+     *  passed through untouched, and objects
+     *  that are not loose are looked up in the repository's packs.
+     *  @param file */
+    static InputStream open(File file) throws IOException {
+        if (!file.isFile()) {
+            File dir = file.getParentFile();
+            byte[] packed = Pack.find(dir.getParentFile(),
+                    Pack.kind(dir.getName()), file.getName());
+            if (packed == null) {
+                throw new FileNotFoundException(file.getPath());
+            }
+            return new ByteArrayInputStream(packed);
+        }
+        BufferedInputStream in =
+            new BufferedInputStream(new FileInputStream(file), BUFFER);
+        in.mark(2);
+        int b0 = in.read(), b1 = in.read();
+        in.reset();
+        if ((b0 & ZLIB_METHOD_MASK) != ZLIB_DEFLATE
+                || ((b0 << 8) | b1) % ZLIB_CHECK != 0) {
+            return in;
+        }
+        return new InflaterInputStream(in);
+    }
+
+    /** returns the inflated contents of FILE.
+     *  @param file */
+    static byte[] readContents(File file) {
+        try (InputStream in = open(file)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns object of type T read from FILE, decoding straight off
+     *  the inflating stream. commits and blobs in the binary format are
+     *  decoded by their classes; anything else, including objects from
+     *  before that format, goes through java serialization. objects
+     *  read back remember their id (FILE's name) instead of rehashing.
+     *  commits and blobs are kept in COMMITS and BLOBS, and read from
+     *  there when asked for again.
+     *  @param file
+     *  @param expectedClass */
+    static <T extends Serializable> T readObject(File file,
+                                                 Class<T> expectedClass) {
+        ObjectCache<Object> cache = cache(file);
+        Object cached = cache == null ? null : cache.get(file.getPath());
+        if (cached != null) {
+            try {
+                return expectedClass.cast(cached);
+            } catch (ClassCastException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        T result = decode(file, expectedClass);
+        if (cache != null) {
+            cache.put(file.getPath(), result);
+        }
+        return result;
+    }
+
+    /** returns the cache of the kind of object FILE names, or null if
+     *  that kind is not cached.
+     *  @param file */
+    private static ObjectCache<Object> cache(File file) {
+        switch (file.getParentFile().getName()) {
+        case COMMITS_DIR:
+            return COMMITS;
+        case BLOBS_DIR:
+            return BLOBS;
+        default:
+            return null;
+        }
+    }
+
+    /** returns the counters of the object caches, one per line. */
+    static String cacheStats() {
+        return COMMITS.stats() + "\n" + BLOBS.stats() + "\n"
+            + Tree.CACHE.stats();
+    }
+
+    /** returns object of type T decoded from FILE, as readObject does.
+     *  @param file
+     *  @param expectedClass */
+    private static <T extends Serializable> T decode(File file,
+                                                     Class<T> expectedClass) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(open(file), BUFFER))) {
+            in.mark(4);
+            int magic = in.readInt();
+            in.reset();
+            Object result;
+            if (magic == Codec.COMMIT_MAGIC) {
+                result = Commit.decode(in, file.getParentFile());
+            } else if (magic == Codec.BLOB_MAGIC) {
+                result = Blob.decode(in);
+            } else if (magic == Codec.CHUNKED_MAGIC) {
+                result = Blob.decodeChunked(in, file.getParentFile());
+            } else {
+                result = new ObjectInputStream(in).readObject();
+            }
+            if (result instanceof Commit) {
+                ((Commit) result).stored(file);
+            } else if (result instanceof Blob) {
+                ((Blob) result).setID(file.getName());
+            }
+            return expectedClass.cast(result);
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns a buffered deflating stream writing to FILE.
+     *  @param file */
+    static OutputStream deflating(File file) throws IOException {
+        return deflating(file, BUFFER);
+    }
+
+    /** returns a deflating stream writing to FILE through buffers of
+     *  SIZE bytes, eg. smaller ones for small objects.
+     *  @param file
+     *  @param size */
+    static OutputStream deflating(File file, int size) throws IOException {
+        return new DeflaterOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()), size),
+                new Deflater(Deflater.DEFAULT_COMPRESSION), size) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        };
+    }
+
+    /** atomically moves TEMP into place as FILE.
+     *  @param temp
+     *  @param file */
+    static void install(File temp, File file) {
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** a zlib header's low four bits name deflate, and its first two
+     *  bytes are a multiple of 31. */
+    private static final int ZLIB_METHOD_MASK = 0xf, ZLIB_DEFLATE = 8,
+        ZLIB_CHECK = 31;
+
+    /** names of the directories of commits and of blobs. */
+    static final String COMMITS_DIR = "commits", BLOBS_DIR = "blobs";
+
+    /** most commits kept in COMMITS. */
+    static final int COMMIT_BUDGET = 1 << 12;
+
+    /** most bytes of blob contents kept in BLOBS. */
+    static final long BLOB_BUDGET = 1L << 25;
+
+    /** recently read commits, each weighing 1. */
+    private static final ObjectCache<Object> COMMITS =
+        new ObjectCache<>("commits", COMMIT_BUDGET, obj -> 1);
+
+    /** recently read blobs, weighed by the length of their contents. */
+    private static final ObjectCache<Object> BLOBS =
+        new ObjectCache<>("blobs", BLOB_BUDGET,
+            obj -> ((Blob) obj).getContents().length);
+
+    /** suffix of partially written objects. */
+    private static final String TEMP = ".tmp";
+
+    /** stream buffer size. */
+    private static final int BUFFER = 1 << 16;
+
+    /** size of the smallest buffers used writing an object. */
+    private static final int MIN_BUFFER = 512;
+}
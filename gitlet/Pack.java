@@ -0,0 +1,377 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** A pack of objects written by repack: a .pack file holding deflated
+ *  objects (whole, or as deltas against an earlier entry of the same
+ *  pack) and a sorted .idx file of fixed-width (id, kind, offset)
+ *  entries which is memory-mapped and binary searched.
+ *  @author David Babazadeh
+ */
+class Pack {
+
+    /** returns the packs of repository directory GITLET, opening and
+     *  mapping their indexes the first time they are asked for.
+     *  @param gitlet */
+    static synchronized List<Pack> packs(File gitlet) {
+        String key = gitlet.getAbsolutePath();
+        List<Pack> result = OPEN.get(key);
+        if (result == null) {
+            result = open(gitlet, names(gitlet), List.of());
+            OPEN.put(key, result);
+        }
+        return result;
+    }
+
+    /** re-lists the packs of GITLET if the pack directory no longer
+     *  holds just those opened, eg. after another process pushed or
+     *  repacked into it, returning true if they changed. packs still
+     *  there stay open; those gone are dropped but not closed, as other
+     *  threads may still be reading them. called on a miss, so a long
+     *  running process sees packs written since it first looked.
+     *  @param gitlet */
+    static synchronized boolean refresh(File gitlet) {
+        String key = gitlet.getAbsolutePath();
+        List<Pack> old = OPEN.get(key);
+        if (old == null) {
+            return false;
+        }
+        List<String> names = names(gitlet);
+        ArrayList<String> opened = new ArrayList<>();
+        for (Pack pack : old) {
+            opened.add(pack._indexFile.getName());
+        }
+        if (names.equals(opened)) {
+            return false;
+        }
+        OPEN.put(key, open(gitlet, names, old));
+        return true;
+    }
+
+    /** returns the sorted names of the pack indexes of GITLET.
+     *  @param gitlet */
+    private static List<String> names(File gitlet) {
+        ArrayList<String> result = new ArrayList<>();
+        String[] names = new File(gitlet, DIR).list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.endsWith(IDX)) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** returns the packs of GITLET with index files NAMES, taking those
+     *  already open from OPENED.
+     *  @param gitlet
+     *  @param names
+     *  @param opened */
+    private static List<Pack> open(File gitlet, List<String> names,
+                                   List<Pack> opened) {
+        HashMap<String, Pack> reuse = new HashMap<>();
+        for (Pack pack : opened) {
+            reuse.put(pack._indexFile.getName(), pack);
+        }
+        ArrayList<Pack> result = new ArrayList<>();
+        for (String name : names) {
+            Pack pack = reuse.get(name);
+            if (pack == null) {
+                String base = name.substring(0, name.length() - IDX.length());
+                pack = new Pack(Utils.join(gitlet, DIR, name),
+                        Utils.join(gitlet, DIR, base + PACK));
+            }
+            result.add(pack);
+        }
+        return result;
+    }
+
+    /** forgets the opened packs of GITLET, eg. after a repack.
+     *  @param gitlet */
+    static synchronized void invalidate(File gitlet) {
+        List<Pack> old = OPEN.remove(gitlet.getAbsolutePath());
+        if (old != null) {
+            for (Pack pack : old) {
+                pack.close();
+            }
+        }
+    }
+
+    /** returns the kind code of objects stored in the directory named
+     *  DIRNAME (eg. "blobs").
+     *  @param dirname */
+    static byte kind(String dirname) {
+        int k = KINDS.indexOf(dirname);
+        if (k < 0) {
+            throw Utils.error("no objects are stored in %s", dirname);
+        }
+        return (byte) (k + 1);
+    }
+
+    /** returns the contents of object ID of KIND in any pack of GITLET,
+     *  or null if no pack holds it, even once the packs are re-listed.
+     *  @param gitlet
+     *  @param kind
+     *  @param id */
+    static byte[] find(File gitlet, byte kind, String id) {
+        do {
+            for (Pack pack : packs(gitlet)) {
+                long offset = pack.offset(kind, id);
+                if (offset >= 0) {
+                    return pack.read(offset);
+                }
+            }
+        } while (refresh(gitlet));
+        return null;
+    }
+
+    /** returns true if any pack of GITLET holds object ID of KIND, the
+     *  packs being re-listed before answering no.
+     *  @param gitlet
+     *  @param kind
+     *  @param id */
+    static boolean contains(File gitlet, byte kind, String id) {
+        do {
+            for (Pack pack : packs(gitlet)) {
+                if (pack.offset(kind, id) >= 0) {
+                    return true;
+                }
+            }
+        } while (refresh(gitlet));
+        return false;
+    }
+
+    /** maps index file IDX of pack file DATA.
+     *  @param idx
+     *  @param data */
+    private Pack(File idx, File data) {
+        try (FileChannel ch = FileChannel.open(idx.toPath(),
+                StandardOpenOption.READ)) {
+            _index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_index.getInt(0) != IDX_MAGIC || _index.getInt(4) != VERSION) {
+            throw Utils.error("unrecognized pack index %s", idx);
+        }
+        _count = _index.getInt(IDX_COUNT);
+        _indexFile = idx;
+        _data = data;
+    }
+
+    /** returns the number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** returns the offset in the pack of object ID of KIND, or -1.
+     *  @param kind
+     *  @param id */
+    long offset(byte kind, String id) {
+        if (_count == 0 || !isID(id)) {
+            return -1;
+        }
+        byte[] key = Codec.raw(id);
+        int lo = 0, hi = _count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key, kind);
+            if (cmp == 0) {
+                return _index.getLong(entry(mid) + ID_BYTES + 1);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** returns the ids of all objects of KIND in this pack, in order.
+     *  @param kind */
+    List<String> ids(byte kind) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int i = 0; i < _count; i += 1) {
+            if (_index.get(entry(i) + ID_BYTES) == kind) {
+                result.add(id(i));
+            }
+        }
+        return result;
+    }
+
+    /** returns the id of the Ith object in the index.
+     *  @param i */
+    String id(int i) {
+        byte[] raw = new byte[ID_BYTES];
+        _index.get(entry(i), raw);
+        return Codec.hex(raw);
+    }
+
+    /** returns the contents of the object stored at OFFSET, resolving
+     *  any chain of deltas.
+     *  @param offset */
+    synchronized byte[] read(long offset) {
+        try {
+            if (_file == null) {
+                _file = new RandomAccessFile(_data, "r");
+            }
+            _file.seek(offset);
+            byte type = _file.readByte();
+            int length = _file.readInt();
+            byte[] compressed = new byte[_file.readInt()];
+            long base = type == DELTA ? _file.readLong() : -1;
+            _file.readFully(compressed);
+            byte[] payload = inflate(compressed, length);
+            if (type == DELTA) {
+                return Delta.apply(read(base), payload);
+            }
+            return payload;
+        } catch (IOException | DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** closes the pack file. */
+    synchronized void close() {
+        try {
+            if (_file != null) {
+                _file.close();
+                _file = null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns the pack file. */
+    File data() {
+        return _data;
+    }
+
+    /** closes and deletes the pack and its index. */
+    void delete() {
+        close();
+        _data.delete();
+        _indexFile.delete();
+    }
+
+    /** returns LENGTH bytes inflated from COMPRESSED.
+     *  @param compressed
+     *  @param length */
+    private static byte[] inflate(byte[] compressed, int length)
+        throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] result = new byte[length];
+        int n = 0;
+        while (n < length && !inflater.finished()) {
+            n += inflater.inflate(result, n, length - n);
+        }
+        inflater.end();
+        return result;
+    }
+
+    /** returns true if ID has the form of a full object id, 40
+     *  lowercase hexadecimal digits; checked by hand, as every lookup
+     *  checks it.
+     *  @param id */
+    private static boolean isID(String id) {
+        if (id.length() != 2 * ID_BYTES) {
+            return false;
+        }
+        for (int k = 0; k < id.length(); k += 1) {
+            char c = id.charAt(k);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** compares the Ith index entry to (KEY, KIND).
+     *  @param i
+     *  @param key
+     *  @param kind */
+    private int compare(int i, byte[] key, byte kind) {
+        int pos = entry(i);
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = Integer.compare(_index.get(pos + k) & BYTE_MASK,
+                    key[k] & BYTE_MASK);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Byte.compare(_index.get(pos + ID_BYTES), kind);
+    }
+
+    /** returns position of the Ith entry of the index.
+     *  @param i */
+    private static int entry(int i) {
+        return IDX_HEADER + i * IDX_ENTRY;
+    }
+
+    /** the mapped index. */
+    private final MappedByteBuffer _index;
+
+    /** number of objects in the pack. */
+    private final int _count;
+
+    /** the index file. */
+    private final File _indexFile;
+
+    /** the pack file. */
+    private final File _data;
+
+    /** open handle to the pack file, if read from yet. */
+    private RandomAccessFile _file;
+
+    /** opened packs by repository directory. */
+    private static final HashMap<String, List<Pack>> OPEN = new HashMap<>();
+
+    /** directories whose objects may be packed, in kind order. */
+    private static final List<String> KINDS = List.of("blobs", "commits",
+        Tree.DIR);
+
+    /** name of pack directory within .gitlet. */
+    static final String DIR = "pack";
+
+    /** suffixes of pack and index files. */
+    static final String PACK = ".pack", IDX = ".idx";
+
+    /** magic numbers heading pack and index files ("GLPK", "GLIX"). */
+    static final int PACK_MAGIC = 0x474c504b, IDX_MAGIC = 0x474c4958;
+
+    /** format version of pack and index files. */
+    static final int VERSION = 1;
+
+    /** entry types. */
+    static final byte WHOLE = 1, DELTA = 2;
+
+    /** length of a raw sha1 id. */
+    static final int ID_BYTES = Codec.ID_BYTES;
+
+    /** position of the object count in the index. */
+    static final int IDX_COUNT = 8;
+
+    /** length of the index header. */
+    static final int IDX_HEADER = 12;
+
+    /** length of an index entry: id, kind, offset. */
+    static final int IDX_ENTRY = ID_BYTES + 1 + 8;
+
+    /** masks a byte to its unsigned value. */
+    private static final int BYTE_MASK = 0xff;
+}
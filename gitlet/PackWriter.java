@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/** Writes a new pack (see Pack) into a pack directory. objects are
+ *  appended one at a time, optionally as deltas against an object
+ *  already in the pack; finish() writes the sorted index and moves
+ *  both files into place.
+ *  @author David Babazadeh
+ */
+class PackWriter {
+
+    /** starts a pack in DIR.
+     *  @param dir */
+    PackWriter(File dir) {
+        _dir = dir;
+        _dir.mkdirs();
+        _temp = new File(dir, "pack" + TEMP);
+        try {
+            _out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(_temp.toPath()), BUFFER));
+            _out.writeInt(Pack.PACK_MAGIC);
+            _out.writeInt(Pack.VERSION);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _offset = HEADER;
+    }
+
+    /** returns true if object ID of KIND was added.
+     *  @param kind
+     *  @param id */
+    boolean contains(byte kind, String id) {
+        return _entries.containsKey(id + kind);
+    }
+
+    /** adds object ID of KIND with CONTENTS whole.
+     *  @param kind
+     *  @param id
+     *  @param contents */
+    void add(byte kind, String id, byte[] contents) {
+        add(kind, id, contents, null, null);
+    }
+
+    /** adds object ID of KIND with CONTENTS, as a delta against BASEID
+     *  (whose contents are BASE) when that object is in the pack, its
+     *  delta chain is not too long, and the delta is smaller.
+     *  @param kind
+     *  @param id
+     *  @param contents
+     *  @param baseID
+     *  @param base */
+    void add(byte kind, String id, byte[] contents,
+             String baseID, byte[] base) {
+        if (contains(kind, id)) {
+            return;
+        }
+        Long baseOffset = baseID == null ? null
+                : _entries.get(baseID + kind);
+        int depth = 0;
+        byte[] payload = contents;
+        byte type = Pack.WHOLE;
+        if (baseOffset != null && _depth.get(baseOffset) < MAX_DEPTH) {
+            byte[] delta = Delta.create(base, contents);
+            if (delta.length < contents.length / 2) {
+                payload = delta;
+                type = Pack.DELTA;
+                depth = _depth.get(baseOffset) + 1;
+                _deltas += 1;
+            }
+        }
+        byte[] compressed = deflate(payload);
+        try {
+            _out.writeByte(type);
+            _out.writeInt(payload.length);
+            _out.writeInt(compressed.length);
+            if (type == Pack.DELTA) {
+                _out.writeLong(baseOffset);
+            }
+            _out.write(compressed);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _entries.put(id + kind, _offset);
+        _depth.put(_offset, depth);
+        _offset += 1 + 4 + 4 + (type == Pack.DELTA ? 8 : 0)
+                + compressed.length;
+    }
+
+    /** returns number of objects added. */
+    int size() {
+        return _entries.size();
+    }
+
+    /** returns number of objects stored as deltas. */
+    int deltas() {
+        return _deltas;
+    }
+
+    /** writes the index and installs the pack, named after its
+     *  contents. returns the installed pack file. */
+    File finish() {
+        List<Object> names = new ArrayList<>(_entries.keySet());
+        String name = "pack-" + Utils.sha1(names);
+        File pack = new File(_dir, name + Pack.PACK);
+        File idx = new File(_dir, name + Pack.IDX);
+        File tempIdx = new File(_dir, "idx" + TEMP);
+        _deflater.end();
+        try {
+            _out.close();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Files.newOutputStream(tempIdx.toPath()), BUFFER));
+            out.writeInt(Pack.IDX_MAGIC);
+            out.writeInt(Pack.VERSION);
+            out.writeInt(_entries.size());
+            for (String key : _entries.keySet()) {
+                out.write(Codec.raw(key));
+                out.writeByte(key.charAt(GLet.HASH_LEN) - '0');
+                out.writeLong(_entries.get(key));
+            }
+            out.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectStore.install(_temp, pack);
+        ObjectStore.install(tempIdx, idx);
+        return pack;
+    }
+
+    /** returns CONTENTS deflated.
+     *  @param contents */
+    private byte[] deflate(byte[] contents) {
+        _deflater.reset();
+        _deflater.setInput(contents);
+        _deflater.finish();
+        byte[] buf = new byte[contents.length + SLACK];
+        int n = 0;
+        while (!_deflater.finished()) {
+            if (n == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+            }
+            n += _deflater.deflate(buf, n, buf.length - n);
+        }
+        return Arrays.copyOf(buf, n);
+    }
+
+    /** pack directory. */
+    private final File _dir;
+
+    /** pack being written. */
+    private final File _temp;
+
+    /** stream to _temp. */
+    private final DataOutputStream _out;
+
+    /** offset of next entry. */
+    private long _offset;
+
+    /** offsets of added objects, keyed by id followed by kind, which
+     *  is also the index order. */
+    private final TreeMap<String, Long> _entries = new TreeMap<>();
+
+    /** delta chain length by entry offset. */
+    private final HashMap<Long, Integer> _depth = new HashMap<>();
+
+    /** number of delta entries. */
+    private int _deltas;
+
+    /** compressor reused for every entry. */
+    private final Deflater _deflater = new Deflater();
+
+    /** longest chain of deltas a read may have to resolve. */
+    private static final int MAX_DEPTH = 50;
+
+    /** length of pack header. */
+    private static final int HEADER = 8;
+
+    /** room beyond input length for deflate output. */
+    private static final int SLACK = 64;
+
+    /** suffix of files being written. */
+    private static final String TEMP = ".tmp";
+
+    /** stream buffer size. */
+    private static final int BUFFER = 1 << 16;
+}
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+/** The remote a partial clone fetches its missing blobs from. a clone
+ *  made with --filter=blob:none copies commits and trees only, and
+ *  names its remote in the remote.promisor setting: the remote promises
+ *  to hold every blob the copied history refers to. blobs are then
+ *  fetched from it when first read: one at a time by checkoutFile, and
+ *  all of a checkout's at once, in parallel batches, before it writes
+ *  (see Transfer.copyBlobs).
+ *  @author David Babazadeh
+ */
+class Promisor {
+
+    /** fetches blob ID into repository directory GITLET from its
+     *  promisor remote, if GITLET lacks it and has one.
+     *  @param gitlet
+     *  @param id */
+    static void fetch(File gitlet, String id) {
+        if (!ObjectStore.exists(new File(new File(gitlet, BLOBS), id))) {
+            fetch(gitlet, List.of(id));
+        }
+    }
+
+    /** fetches those of blobs IDS that repository directory GITLET lacks
+     *  from its promisor remote, if it has one.
+     *  @param gitlet
+     *  @param ids */
+    static void fetch(File gitlet, Collection<String> ids) {
+        String name = new Config(new File(gitlet, "config")).promisor();
+        if (name != null && !ids.isEmpty()) {
+            new Transfer(remote(gitlet, name), gitlet).copyBlobs(ids);
+        }
+    }
+
+    /** returns the .gitlet directory of remote NAME of repository
+     *  directory GITLET, erroring if there is no such remote or it does
+     *  not exist.
+     *  @param gitlet
+     *  @param name */
+    static File remote(File gitlet, String name) {
+        File saved = new File(new File(gitlet, "remotes"), name);
+        if (!saved.isFile()) {
+            GLet.error("A remote with that name does not exist.");
+        }
+        File remote = resolve(gitlet, Utils.readContentsAsString(saved));
+        if (!remote.isDirectory()) {
+            GLet.error("Remote directory not found.");
+        }
+        return remote;
+    }
+
+    /** returns DIRECTORY ('/'-separated), taken from the working
+     *  directory of repository directory GITLET unless absolute.
+     *  @param gitlet
+     *  @param directory */
+    static File resolve(File gitlet, String directory) {
+        File result = new File(directory.replace("/", File.separator));
+        if (!result.isAbsolute()) {
+            result = new File(gitlet.getAbsoluteFile().getParentFile(),
+                    result.getPath());
+        }
+        return result.toPath().normalize().toFile();
+    }
+
+    /** name of the blob directory. */
+    private static final String BLOBS = "blobs";
+}
@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Finds which deleted files were renamed to which added files. files
+ *  with the same blob are paired first. the rest are compared by their
+ *  Sketches, which are cached by blob id, so blobs are read at most once
+ *  ever: candidate pairs are only those whose sketches agree in all
+ *  places of at least one band of BAND places, found by indexing the
+ *  added files' bands in a hash table (locality-sensitive hashing), so
+ *  the work grows with the number of similar pairs rather than with
+ *  deleted times added. pairs estimated to share at least THRESHOLD of
+ *  their lines are then taken most similar first, each file at most
+ *  once, preferring files with the same name on ties.
+ *  @author David Babazadeh
+ */
+class Renames {
+
+    /** returns the renames, deleted path to added path, among DELETED
+     *  and ADDED, which map paths to blob ids, in repository directory
+     *  GITLET.
+     *  @param gitlet
+     *  @param deleted
+     *  @param added */
+    static TreeMap<String, String> find(File gitlet,
+                                        Map<String, String> deleted,
+                                        Map<String, String> added) {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return result;
+        }
+        HashMap<String, List<String>> byBlob = new HashMap<>();
+        for (Map.Entry<String, String> e : added.entrySet()) {
+            byBlob.computeIfAbsent(e.getValue(), k -> new ArrayList<>())
+                .add(e.getKey());
+        }
+        ArrayList<String> from = new ArrayList<>();
+        for (Map.Entry<String, String> e : deleted.entrySet()) {
+            List<String> same = byBlob.get(e.getValue());
+            if (same == null || same.isEmpty()) {
+                from.add(e.getKey());
+                continue;
+            }
+            int best = 0;
+            for (int i = 0; i < same.size(); i += 1) {
+                if (name(same.get(i)).equals(name(e.getKey()))) {
+                    best = i;
+                    break;
+                }
+            }
+            result.put(e.getKey(), same.remove(best));
+        }
+        ArrayList<String> to = new ArrayList<>();
+        for (List<String> paths : byBlob.values()) {
+            to.addAll(paths);
+        }
+        if (!from.isEmpty() && !to.isEmpty()) {
+            ArrayList<String> blobs = new ArrayList<>();
+            for (String path : from) {
+                blobs.add(deleted.get(path));
+            }
+            for (String path : to) {
+                blobs.add(added.get(path));
+            }
+            Promisor.fetch(gitlet, blobs);
+            Sketches sketches = Sketches.of(gitlet);
+            similar(sketches, from, deleted, to, added, result);
+            sketches.write();
+        }
+        return result;
+    }
+
+    /** adds to RESULT the renames from paths FROM to paths TO whose blobs
+     *  (their ids mapped by DELETED and ADDED) are similar by SKETCHES.
+     *  @param sketches
+     *  @param from
+     *  @param deleted
+     *  @param to
+     *  @param added
+     *  @param result */
+    private static void similar(Sketches sketches, List<String> from,
+                                Map<String, String> deleted,
+                                List<String> to, Map<String, String> added,
+                                Map<String, String> result) {
+        int[][] targets = new int[to.size()][];
+        HashMap<Long, List<Integer>> bands = new HashMap<>();
+        for (int t = 0; t < to.size(); t += 1) {
+            targets[t] = sketches.get(added.get(to.get(t)));
+            if (Sketches.isEmpty(targets[t])) {
+                continue;
+            }
+            for (int b = 0; b < BANDS; b += 1) {
+                bands.computeIfAbsent(band(targets[t], b),
+                    k -> new ArrayList<>()).add(t);
+            }
+        }
+        ArrayList<double[]> pairs = new ArrayList<>();
+        BitSet seen = new BitSet();
+        for (int f = 0; f < from.size(); f += 1) {
+            int[] sketch = sketches.get(deleted.get(from.get(f)));
+            if (Sketches.isEmpty(sketch)) {
+                continue;
+            }
+            seen.clear();
+            for (int b = 0; b < BANDS; b += 1) {
+                for (int t : bands.getOrDefault(band(sketch, b),
+                                                List.of())) {
+                    if (seen.get(t)) {
+                        continue;
+                    }
+                    seen.set(t);
+                    double score = Sketches.similarity(sketch, targets[t]);
+                    if (score >= THRESHOLD) {
+                        boolean sameName = name(from.get(f))
+                            .equals(name(to.get(t)));
+                        pairs.add(new double[] {score, sameName ? 1 : 0,
+                                                f, t});
+                    }
+                }
+            }
+        }
+        pairs.sort((x, y) -> x[0] != y[0] ? Double.compare(y[0], x[0])
+                   : x[1] != y[1] ? Double.compare(y[1], x[1])
+                   : x[2] != y[2] ? Double.compare(x[2], y[2])
+                   : Double.compare(x[3], y[3]));
+        BitSet usedFrom = new BitSet(), usedTo = new BitSet();
+        for (double[] pair : pairs) {
+            int f = (int) pair[2], t = (int) pair[3];
+            if (!usedFrom.get(f) && !usedTo.get(t)) {
+                usedFrom.set(f);
+                usedTo.set(t);
+                result.put(from.get(f), to.get(t));
+            }
+        }
+    }
+
+    /** returns the key of band B of SKETCH: its number and the hash of
+     *  its places.
+     *  @param sketch
+     *  @param b */
+    private static long band(int[] sketch, int b) {
+        long h = b;
+        for (int i = b * BAND; i < (b + 1) * BAND; i += 1) {
+            h = h * BAND_PRIME + sketch[i];
+        }
+        return h;
+    }
+
+    /** returns the last component of PATH.
+     *  @param path */
+    private static String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /** least estimated fraction of shared lines of a rename. */
+    static final double THRESHOLD = 0.5;
+
+    /** places of a sketch per band. with 2, pairs sharing half their
+     *  lines are candidates but for a chance of (3/4)^32. */
+    private static final int BAND = 2;
+
+    /** number of bands. */
+    private static final int BANDS = Sketches.SIZE / BAND;
+
+    /** multiplier combining the places of a band. */
+    private static final long BAND_PRIME = 1_000_003L;
+}
@@ -1,13 +1,38 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Objects;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeSet;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /** Creates Version-System tree to track commits.
  *  @author David Babazadeh
@@ -39,24 +64,39 @@ class Repo {
     /** directory to store blobs information. */
     private final File _blobs;
 
+    /** directory to store trees, one per directory of a commit. */
+    private final File _trees;
+
+    /** directory to store packed objects. */
+    private final File _pack;
+
     /** directory to store remote references. */
     private final File _remotes;
 
+    /** repository settings, read when first needed. */
+    private Config _config;
+
     /** file to store default branch reference. */
     private final File _master;
 
     /** file to store current branch. */
     private final File _head;
 
-    /** directory to store staging information. */
+    /** directory which held staging information before the index. */
     private final File _stage;
 
-    /** directory to store added blobs. */
+    /** directory which held added blobs before the index. */
     private final File _add;
 
-    /** directory to store removed blobs. */
+    /** directory which held removed blobs before the index. */
     private final File _rm;
 
+    /** the staging area, read when first needed. */
+    private StagingIndex _index;
+
+    /** the files of the working directory, listed when first needed. */
+    private WorkTree _workTree;
+
     /** Creates a new Gitlet version-control system in the current directory.
      * begins with an initial commit containing no files and the commit message
      * "initial commit" . It will have a single branch: master, initially
@@ -78,38 +118,42 @@ class Repo {
 
         _gitlet.mkdir();
         Commit root = new Commit("initial commit");
-        File location = new File(_commits, Utils.sha1(Utils.serialize(root))
-                .toString());
+        File location = root.getLocation(_commits);
 
         try {
             _commits.mkdir();
             _branches.mkdir();
             _blobs.mkdir();
+            _trees.mkdir();
+            _pack.mkdir();
             _remotes.mkdir();
-            _stage.mkdir();
-            _add.mkdir();
-            _rm.mkdir();
             _master.createNewFile();
             _head.createNewFile();
-            location.createNewFile();
         } catch (IOException e) {
             e.printStackTrace();
         }
 
         Utils.writeContents(_head, _master.getName());
         Utils.writeContents(_master, location.toString());
-        Utils.writeObject(location, root);
+        root.saveCommit(location);
+        CommitGraph.of(_gitlet).add(root);
+        Metadata.of(_gitlet).add(root);
     }
 
     /**
-     * Adds a series of files. calls add(String filename) on files indicated by
-     * each string given (see below).
+     * Adds a series of files, and every file below each directory given
+     * (see below). the head commit is read once, files are hashed and
+     * stored in parallel, and the staging area is updated and written
+     * once at the end.
      * @param filenames String Array of files to be staged
      */
     public void add(String[] filenames) {
+        TreeMap<String, StagingIndex.Stat> files = new TreeMap<>();
         for (String filename : filenames) {
-            add(filename);
+            collect(filename, files);
         }
+        stage(files);
+        index().write();
     }
 
     /**
@@ -126,27 +170,75 @@ class Repo {
      * @param filename file to be staged
      */
     public void add(String filename) {
-        File actor = new File(_add, filename);
+        TreeMap<String, StagingIndex.Stat> files = new TreeMap<>();
+        collect(filename, files);
+        stage(files);
+    }
+
+    /** adds working file FILENAME, or every file below it if it is a
+     * directory, to FILES with its stat data. errors if there is no such
+     * file or directory. files in .gitlet are never added.
+     * @param filename
+     * @param files */
+    private void collect(String filename,
+                         Map<String, StagingIndex.Stat> files) {
         File og = new File(_cwd, filename);
-        if (!og.exists()) {
+        filename = normalize(filename);
+        if (og.isDirectory()) {
+            String dir = filename.equals(".") ? "" : filename;
+            if (new File(dir).isAbsolute() || dir.startsWith("../")) {
+                GLet.error("File does not exist.");
+            }
+            for (Map.Entry<String, StagingIndex.Stat> file
+                     : workTree().files(dir)) {
+                if (file.getValue() != null && !file.getKey()
+                        .startsWith(WorkTree.GITLET + "/")) {
+                    files.put(file.getKey(), file.getValue());
+                }
+            }
+            return;
+        }
+        StagingIndex.Stat stat = StagingIndex.Stat.of(og);
+        if (stat == null) {
             GLet.error("File does not exist.");
             return;
         }
-        Blob blob = new Blob(og);
-        (new File(_rm, filename)).delete();
-
-        try {
-            Commit current = getHeadCommit();
+        files.put(filename, stat);
+    }
 
-            if (current.containsKey(filename)
-                    && current.blobs(filename).equals(GLet.sha1Obj(blob))) {
-                actor.delete();
-                return;
+    /** stages the working files FILES, which have the given stat data.
+     * files are hashed, and stored unless already stored, in parallel;
+     * the staging area is then updated in one pass. files the same as
+     * in the head commit are unstaged instead.
+     * @param files */
+    private void stage(SortedMap<String, StagingIndex.Stat> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        StagingIndex index = index();
+        Commit current = getHeadCommit();
+        Map<String, String> head = files.size() > 1 ? current.files() : null;
+        config();
+        ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<>();
+        files.entrySet().parallelStream().forEach(file -> {
+            String filename = file.getKey();
+            String id = index.cachedID(filename, file.getValue());
+            if (id == null || !ObjectStore.exists(new File(_blobs, id))) {
+                id = storeBlob(new File(_cwd, filename));
+            }
+            ids.put(filename, id);
+        });
+        for (Map.Entry<String, StagingIndex.Stat> file : files.entrySet()) {
+            String filename = file.getKey();
+            String id = ids.get(filename);
+            String tracked = head != null ? head.get(filename)
+                : current.blobs(filename);
+            index.unstage(filename);
+            if (id.equals(tracked)) {
+                index.cache(filename, id, file.getValue());
+            } else {
+                index.add(filename, id, file.getValue());
             }
-            actor.createNewFile();
-            Utils.writeObject(actor, blob);
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
@@ -158,6 +250,7 @@ class Repo {
         for (String filename : filenames) {
             rm(filename);
         }
+        index().write();
     }
 
     /**
@@ -166,26 +259,20 @@ class Repo {
      * @param filename
      */
     public void rm(String filename) {
-        File actor = new File(_rm, filename);
-        File og = new File(_gitlet.getParent(), filename);
-        File addition = (new File(_add, filename));
+        filename = normalize(filename);
+        File og = new File(_cwd, filename);
         Commit head = getHeadCommit();
 
         if (!head.tracks(filename)) {
-            if (!addition.exists()) {
+            if (index().staged(filename) == null) {
                 GLet.error("No reason to remove the file.");
             }
-            addition.delete();
+            index().unstage(filename);
             return;
         }
 
-        addition.delete();
-        og.delete();
-        try {
-            actor.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        delete(og, _cwd);
+        index().remove(filename);
     }
 
     /** commit without second (merged) parent.
@@ -212,70 +299,110 @@ class Repo {
                 headRef()).toString(), parent2Ref);
         boolean error = true;
 
-        for (String filename : Utils.plainFilenamesIn(_rm)) {
-            File staged = new File(_rm, filename);
+        for (String filename : index().removed()) {
             error = false;
             next.removeblob(filename);
-            staged.delete();
         }
-        for (String filename : Utils.plainFilenamesIn(_add)) {
-            File staged = new File(_add, filename);
-            next.updateBlob(staged, _gitlet);
+        for (String filename : index().added()) {
+            next.updateBlob(filename, index().staged(filename));
             error = false;
-            staged.delete();
         }
 
         if (error) {
             GLet.error("No changes added to the commit.");
         }
 
-        File location = new File(_commits, GLet.sha1Obj(next));
+        File location = next.getLocation(_commits);
         next.saveCommit(location);
+        CommitGraph.of(_gitlet).add(next);
+        Metadata.of(_gitlet).add(next);
+        index().clear();
+        index().write();
         Utils.writeContents(headRef(), location.toString());
     }
 
-    /** recursively displays commit history from head to
-     * initial commit (backwards). */
-    public void logHeadPath() {
-        getHeadCommit().logHistory();
+    /** displays commit info from head to initial commit (backwards),
+     * following first parents, skipping the first SKIP commits and
+     * showing at most LIMIT, one line each if ONELINE. commits are read
+     * one at a time and not beyond the last shown; skipped commits are
+     * passed over in the commit graph without being read.
+     * @param skip
+     * @param limit
+     * @param oneline */
+    public void logHeadPath(int skip, int limit, boolean oneline) {
+        Commit commit = getHeadCommit();
+        CommitGraph graph = CommitGraph.of(_gitlet);
+        int row = skip > 0 ? graph.index(commit.id()) : -1;
+        if (row >= 0) {
+            for (; skip > 0 && row >= 0; skip -= 1) {
+                row = graph.parent1(row);
+            }
+            commit = row < 0 ? null : ObjectStore.readObject(
+                    new File(_commits, graph.id(row)), Commit.class);
+        }
+        Writer out = output();
+        try {
+            for (int shown = 0; commit != null && shown < limit;
+                 commit = commit.parent1()) {
+                if (skip > 0) {
+                    skip -= 1;
+                    continue;
+                }
+                commit.log(out, oneline);
+                shown += 1;
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /** handles global-log dispays commit info for all commits in repo
-     * by iterating through commits. */
-    public void logAll() {
-        for (String filename: Objects.requireNonNull(
-                Utils.plainFilenamesIn(_commits))) {
-            Utils.readObject(new File(_commits, filename), Commit.class).log();
+     * made from SINCE to UNTIL (in milliseconds, inclusive), in the order
+     * they were made, from the commit metadata.
+     * @param since
+     * @param until */
+    public void logAll(long since, long until) {
+        Writer out = output();
+        try {
+            for (Metadata.Entry e
+                     : Metadata.of(_gitlet).between(since, until)) {
+                e.log(out, false);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** returns a buffered writer to standard output, to be flushed once
+     * written. */
+    private static Writer output() {
+        return new BufferedWriter(new OutputStreamWriter(System.out,
+                Charset.defaultCharset()), OUTPUT_BUFFER);
+    }
+
     /** prints all commit id's that have the
-     * exact commit message (one per line).
+     * exact commit message (one per line), looked up in the commit
+     * metadata's index of message words.
      * @param msg*/
     public void find(String msg) {
-        boolean error = true;
-        for (String filename: Objects.requireNonNull(
-                Utils.plainFilenamesIn(_commits))) {
-            Commit candidate = Utils.readObject(new File(_commits, filename),
-                    Commit.class);
-            if (candidate.getMessage().equals(msg)) {
-                System.out.println(filename);
-                error = false;
-            }
-        }
-        if (error) {
+        TreeSet<String> ids = Metadata.of(_gitlet).find(msg);
+        if (ids.isEmpty()) {
             GLet.error("Found no commit with that message.");
         }
+        for (String id : ids) {
+            System.out.println(id);
+        }
     }
 
     /** displays existing branches (marking head with preceding *),
      * staged files, removed files, (modded | deleted) && unstaged files,
-     * and untracked files (ignoring subdirectories). lexicographic order. */
+     * and untracked files. lexicographic order. */
     public void status() {
         System.out.println("=== Branches ===");
         String headname = Utils.readContentsAsString(_head);
-        for (String branchname : Objects.requireNonNull(
-               Utils.plainFilenamesIn(_branches))) {
+        for (String branchname : branchNames()) {
             if (branchname.equals(headname)) {
                 System.out.print("*");
             }
@@ -283,33 +410,159 @@ class Repo {
         }
 
         System.out.println("\n=== Staged Files ===");
-        for (String filename : Objects.requireNonNull(
-                Utils.plainFilenamesIn(_add))) {
+        for (String filename : index().added()) {
             System.out.println(filename);
         }
 
         System.out.println("\n=== Removed Files ===");
-        for (String filename : Objects.requireNonNull(
-                Utils.plainFilenamesIn(_rm))) {
+        for (String filename : index().removed()) {
             System.out.println(filename);
         }
 
+        TreeMap<String, String> unstaged = new TreeMap<>();
+        TreeSet<String> untracked = new TreeSet<>();
+        scanWorkTree(unstaged, untracked);
         System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> entry : unstaged.entrySet()) {
+            System.out.println(entry.getKey() + " (" + entry.getValue() + ")");
+        }
         System.out.println("\n=== Untracked Files ===");
+        for (String filename : untracked) {
+            System.out.println(filename);
+        }
         System.out.println();
     }
 
+    /** compares the working directory with the head commit and the
+     * staging area, adding files whose changes are not staged to
+     * UNSTAGED (mapped to "modified" or "deleted") and adding files
+     * neither tracked nor staged to the set UNTRACKED. the working tree
+     * is listed and its files compared in parallel; only files whose
+     * stat data has changed since they were last hashed are hashed, and
+     * the index is updated with their new ids.
+     * @param unstaged
+     * @param untracked */
+    private void scanWorkTree(Map<String, String> unstaged,
+                              Set<String> untracked) {
+        StagingIndex index = index();
+        config();
+        Iterator<Map.Entry<String, StagingIndex.Stat>> files =
+            workTree().files().iterator();
+        Iterator<Map.Entry<String, String>> tracked =
+            getHeadCommit().files().entrySet().iterator();
+        Iterator<StagingIndex.Entry> entries =
+            index.entries().values().iterator();
+        Map.Entry<String, StagingIndex.Stat> file = next(files);
+        Map.Entry<String, String> head = next(tracked);
+        StagingIndex.Entry entry = next(entries);
+        ArrayList<Candidate> compare = new ArrayList<>();
+        while (file != null || head != null || entry != null) {
+            String path = min(file == null ? null : file.getKey(),
+                    head == null ? null : head.getKey(),
+                    entry == null ? null : entry.path);
+            boolean present = file != null && path.equals(file.getKey());
+            boolean inHead = head != null && path.equals(head.getKey());
+            boolean inIndex = entry != null && path.equals(entry.path);
+            String expected = inHead ? head.getValue() : null;
+            if (inIndex && entry.state == StagingIndex.ADDED) {
+                expected = entry.id;
+            } else if (inIndex && entry.state == StagingIndex.REMOVED) {
+                expected = null;
+            }
+            if (present && expected == null) {
+                untracked.add(path);
+            } else if (present) {
+                compare.add(new Candidate(path, expected,
+                        inIndex ? entry : null, file.getValue()));
+            } else if (expected != null) {
+                unstaged.put(path, DELETED);
+            }
+            file = present ? next(files) : file;
+            head = inHead ? next(tracked) : head;
+            entry = inIndex ? next(entries) : entry;
+        }
+        ConcurrentHashMap<String, Map.Entry<String, StagingIndex.Stat>>
+            hashed = new ConcurrentHashMap<>();
+        compare.parallelStream().forEach(candidate -> {
+            String path = candidate.path;
+            File working = new File(_cwd, path);
+            StagingIndex.Stat stat = candidate.stat;
+            String id = index.cachedID(candidate.entry, stat);
+            if (id == null) {
+                id = hashBlob(working);
+                if (stat != null) {
+                    hashed.put(path, Map.entry(id, stat));
+                }
+            }
+            if (!id.equals(candidate.expected)) {
+                synchronized (unstaged) {
+                    unstaged.put(path, MODIFIED);
+                }
+            }
+        });
+        for (Map.Entry<String, Map.Entry<String, StagingIndex.Stat>> e
+                 : hashed.entrySet()) {
+            index.cache(e.getKey(), e.getValue().getKey(),
+                    e.getValue().getValue());
+        }
+        index.write();
+    }
+
+    /** a working file which status must compare with the blob it is
+     * expected to have. */
+    private static final class Candidate {
+        /** working file PATH, expected to be blob EXPECTED, whose index
+         * entry is ENTRY (null if none) and whose stat data was STAT
+         * (null if it is not a regular file) when listed.
+         * @param path
+         * @param expected
+         * @param entry
+         * @param stat */
+        Candidate(String path, String expected, StagingIndex.Entry entry,
+                  StagingIndex.Stat stat) {
+            this.path = path;
+            this.expected = expected;
+            this.entry = entry;
+            this.stat = stat;
+        }
+
+        /** path of the working file. */
+        private final String path;
+
+        /** id of the blob it is expected to have. */
+        private final String expected;
+
+        /** its index entry, or null. */
+        private final StagingIndex.Entry entry;
+
+        /** its stat data when listed, or null. */
+        private final StagingIndex.Stat stat;
+    }
+
+    /** returns the next element of ITER, or null if there is none.
+     * @param iter */
+    private static <T> T next(Iterator<T> iter) {
+        return iter.hasNext() ? iter.next() : null;
+    }
+
+    /** returns the least of the non-null strings among KEYS.
+     * @param keys */
+    private static String min(String... keys) {
+        String result = null;
+        for (String key : keys) {
+            if (key != null && (result == null || key.compareTo(result) < 0)) {
+                result = key;
+            }
+        }
+        return result;
+    }
+
     /** handles reset. checks out commit then moves current branch head.
      * commitID can be abbreviated
      * @param commitID */
     public void checkoutCommit(String commitID) {
-        try {
-            commitID = GLet.expandHashID(commitID, _commits);
-        } catch (GitletException | IndexOutOfBoundsException e) {
-            GLet.error("No commit with that id exists.");
-        }
-
-        Commit source = Utils.readObject(new File(_commits, commitID),
+        commitID = expandCommitID(commitID);
+        Commit source = ObjectStore.readObject(new File(_commits, commitID),
                 Commit.class);
         checkoutCommit(source);
         clearStagingArea();
@@ -320,27 +573,143 @@ class Repo {
 
     /** copy/replaces the source's files, deleting
      * currently tracked files that are unpresent in th checked-out branch.
+     * only paths whose blobs differ between the head and SOURCE, paths
+     * staged and tracked files changed in the working directory are
+     * touched. every one of them, and every directory above those
+     * written, is checked for untracked or changed work, and the blobs
+     * to be written are fetched in a partial clone, before anything is
+     * deleted or written; files are then written on a bounded pool of
+     * threads.
      * @param source */
     public void checkoutCommit(Commit source) {
         Commit current = getHeadCommit();
-        for (String filename : source.filenames()) {
-            File work = new File(_cwd, filename);
-            if (work.exists()) {
-                Blob working = new Blob(work);
+        TreeSet<String> paths = new TreeSet<>(current.changedFiles(source));
+        paths.addAll(index().added());
+        paths.addAll(index().removed());
+        paths.addAll(changedTracked(current));
+        HashSet<String> checked = new HashSet<>();
+        for (String filename : paths) {
+            if (!source.containsKey(filename)) {
+                continue;
+            }
+            for (int slash = filename.indexOf('/'); slash >= 0;
+                 slash = filename.indexOf('/', slash + 1)) {
+                checked.add(filename.substring(0, slash));
+            }
+            checked.add(filename);
+        }
+        for (String filename : checked) {
+            if (workTree().exists(filename)) {
                 if (!current.containsKey(filename) || !current.blobs(filename)
-                        .equals(GLet.sha1Obj(working))) {
+                        .equals(blobID(filename))) {
                     GLet.error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
                 }
             }
         }
-        for (String filename : source.filenames()) {
-            checkoutFile(source, filename);
+        ArrayList<String> writes = new ArrayList<>();
+        HashSet<String> ids = new HashSet<>();
+        for (String filename : paths) {
+            if (source.containsKey(filename)) {
+                writes.add(filename);
+                ids.add(source.blobs(filename));
+            }
+        }
+        Promisor.fetch(_gitlet, ids);
+        for (String filename : paths) {
+            if (!source.containsKey(filename)
+                    && current.containsKey(filename)) {
+                delete(new File(_cwd, filename), _cwd);
+            }
+        }
+        writeFiles(source, writes);
+    }
+
+    /** returns the files tracked by COMMIT that are missing from, or
+     * differ in, the working directory. files are compared in parallel,
+     * hashing only those whose stat data has changed since they were
+     * last hashed; the new ids are cached in the index.
+     * @param commit */
+    private Set<String> changedTracked(Commit commit) {
+        StagingIndex index = index();
+        WorkTree work = workTree();
+        config();
+        ArrayList<Candidate> files = new ArrayList<>();
+        for (Map.Entry<String, String> file : commit.files().entrySet()) {
+            String filename = file.getKey();
+            files.add(new Candidate(filename, file.getValue(),
+                    index.entries().get(filename), null));
         }
-        for (String filename : current.filenames()) {
-            if (source.blobs(filename) == null) {
-                (new File(_cwd, filename)).delete();
+        Set<String> result = ConcurrentHashMap.newKeySet();
+        ConcurrentHashMap<String, Map.Entry<String, StagingIndex.Stat>>
+            hashed = new ConcurrentHashMap<>();
+        files.parallelStream().forEach(file -> {
+            StagingIndex.Stat stat = work.stat(file.path);
+            if (stat == null && !work.exists(file.path)) {
+                result.add(file.path);
+                return;
+            }
+            String id = index.cachedID(file.entry, stat);
+            if (id == null) {
+                id = hashBlob(new File(_cwd, file.path));
+                if (stat != null) {
+                    hashed.put(file.path, Map.entry(id, stat));
+                }
+            }
+            if (!id.equals(file.expected)) {
+                result.add(file.path);
+            }
+        });
+        for (Map.Entry<String, Map.Entry<String, StagingIndex.Stat>> e
+                 : hashed.entrySet()) {
+            index.cache(e.getKey(), e.getValue().getKey(),
+                    e.getValue().getValue());
+        }
+        return result;
+    }
+
+    /** writes the versions in SOURCE of the files FILENAMES, on up to
+     * CHECKOUT_THREADS threads, and caches their blob ids in the index.
+     * @param source
+     * @param filenames */
+    private void writeFiles(Commit source, List<String> filenames) {
+        ConcurrentHashMap<String, StagingIndex.Stat> written =
+            new ConcurrentHashMap<>();
+        Consumer<String> write = filename -> {
+            checkoutFile(source, filename);
+            StagingIndex.Stat stat =
+                StagingIndex.Stat.of(new File(_cwd, filename));
+            if (stat != null) {
+                written.put(filename, stat);
             }
+        };
+        int threads = Math.min(filenames.size(), Math.min(CHECKOUT_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+        if (threads <= 1) {
+            filenames.forEach(write);
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                ArrayList<Future<?>> tasks = new ArrayList<>();
+                for (String filename : filenames) {
+                    tasks.add(pool.submit(() -> write.accept(filename)));
+                }
+                for (Future<?> task : tasks) {
+                    task.get();
+                }
+            } catch (ExecutionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw new IllegalArgumentException(excp.getMessage());
+            } catch (InterruptedException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        for (Map.Entry<String, StagingIndex.Stat> e : written.entrySet()) {
+            index().cache(e.getKey(), source.blobs(e.getKey()), e.getValue());
         }
     }
 
@@ -366,14 +735,94 @@ class Repo {
 
     }
 
-    /** deletes all files in staging area deletions/additions. */
+    /** unstages all staged deletions/additions. */
     private void clearStagingArea() {
-        for (String filename : Utils.plainFilenamesIn(_rm)) {
-            (new File(_rm, filename)).delete();
+        index().clear();
+        index().write();
+    }
+
+    /** returns the staging area, first moving into it anything staged
+     * in the staging directories used before it. */
+    StagingIndex index() {
+        if (_index == null) {
+            _index = new StagingIndex(new File(_gitlet, "index"));
+            if (_stage.isDirectory()) {
+                for (String filename : stagedIn(_rm)) {
+                    _index.remove(filename);
+                }
+                for (String filename : stagedIn(_add)) {
+                    _index.add(filename,
+                            stagedBlob(new File(_add, filename)), null);
+                }
+                _index.write();
+                for (File dir : new File[] {_rm, _add}) {
+                    for (String filename : stagedIn(dir)) {
+                        delete(new File(dir, filename), dir);
+                    }
+                    dir.delete();
+                }
+                _stage.delete();
+            }
         }
-        for (String filename : Utils.plainFilenamesIn(_add)) {
-            (new File(_add, filename)).delete();
+        return _index;
+    }
+
+    /** returns the files of the working directory. */
+    WorkTree workTree() {
+        if (_workTree == null) {
+            _workTree = new WorkTree(_cwd, _gitlet);
+        }
+        return _workTree;
+    }
+
+    /** returns paths, relative to staging directory DIR and separated by
+     * '/', of the files staged there, in lexicographic order.
+     * @param dir */
+    private List<String> stagedIn(File dir) {
+        ArrayList<String> result = new ArrayList<>();
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.push("");
+        while (!pending.isEmpty()) {
+            String prefix = pending.pop();
+            File[] files = new File(dir, prefix).listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    pending.push(prefix + file.getName() + "/");
+                } else {
+                    result.add(prefix + file.getName());
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** deletes FILE, then any directories it leaves empty up to, but not
+     * including, TOP.
+     * @param file
+     * @param top */
+    private void delete(File file, File top) {
+        file.delete();
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(top) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** returns FILENAME relative to the working directory, in the form
+     * commits track it: separated by '/', without "." or ".." steps.
+     * @param filename */
+    private String normalize(String filename) {
+        Path cwd = _cwd.toPath().toAbsolutePath().normalize();
+        Path path = cwd.resolve(filename).normalize();
+        if (!path.startsWith(cwd) || path.equals(cwd)) {
+            return filename;
         }
+        return cwd.relativize(path).toString()
+            .replace(File.separatorChar, '/');
     }
 
     /**
@@ -381,7 +830,7 @@ class Repo {
      * @param filename
      */
     public void checkoutFile(String filename) {
-        checkoutFile(getHeadCommit(), filename);
+        checkoutFile(getHeadCommit(), normalize(filename));
     }
 
     /**
@@ -391,14 +840,23 @@ class Repo {
      * @param filename
      */
     public void checkoutFile(String commitID, String filename) {
-        if (commitID.length() < GLet.HASH_LEN) {
-            commitID = GLet.expandHashID(commitID, _commits);
-        }
-        File commitFile = new File(_commits, commitID);
-        if (!commitFile.exists()) {
-            GLet.error("No commit with that id exists");
+        File commitFile = new File(_commits, expandCommitID(commitID));
+        checkoutFile(ObjectStore.readObject(commitFile, Commit.class),
+                normalize(filename));
+    }
+
+    /** returns the full id of the commit COMMITID abbreviates, erroring
+     * if there is none or more than one.
+     * @param commitID */
+    private String expandCommitID(String commitID) {
+        List<String> matches = IdIndex.of(_commits).matches(commitID, 2);
+        if (matches.isEmpty()) {
+            GLet.error("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            GLet.error("Commit id %s is ambiguous; give more of it.",
+                    commitID);
         }
-        checkoutFile(Utils.readObject(commitFile, Commit.class), filename);
+        return matches.get(0);
     }
 
     /**
@@ -411,9 +869,10 @@ class Repo {
         if  (source.blobs(filename) == null) {
             GLet.error("File does not exist in that commit.");
         }
-        File blob = new File(_blobs, source.blobs(filename));
-        byte[] contents = (Utils.readObject(blob, Blob.class)).getContents();
-        Utils.writeContents(currentVersion, contents);
+        Promisor.fetch(_gitlet, source.blobs(filename));
+        currentVersion.getParentFile().mkdirs();
+        Blob.checkout(new File(_blobs, source.blobs(filename)),
+                currentVersion);
     }
 
     /** creates symbolic id pointed at head by persisting a file
@@ -463,10 +922,24 @@ class Repo {
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        TreeSet<String> conflictedFiles = new TreeSet<String>();
         TreeSet<String> checkouts = new TreeSet<String>();
         TreeSet<String> removals = new TreeSet<String>();
-        for (String filename : current.filenames()) {
+        TreeSet<String> changed = new TreeSet<>(split.changedFiles(current));
+        changed.addAll(split.changedFiles(source));
+        TreeMap<String, String[]> merges = new TreeMap<>();
+        Set<String> renamed = renames(split, current, source, changed,
+                merges, removals);
+        for (String filename : changed) {
+            if (renamed.contains(filename)) {
+                continue;
+            } else if (!current.containsKey(filename)) {
+                if (source.containsKey(filename)
+                        && !split.containsKey(filename)) {
+                    assureBlobTracking(current, filename);
+                    checkouts.add(filename);
+                }
+                continue;
+            }
             boolean splitPresent = split.containsKey(filename);
             boolean sourcePresent = source.containsKey(filename);
             boolean sourceSame = split.compareBlobs(source, filename);
@@ -486,23 +959,18 @@ class Repo {
                 assureBlobTracking(current, filename);
                 removals.add(filename);
             } else {
-                conflictedFiles.add(filename);
-            }
-        }
-        for (String filename : source.filenames()) {
-            if (!current.containsKey(filename)
-                    && !split.containsKey(filename)) {
                 assureBlobTracking(current, filename);
-                checkouts.add(filename);
+                merges.put(filename, new String[] {split.blobs(filename),
+                    current.blobs(filename), source.blobs(filename)});
             }
         }
         addCheckouts(checkouts, source);
         rmRemovals(removals);
-        addConflicts(conflictedFiles, source, current);
+        boolean conflicts = addConflicts(merges);
         String msg = "Merged " + branchname + " into "
                 + Utils.readContentsAsString(_head) + ".";
         commit(msg, source.getLocation(_commits).toString());
-        if (!conflictedFiles.isEmpty()) {
+        if (conflicts) {
             System.out.println("Encountered a merge conflict.");
         }
     }
@@ -513,14 +981,12 @@ class Repo {
      * @param filename
      */
     private void assureBlobTracking(Commit current, String filename) {
-        File working = new File(_cwd, filename);
         if (!current.containsKey(filename)) {
-            if (working.exists()) {
+            if (workTree().exists(filename)) {
                 GLet.error("There is an untracked file in the way;"
                         + " delete it, or add and commit it first.");
             }
-        } else if (!current.blobs(filename).equals(GLet.sha1Obj(
-                new Blob(working)))) {
+        } else if (!current.blobs(filename).equals(blobID(filename))) {
             GLet.error("There is an untracked file in the way;"
                     + " delete it, or add and commit it first.");
         }
@@ -533,32 +999,122 @@ class Repo {
     }
 
     /**
-     * adds conflicted files to stage.
-     * @param conflictedFiles
-     * @param source
+     * finds the files SOURCE renamed since SPLIT that CURRENT changed,
+     * and those CURRENT renamed that SOURCE changed, among CHANGED, by
+     * their contents (see Renames), so that the changes are merged into
+     * the file under its new name rather than being a conflict between
+     * a change and a removal. the merge of each is added to MERGES, as
+     * for addConflicts, and files SOURCE renamed are added to REMOVALS
+     * under their old names. returns the old and new names of the files
+     * SOURCE renamed, which merge otherwise leaves alone.
+     * @param split
      * @param current
+     * @param source
+     * @param changed
+     * @param merges
+     * @param removals
      */
-    private void addConflicts(Set<String> conflictedFiles,
-                              Commit source, Commit current) {
-        for (String filename : conflictedFiles) {
-            if (!current.blobs(filename).equals(GLet.sha1Obj(
-                    new Blob(new File(_cwd, filename))))) {
-                GLet.error("There is an untracked file in the way;"
-                        + " delete it, or add and commit it first.");
+    private Set<String> renames(Commit split, Commit current, Commit source,
+                                Set<String> changed,
+                                Map<String, String[]> merges,
+                                Set<String> removals) {
+        TreeMap<String, String> sourceDeleted = new TreeMap<>(),
+            sourceAdded = new TreeMap<>(), currentDeleted = new TreeMap<>(),
+            currentAdded = new TreeMap<>();
+        for (String filename : changed) {
+            String base = split.blobs(filename),
+                ours = current.blobs(filename), theirs = source.blobs(filename);
+            if (base != null && theirs == null && ours != null
+                && !ours.equals(base)) {
+                sourceDeleted.put(filename, base);
+            } else if (base != null && ours == null && theirs != null
+                && !theirs.equals(base)) {
+                currentDeleted.put(filename, base);
+            } else if (base == null && ours == null && theirs != null) {
+                sourceAdded.put(filename, theirs);
+            } else if (base == null && theirs == null && ours != null) {
+                currentAdded.put(filename, ours);
             }
-            File conflict = new File(_cwd, filename);
-            Blob curr = GLet.findBlobInstance(current, _blobs, filename);
-            String sourContent = "";
-            if (source.containsKey(filename)) {
-                Blob sour = GLet.findBlobInstance(source, _blobs, filename);
-                sourContent = sour.getContentsAsString();
+        }
+        HashSet<String> result = new HashSet<>();
+        for (Map.Entry<String, String> rename
+                 : Renames.find(_gitlet, sourceDeleted, sourceAdded)
+                 .entrySet()) {
+            String from = rename.getKey(), to = rename.getValue();
+            assureBlobTracking(current, from);
+            assureBlobTracking(current, to);
+            merges.put(to, new String[] {split.blobs(from),
+                current.blobs(from), source.blobs(to)});
+            removals.add(from);
+            result.add(from);
+            result.add(to);
+        }
+        for (Map.Entry<String, String> rename
+                 : Renames.find(_gitlet, currentDeleted, currentAdded)
+                 .entrySet()) {
+            String from = rename.getKey(), to = rename.getValue();
+            assureBlobTracking(current, to);
+            merges.put(to, new String[] {split.blobs(from),
+                current.blobs(to), source.blobs(from)});
+        }
+        return result;
+    }
+
+    /**
+     * merges the two versions of each file of MERGES, which maps it to
+     * the ids of the blobs of its base version, the current branch's
+     * version and the given branch's (null if absent), into the working
+     * file and stages it. text files present in both branches are
+     * merged line by line from the base (see Diff3), marking only the
+     * changes that overlap as conflicts; binary files, files past the
+     * big file threshold and files the given branch removed are
+     * conflicts as a whole, streamed rather than read into memory.
+     * returns true if there were any conflicts.
+     * @param merges
+     */
+    private boolean addConflicts(Map<String, String[]> merges) {
+        boolean conflicts = false;
+        HashSet<String> ids = new HashSet<>();
+        for (String[] blobs : merges.values()) {
+            for (String id : blobs) {
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+        }
+        Promisor.fetch(_gitlet, ids);
+        for (Map.Entry<String, String[]> entry : merges.entrySet()) {
+            String filename = entry.getKey();
+            String[] blobs = entry.getValue();
+            File file = new File(_cwd, filename);
+            file.getParentFile().mkdirs();
+            try (OutputStream out = new BufferedOutputStream(
+                    new FileOutputStream(file), OUTPUT_BUFFER)) {
+                if (blobs[2] == null || isBinaryBlob(blobs[1])
+                    || isBinaryBlob(blobs[2]) || isBinaryBlob(blobs[0])) {
+                    out.write(Diff3.CONFLICT_START.getBytes(
+                            StandardCharsets.UTF_8));
+                    Blob.copy(new File(_blobs, blobs[1]), out);
+                    out.write(Diff3.CONFLICT_SEPARATOR.getBytes(
+                            StandardCharsets.UTF_8));
+                    if (blobs[2] != null) {
+                        Blob.copy(new File(_blobs, blobs[2]), out);
+                    }
+                    out.write(Diff3.CONFLICT_END.getBytes(
+                            StandardCharsets.UTF_8));
+                    conflicts = true;
+                } else {
+                    byte[] base = blobs[0] == null ? new byte[0]
+                        : blobContents(blobs[0]);
+                    conflicts |= Diff3.merge(base, blobContents(blobs[1]),
+                            blobContents(blobs[2]), out);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
             }
-            Utils.writeContents(conflict,
-                    "<<<<<<< HEAD\n"
-                            + curr.getContentsAsString() + "=======\n"
-                            + sourContent + ">>>>>>>\n");
             add(filename);
         }
+        return conflicts;
     }
 
     /**
@@ -574,31 +1130,816 @@ class Repo {
         }
     }
 
-    /** (BFS) searches backwards from nodes to find common ancestor
-     *  nearest to a. returns commit representing that ancestor.
-     *  @param a (prioritizes proximity)
-     *  @param b
-     *  @return commit latest common ancestor */
+    /** returns the best common ancestor of A and B, the one a
+     * breadth-first walk from A meets first if there are several (as in
+     * criss-cross merges).
+     * @param a (prioritizes proximity)
+     * @param b
+     * @return commit latest common ancestor */
     private Commit splitPoint(Commit a, Commit b) {
+        List<String> bases = mergeBases(a, b);
+        if (bases.isEmpty()) {
+            return new Commit("initial commit");
+        }
+        return ObjectStore.readObject(new File(_commits, bases.get(0)),
+                Commit.class);
+    }
 
-        ArrayList<String> bAncestors = b.ancestors();
+    /** returns the ids of the best common ancestors of A and B, in the
+     * order splitPoint prefers them. commits missing from the commit
+     * graph are added to it first.
+     * @param a
+     * @param b */
+    private List<String> mergeBases(Commit a, Commit b) {
+        CommitGraph graph = CommitGraph.of(_gitlet);
+        graph.add(a);
+        graph.add(b);
+        ArrayList<String> result = new ArrayList<>();
+        for (int row : MergeBase.bases(graph, graph.index(a.id()),
+                graph.index(b.id()))) {
+            result.add(graph.id(row));
+        }
+        return result;
+    }
 
-        Queue<Commit> ancestors = new LinkedList<Commit>();
-        ancestors.add(a);
-        while (!ancestors.isEmpty()) {
-            Commit node = ancestors.remove();
-            if (bAncestors.contains(node.id())) {
-                return node;
+    /** handles merge-base: prints the id of the best common ancestor of
+     * commits or branches A and B that merge would use, or with ALL,
+     * of every best common ancestor.
+     * @param a
+     * @param b
+     * @param all */
+    public void mergeBase(String a, String b, boolean all) {
+        List<String> bases = mergeBases(resolve(a), resolve(b));
+        for (String id : all ? bases : bases.subList(0,
+                Math.min(1, bases.size()))) {
+            System.out.println(id);
+        }
+    }
+
+    /** handles diff: prints in unified format how the files PATHS (every
+     * file if empty; a path also names the files under it) differ from
+     * the first of COMMITS to the second, or to the working directory if
+     * there is one commit, or from the head commit to the working
+     * directory if there are none. the working version of a file is its
+     * working file if tracked by the head commit or staged, and none if
+     * it is not, is staged for removal or is missing. lines are matched
+     * by histogram diff if HISTOGRAM, otherwise by Myers' algorithm; see
+     * Diff.
+     * @param commits
+     * @param paths
+     * @param histogram */
+    public void diff(List<String> commits, List<String> paths,
+                     boolean histogram) {
+        Commit from = commits.isEmpty() ? getHeadCommit()
+            : resolve(commits.get(0));
+        Commit to = commits.size() > 1 ? resolve(commits.get(1)) : null;
+        TreeMap<String, String> changed = new TreeMap<>();
+        if (to != null) {
+            for (String filename : from.changedFiles(to)) {
+                changed.put(filename, to.blobs(filename));
             }
-            if (!node.isInitialCommit()) {
-                ancestors.add(node.parent1());
+        } else {
+            TreeSet<String> filenames = new TreeSet<>(from.filenames());
+            filenames.addAll(getHeadCommit().filenames());
+            filenames.addAll(index().added());
+            Set<String> removed = index().removed();
+            for (String filename : filenames) {
+                String id = null;
+                if (!removed.contains(filename)
+                    && new File(_cwd, filename).isFile()) {
+                    id = blobID(filename);
+                }
+                if (!Objects.equals(id, from.blobs(filename))) {
+                    changed.put(filename, id);
+                }
             }
-            if (node.hasParent2()) {
-                ancestors.add(node.parent2());
+            index().write();
+        }
+        Writer out = output();
+        try {
+            for (Map.Entry<String, String> file : changed.entrySet()) {
+                String filename = file.getKey();
+                if (selected(filename, paths)) {
+                    diffFile(out, filename, from.blobs(filename),
+                            to == null ? null : file.getValue(),
+                            to == null && file.getValue() != null,
+                            histogram);
+                }
             }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
+    }
 
-        return new Commit("initial commit");
+    /** returns true if FILENAME is one of PATHS or under one of them, or
+     * PATHS is empty.
+     * @param filename
+     * @param paths */
+    private static boolean selected(String filename, List<String> paths) {
+        for (String path : paths) {
+            if (filename.equals(path) || filename.startsWith(path + "/")) {
+                return true;
+            }
+        }
+        return paths.isEmpty();
+    }
+
+    /** writes to OUT the unified diff of FILENAME from blob OLD to blob
+     * NEW, or to its working file if WORKING. a null blob is an absent
+     * file. lines are matched by histogram diff if HISTOGRAM. binary
+     * files and files past the big file threshold are only said to
+     * differ, without being read whole.
+     * @param out
+     * @param filename
+     * @param old
+     * @param neu
+     * @param working
+     * @param histogram */
+    private void diffFile(Writer out, String filename, String old,
+                          String neu, boolean working, boolean histogram)
+        throws IOException {
+        File file = new File(_cwd, filename);
+        boolean binary = isBinaryBlob(old)
+            || (working ? isBinaryFile(file) : isBinaryBlob(neu));
+        out.write("diff --git a/" + filename + " b/" + filename + "\n");
+        if (old == null) {
+            out.write("new file mode " + FILE_MODE + "\n");
+        } else if (neu == null && !working) {
+            out.write("deleted file mode " + FILE_MODE + "\n");
+        }
+        if (binary) {
+            out.write("Binary files " + (old == null ? NULL_FILE
+                    : "a/" + filename) + " and "
+                    + (neu == null && !working ? NULL_FILE : "b/" + filename)
+                    + " differ\n");
+            return;
+        }
+        byte[] before = old == null ? new byte[0] : blobContents(old);
+        byte[] after = working ? Utils.readContents(file)
+            : neu == null ? new byte[0] : blobContents(neu);
+        out.write("--- " + (old == null ? NULL_FILE : "a/" + filename)
+                  + "\n");
+        out.write("+++ " + (neu == null && !working ? NULL_FILE
+                : "b/" + filename) + "\n");
+        Diff diff = new Diff();
+        diff.setHistogram(histogram);
+        diff.setSequences(Diff.lines(before), Diff.lines(after));
+        diff.unified(out, DIFF_CONTEXT);
+    }
+
+    /** returns the contents of blob ID.
+     * @param id */
+    private byte[] blobContents(String id) {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        Promisor.fetch(_gitlet, id);
+        try {
+            Blob.copy(new File(_blobs, id), contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return contents.toByteArray();
+    }
+
+    /** returns true if CONTENTS are taken to be binary, having a zero
+     * byte among the first BINARY_PROBE.
+     * @param contents */
+    private static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** returns true if blob ID is to be treated as binary: it is past
+     * the big file threshold or its first BINARY_PROBE bytes are binary.
+     * an absent (null) blob is not.
+     * @param id */
+    private boolean isBinaryBlob(String id) {
+        if (id == null) {
+            return false;
+        }
+        File blob = new File(_blobs, id);
+        Promisor.fetch(_gitlet, id);
+        if (Blob.size(blob) >= config().bigFileThreshold()) {
+            return true;
+        }
+        ByteArrayOutputStream probe = new ByteArrayOutputStream();
+        try {
+            Blob.copy(blob, probe, BINARY_PROBE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return isBinary(probe.toByteArray());
+    }
+
+    /** returns true if working file FILE is to be treated as binary, as
+     * isBinaryBlob does for blobs.
+     * @param file */
+    private boolean isBinaryFile(File file) {
+        if (file.length() >= config().bigFileThreshold()) {
+            return true;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return isBinary(in.readNBytes(BINARY_PROBE));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns the commit at the head of branch NAME, or else the commit
+     * whose id, possibly abbreviated, is NAME.
+     * @param name */
+    private Commit resolve(String name) {
+        File branch = new File(_branches, name);
+        if (branch.isFile()) {
+            return GLet.refToCommit(branch);
+        }
+        return ObjectStore.readObject(new File(_commits,
+                expandCommitID(name)), Commit.class);
+    }
+
+    /** handles fsmonitor: ACTION start starts the file-system monitor in
+     * the background, stop stops it, status tells whether it is running
+     * and run runs it in the foreground.
+     * @param action */
+    public void fsmonitor(String action) {
+        FsMonitor monitor = new FsMonitor(_gitlet);
+        switch (action) {
+        case "start":
+            monitor.start();
+            break;
+        case "stop":
+            monitor.stop();
+            break;
+        case "status":
+            System.out.println(monitor.running() ? "The monitor is running."
+                    : "The monitor is not running.");
+            break;
+        case "run":
+            monitor.run();
+            break;
+        default:
+            GLet.error("fsmonitor takes start, stop, status or run");
+        }
+    }
+
+    /** starts, stops, reports on or runs (ACTION) the daemon serving
+     * commands on this repository, see Daemon.
+     * @param action */
+    public void daemon(String action) {
+        Daemon daemon = new Daemon(_gitlet);
+        switch (action) {
+        case "start":
+            daemon.start();
+            break;
+        case "stop":
+            daemon.stop();
+            break;
+        case "status":
+            System.out.println(daemon.running() ? "The daemon is running."
+                    : "The daemon is not running.");
+            break;
+        case "run":
+            daemon.run();
+            break;
+        default:
+            GLet.error("daemon takes start, stop, status or run");
+        }
+    }
+
+    /** saves the .gitlet directory of another repository, DIRECTORY
+     * ('/'-separated, relative to this repository's working directory
+     * unless absolute), as remote NAME.
+     * @param name
+     * @param directory */
+    public void addRemote(String name, String directory) {
+        File remote = new File(_remotes, name);
+        if (remote.exists()) {
+            GLet.error("A remote with that name already exists.");
+        }
+        _remotes.mkdirs();
+        Utils.writeContents(remote,
+                directory.replace("/", File.separator));
+    }
+
+    /** forgets remote NAME.
+     * @param name */
+    public void rmRemote(String name) {
+        File remote = new File(_remotes, name);
+        if (!remote.isFile()) {
+            GLet.error("A remote with that name does not exist.");
+        }
+        remote.delete();
+    }
+
+    /** copies the commits of branch BRANCHNAME of remote NAME that this
+     * repository lacks, with their trees and blobs, and points branch
+     * NAME/BRANCHNAME here at its head; see Transfer.
+     * @param name
+     * @param branchname */
+    public void fetch(String name, String branchname) {
+        File remote = remote(name);
+        File branch = new File(new File(remote, "branches"), branchname);
+        if (!branch.isFile()) {
+            GLet.error("That remote does not have that branch.");
+        }
+        String id = new File(Utils.readContentsAsString(branch)).getName();
+        new Transfer(remote, _gitlet, !name.equals(config().promisor()))
+            .copy(id);
+        File local = new File(new File(_branches, name), branchname);
+        local.getParentFile().mkdirs();
+        Utils.writeContents(local, new File(_commits, id).getPath());
+    }
+
+    /** copies the commits of the current branch that remote NAME lacks
+     * to it, with their trees and blobs, and points its branch
+     * BRANCHNAME at the head commit. errors unless that is a
+     * fast-forward: the remote branch's head must be in the history of
+     * the head commit.
+     * @param name
+     * @param branchname */
+    public void push(String name, String branchname) {
+        File remote = remote(name);
+        File branch = new File(new File(remote, "branches"), branchname);
+        Commit head = getHeadCommit();
+        if (branch.isFile()) {
+            String id = new File(Utils.readContentsAsString(branch))
+                .getName();
+            CommitGraph graph = CommitGraph.of(_gitlet);
+            graph.add(head);
+            int row = graph.index(id);
+            if (row < 0 || !graph.ancestors(graph.index(head.id()))
+                .get(row)) {
+                GLet.error("Please pull down remote changes before"
+                        + " pushing.");
+            }
+        }
+        new Transfer(_gitlet, remote).copy(head.id());
+        Utils.writeContents(branch,
+                new File(new File(remote, "commits"), head.id()).getPath());
+    }
+
+    /** fetches branch BRANCHNAME of remote NAME, then merges it into the
+     * current branch.
+     * @param name
+     * @param branchname */
+    public void pull(String name, String branchname) {
+        fetch(name, branchname);
+        merge(name + "/" + branchname);
+    }
+
+    /** makes a new repository in the working directory holding the
+     * history of the repository whose .gitlet directory is DIRECTORY
+     * ('/'-separated, relative unless absolute), saved as remote
+     * ORIGIN. all its branches are fetched, as ORIGIN/BRANCH, and its
+     * current branch is made the current branch here and checked out.
+     * if PARTIAL, only commits and trees are copied, and the remote
+     * is kept as the promisor of the blobs, which are fetched as they
+     * are needed; see Promisor.
+     * @param directory
+     * @param partial */
+    public void clone(String directory, boolean partial) {
+        if (_gitlet.exists()) {
+            GLet.error("A Gitlet version-control system already exists"
+                    + " in the current directory");
+        }
+        File remote = Promisor.resolve(_gitlet, directory);
+        if (!new File(remote, "HEAD").isFile()) {
+            GLet.error("Remote directory not found.");
+        }
+        init();
+        addRemote(ORIGIN, directory);
+        if (partial) {
+            config().set(Config.PROMISOR, ORIGIN);
+        }
+        for (String branchname
+                 : Utils.plainFilenamesIn(new File(remote, "branches"))) {
+            fetch(ORIGIN, branchname);
+        }
+        String head = Utils.readContentsAsString(new File(remote, "HEAD"));
+        File fetched = new File(new File(_branches, ORIGIN), head);
+        checkoutCommit(GLet.refToCommit(fetched));
+        clearStagingArea();
+        if (!head.equals(_master.getName())) {
+            _master.delete();
+        }
+        Utils.writeContents(new File(_branches, head),
+                Utils.readContentsAsString(fetched));
+        Utils.writeContents(_head, head);
+    }
+
+    /** returns the .gitlet directory of remote NAME, erroring if there
+     * is no such remote or it does not exist.
+     * @param name */
+    private File remote(String name) {
+        return Promisor.remote(_gitlet, name);
+    }
+
+    /** returns the names of all branches, in order, including those
+     * fetched from remotes, named REMOTE/BRANCH. */
+    List<String> branchNames() {
+        ArrayList<String> result = new ArrayList<>();
+        File[] files = _branches.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    result.add(file.getName());
+                } else if (file.isDirectory()) {
+                    for (String name : Utils.plainFilenamesIn(file)) {
+                        result.add(file.getName() + "/" + name);
+                    }
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** reads history written in the fast-import format from standard
+     * input, storing its blobs and commits and moving the branches it
+     * names, see FastImport.
+     */
+    public void fastImport() {
+        new FastImport(this).run(System.in);
+    }
+
+    /** writes the history of branches BRANCHNAMES, or of every branch if
+     * there are none, to standard output in the fast-import format, see
+     * FastExport.
+     * @param branchnames */
+    public void fastExport(List<String> branchnames) {
+        for (String name : branchnames) {
+            if (!new File(_branches, name).isFile()) {
+                GLet.error("A branch with that name does not exist.");
+            }
+        }
+        new FastExport(this).run(branchnames, System.out);
+    }
+
+    /** packs every loose and packed object into a single new pack,
+     * storing each version of a file as a delta against the previous
+     * version of the same file, then deletes the objects it replaced.
+     * the versions of each file are found by diffing each commit's tree
+     * with its first parent's, so only the files a commit changed are
+     * visited rather than every file of every commit.
+     * loose blobs past the big file threshold are left loose, since
+     * packed objects are read whole. */
+    public void repack() {
+        PackWriter writer = new PackWriter(_pack);
+        byte commitKind = Pack.kind(_commits.getName());
+        byte blobKind = Pack.kind(_blobs.getName());
+        List<String> commits = ObjectStore.list(_commits);
+        HashMap<String, Commit> read = new HashMap<>();
+        for (String id : commits) {
+            File file = new File(_commits, id);
+            writer.add(commitKind, id, ObjectStore.readContents(file));
+            read.put(id, ObjectStore.readObject(file, Commit.class));
+        }
+        TreeMap<String, HashMap<String, Integer>> histories = new TreeMap<>();
+        for (Commit commit : read.values()) {
+            String tree = commit.tree(false);
+            Commit parent = read.get(commit.parent1ID());
+            TreeMap<String, String> changes = new TreeMap<>();
+            if (tree == null) {
+                changes.putAll(commit.files());
+            } else {
+                Tree.changes(_trees, parent == null ? null
+                        : parent.tree(false), tree, "", changes);
+            }
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() != null) {
+                    histories.computeIfAbsent(change.getKey(),
+                        k -> new HashMap<>())
+                        .merge(change.getValue(), commit.version(),
+                               Math::min);
+                }
+            }
+        }
+        for (HashMap<String, Integer> history : histories.values()) {
+            ArrayList<String> versions = new ArrayList<>(history.keySet());
+            versions.sort(Comparator.comparing(history::get));
+            String prevID = null;
+            byte[] prev = null;
+            for (String id : versions) {
+                if (isBig(id)) {
+                    continue;
+                }
+                byte[] contents =
+                    ObjectStore.readContents(new File(_blobs, id));
+                writer.add(blobKind, id, contents, prevID, prev);
+                prevID = id;
+                prev = contents;
+            }
+        }
+        List<String> blobs = ObjectStore.list(_blobs);
+        for (String id : blobs) {
+            if (!writer.contains(blobKind, id) && !isBig(id)) {
+                writer.add(blobKind, id,
+                        ObjectStore.readContents(new File(_blobs, id)));
+            }
+        }
+        byte treeKind = Pack.kind(_trees.getName());
+        List<String> trees = ObjectStore.list(_trees);
+        for (String id : trees) {
+            writer.add(treeKind, id,
+                    ObjectStore.readContents(new File(_trees, id)));
+        }
+        File pack = writer.finish();
+        List<Pack> replaced = Pack.packs(_gitlet);
+        Pack.invalidate(_gitlet);
+        for (Pack old : replaced) {
+            if (!old.data().equals(pack)) {
+                old.delete();
+            }
+        }
+        for (String id : commits) {
+            new File(_commits, id).delete();
+        }
+        for (String id : trees) {
+            new File(_trees, id).delete();
+        }
+        for (String id : blobs) {
+            if (writer.contains(blobKind, id)) {
+                new File(_blobs, id).delete();
+            }
+        }
+        System.out.printf("Packed %d objects (%d deltas).%n",
+                writer.size(), writer.deltas());
+    }
+
+    /** rewrites every commit and blob into the current binary object
+     * format, renaming commits in parent-first order so each refers to
+     * its parents' new ids, then repoints branches & restages staged
+     * files. packs are unpacked first and objects whose id changed are
+     * deleted; repack afterwards to pack the result again. the commit
+     * graph is rebuilt with the new ids. chunked blobs stored under the
+     * hash of their chunk list, by earlier versions, are renamed to the
+     * id of their contents. */
+    public void migrate() {
+        unpack();
+        CommitGraph.delete(_gitlet);
+        IdIndex.delete(_gitlet);
+        Metadata.delete(_gitlet);
+        HashMap<String, String> blobIDs = new HashMap<>();
+        for (String id : ObjectStore.list(_blobs)) {
+            File blob = new File(_blobs, id);
+            if (Blob.chunks(blob) != null) {
+                String newID = Blob.contentID(blob);
+                ObjectStore.write(new File(_blobs, newID),
+                        ObjectStore.readContents(blob));
+                blobIDs.put(id, newID);
+                continue;
+            } else if (Blob.size(blob) >= 0) {
+                blobIDs.put(id, id);
+                continue;
+            }
+            byte[] contents = ObjectStore.readObject(new File(_blobs, id),
+                    Blob.class).encode();
+            String newID = Utils.sha1(contents);
+            ObjectStore.write(new File(_blobs, newID), contents);
+            blobIDs.put(id, newID);
+        }
+        HashMap<String, String> commitIDs = new HashMap<>();
+        for (String id : ObjectStore.list(_commits)) {
+            migrateCommit(id, blobIDs, commitIDs);
+        }
+        for (String branchname : branchNames()) {
+            File branch = new File(_branches, branchname);
+            String id = GLet.abbvHash(Utils.readContentsAsString(branch),
+                    GLet.HASH_LEN);
+            Utils.writeContents(branch,
+                    new File(_commits, commitIDs.get(id)).toString());
+        }
+        for (String filename : index().added()) {
+            String id = index().staged(filename);
+            if (!blobIDs.containsKey(id)) {
+                byte[] contents = ObjectStore.readObject(
+                        new File(_blobs, id), Blob.class).encode();
+                blobIDs.put(id, Utils.sha1(contents));
+                ObjectStore.write(new File(_blobs, blobIDs.get(id)),
+                        contents);
+            }
+            index().add(filename, blobIDs.get(id), null);
+        }
+        index().dropCache();
+        index().write();
+        for (Map.Entry<String, String> entry : blobIDs.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                new File(_blobs, entry.getKey()).delete();
+            }
+        }
+        for (Map.Entry<String, String> entry : commitIDs.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                new File(_commits, entry.getKey()).delete();
+            }
+        }
+        System.out.printf("Migrated %d commits and %d blobs.%n",
+                commitIDs.size(), blobIDs.size());
+    }
+
+    /** migrates commit START and any of its ancestors not yet migrated,
+     * recording new ids in COMMITIDS and renaming blobs by BLOBIDS.
+     * iterative, since histories may be deep.
+     * @param start
+     * @param blobIDs
+     * @param commitIDs */
+    private void migrateCommit(String start, Map<String, String> blobIDs,
+                               Map<String, String> commitIDs) {
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (commitIDs.containsKey(id)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = ObjectStore.readObject(new File(_commits, id),
+                    Commit.class);
+            String p1 = commit.parent1ID(), p2 = commit.parent2ID();
+            boolean ready = true;
+            for (String parent : new String[] {p1, p2}) {
+                if (!parent.isEmpty() && !commitIDs.containsKey(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            Commit migrated = commit.migrate(migratedRef(p1, commitIDs),
+                    migratedRef(p2, commitIDs), blobIDs);
+            migrated.saveCommit(migrated.getLocation(_commits));
+            CommitGraph.of(_gitlet).add(migrated);
+            commitIDs.put(id, migrated.id());
+            stack.pop();
+        }
+    }
+
+    /** returns reference to the migrated version of commit ID according
+     * to COMMITIDS, or "" if ID is "".
+     * @param id
+     * @param commitIDs */
+    private String migratedRef(String id, Map<String, String> commitIDs) {
+        return id.isEmpty() ? ""
+            : new File(_commits, commitIDs.get(id)).toString();
+    }
+
+    /** writes every packed object back out loose and deletes the packs. */
+    private void unpack() {
+        List<Pack> packs = Pack.packs(_gitlet);
+        for (Pack pack : packs) {
+            for (File dir : new File[] {_blobs, _commits, _trees}) {
+                byte kind = Pack.kind(dir.getName());
+                for (String id : pack.ids(kind)) {
+                    ObjectStore.writeLoose(new File(dir, id),
+                            pack.read(pack.offset(kind, id)));
+                }
+            }
+        }
+        Pack.invalidate(_gitlet);
+        for (Pack pack : packs) {
+            pack.delete();
+        }
+    }
+
+    /** returns true if ID names a loose blob whose stored size is at
+     * least the big file threshold.
+     * @param id */
+    private boolean isBig(String id) {
+        return new File(_blobs, id).length() >= config().bigFileThreshold();
+    }
+
+    /** stores working file WORKING as a blob, returning its id. files
+     * past the big file threshold are streamed rather than read whole.
+     * @param working */
+    String storeBlob(File working) {
+        if (isChunked(working)) {
+            return config().chunker().store(working, _blobs);
+        } else if (working.length() >= config().bigFileThreshold()) {
+            return Blob.store(working, _blobs);
+        }
+        Blob blob = new Blob(working);
+        ObjectStore.write(new File(_blobs, blob.id()), blob.encode());
+        return blob.id();
+    }
+
+    /** returns id of the blob working file FILENAME would be stored as,
+     * taken from the index if the file is unchanged since it was last
+     * hashed, otherwise hashing it and caching the result there.
+     * @param filename */
+    private String blobID(String filename) {
+        File working = new File(_cwd, filename);
+        StagingIndex.Stat stat = workTree().stat(filename);
+        String id = index().cachedID(filename, stat);
+        if (id != null) {
+            return id;
+        }
+        id = hashBlob(working);
+        index().cache(filename, id, stat);
+        return id;
+    }
+
+    /** returns id of the blob working file WORKING would be stored as,
+     * hashing it. a blob's id is that of its contents however it is
+     * stored, so chunked blobs are hashed as ordinary ones. safe to call
+     * from several threads once config() has been read.
+     * @param working */
+    private String hashBlob(File working) {
+        if (working.length() >= config().bigFileThreshold()) {
+            return Blob.hash(working);
+        }
+        return new Blob(working).id();
+    }
+
+    /** returns true if working file WORKING is to be stored as a
+     * chunked blob.
+     * @param working */
+    private boolean isChunked(File working) {
+        return config().chunking()
+            && working.length() >= config().chunkingMinFileSize();
+    }
+
+    /** prints how much chunked blobs share their chunks: how many chunk
+     * references there are against distinct chunks, the bytes those
+     * represent, and the spread of chunk sizes, for tuning the chunking
+     * settings. */
+    public void chunkStats() {
+        int files = 0, refs = 0;
+        long logical = 0, stored = 0;
+        int min = Integer.MAX_VALUE, max = 0;
+        HashSet<String> distinct = new HashSet<>();
+        for (String id : ObjectStore.list(_blobs)) {
+            List<Map.Entry<String, Integer>> chunks =
+                Blob.chunks(new File(_blobs, id));
+            if (chunks == null) {
+                continue;
+            }
+            files += 1;
+            for (Map.Entry<String, Integer> chunk : chunks) {
+                refs += 1;
+                logical += chunk.getValue();
+                min = Math.min(min, chunk.getValue());
+                max = Math.max(max, chunk.getValue());
+                if (distinct.add(chunk.getKey())) {
+                    stored += chunk.getValue();
+                }
+            }
+        }
+        System.out.printf("Chunked files: %d%n", files);
+        System.out.printf("Chunk references: %d (distinct: %d)%n",
+                refs, distinct.size());
+        System.out.printf("Logical bytes: %d%n", logical);
+        System.out.printf("Stored chunk bytes: %d%n", stored);
+        if (refs > 0) {
+            System.out.printf("Reused: %.1f%% of bytes%n",
+                    100.0 * (logical - stored) / logical);
+            System.out.printf("Chunk size: min %d, avg %d, max %d%n",
+                    min, logical / refs, max);
+        }
+    }
+
+    /** returns id of the blob staged by STAGED, which holds the id of a
+     * blob stored at add time. files staged before blobs were stored at
+     * add time hold the blob itself, which is stored now.
+     * @param staged */
+    private String stagedBlob(File staged) {
+        byte[] contents = Utils.readContents(staged);
+        if (contents.length == GLet.HASH_LEN) {
+            return new String(contents, StandardCharsets.UTF_8);
+        }
+        String id = Utils.sha1(contents);
+        ObjectStore.write(new File(_blobs, id), contents);
+        return id;
+    }
+
+    /** returns the repository's settings. */
+    Config config() {
+        if (_config == null) {
+            _config = new Config(new File(_gitlet, "config"));
+        }
+        return _config;
+    }
+
+    /** prints all settings, the value of KEY, or sets KEY to VALUE,
+     * depending on which are null.
+     * @param key
+     * @param value */
+    public void config(String key, String value) {
+        if (key == null) {
+            for (String k : new TreeSet<>(config().keys())) {
+                System.out.println(k + "=" + config().get(k));
+            }
+        } else if (value == null) {
+            if (config().get(key) == null) {
+                GLet.error("No value set for %s.", key);
+            }
+            System.out.println(config().get(key));
+        } else {
+            config().set(key, value);
+        }
     }
 
     /** return Commit which head is pointing to. */
@@ -606,6 +1947,11 @@ class Repo {
         return GLet.refToCommit(headRef());
     }
 
+    /** returns the name of the current branch. */
+    String currentBranch() {
+        return Utils.readContentsAsString(_head);
+    }
+
     /** return branch file which head points to.
      * eg. File(.../branches/master) */
     private File headRef() {
@@ -615,22 +1961,56 @@ class Repo {
     /** asserts that stage is clear, errors otherwise.
      * @param branchname  */
     private void mergeAssurance(String branchname) {
-        if (!Utils.plainFilenamesIn(_rm).isEmpty()
-            || !Utils.plainFilenamesIn(_add).isEmpty()) {
+        if (index().hasStaged()) {
             GLet.error("You have uncommitted changes.");
-        } else if (!Utils.plainFilenamesIn(_branches).contains(branchname)) {
+        } else if (!branchNames().contains(branchname)) {
             GLet.error("A branch with that name does not exist.");
         } else if (branchname.equals(Utils.readContentsAsString(_head))) {
             GLet.error("Cannot merge a branch with itself.");
         }
     }
 
+    /** status labels of unstaged changes. */
+    private static final String MODIFIED = "modified", DELETED = "deleted";
+
+    /** size of the buffer log output goes through. */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    /** lines of context around changes in diffs. */
+    private static final int DIFF_CONTEXT = 3;
+
+    /** how many leading bytes of a file diff looks at to tell whether
+     * it is binary. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** mode diff gives new and deleted files. */
+    private static final String FILE_MODE = "100644";
+
+    /** how diff names an absent file. */
+    private static final String NULL_FILE = "/dev/null";
+
+    /** most threads writing files during a checkout. */
+    private static final int CHECKOUT_THREADS = 8;
+
+    /** name of the remote a repository is cloned from. */
+    static final String ORIGIN = "origin";
+
+    /** repository of the process's working directory. */
     Repo() {
-        _cwd = new File(System.getProperty("user.dir"));
+        this(new File(System.getProperty("user.dir")));
+    }
+
+    /** repository of working directory CWD, eg. one a daemon request
+     * names.
+     * @param cwd */
+    Repo(File cwd) {
+        _cwd = cwd;
         _gitlet = new File(cwd(), ".gitlet");
         _commits = new File(_gitlet, "commits");
         _branches = new File(_gitlet, "branches");
         _blobs = new File(_gitlet, "blobs");
+        _trees = new File(_gitlet, Tree.DIR);
+        _pack = new File(_gitlet, Pack.DIR);
         _remotes = new File(_gitlet, "remotes");
         _master = new File(_branches, "master");
         _head = new File(_gitlet, "HEAD");
@@ -0,0 +1,275 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Similarity sketches of blobs, kept in .gitlet/sketches. a blob's
+ *  sketch is a MinHash of the set of its lines: for each of SIZE hash
+ *  functions, the least hash of any line, so the fraction of places in
+ *  which two sketches agree estimates how much of their lines the two
+ *  blobs share (their Jaccard similarity) without reading either again.
+ *  blobs are hashed line by line as they are streamed from the store. a
+ *  blob's contents never change, so each is sketched once: the file is a
+ *  header followed by fixed-length records of a raw blob id and its
+ *  sketch, read whole when first needed, with new sketches appended.
+ *  @author David Babazadeh
+ */
+class Sketches {
+
+    /** returns the sketches of repository directory GITLET.
+     *  @param gitlet */
+    static synchronized Sketches of(File gitlet) {
+        return OPEN.computeIfAbsent(gitlet.getAbsolutePath(),
+            k -> new Sketches(gitlet));
+    }
+
+    /** sketches of repository directory GITLET.
+     *  @param gitlet */
+    private Sketches(File gitlet) {
+        _blobs = new File(gitlet, "blobs");
+        _file = new File(gitlet, FILE);
+    }
+
+    /** returns the sketch of blob ID, sketching it if it has none yet.
+     *  @param id */
+    synchronized int[] get(String id) {
+        read();
+        int[] result = _sketches.get(id);
+        if (result == null) {
+            Sketcher sketcher = new Sketcher();
+            try {
+                Blob.copy(new File(_blobs, id), sketcher);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            result = sketcher.sketch();
+            _sketches.put(id, result);
+            _added.put(id, result);
+        }
+        return result;
+    }
+
+    /** appends the sketches made since the file was read or last
+     *  written. */
+    synchronized void write() {
+        if (_added.isEmpty()) {
+            return;
+        }
+        read();
+        try (FileOutputStream file = new FileOutputStream(_file, true);
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(file))) {
+            if (file.getChannel().size() > _end) {
+                file.getChannel().truncate(_end);
+            }
+            if (_end == 0) {
+                Codec.writeHeader(out, MAGIC, VERSION);
+                _end = HEADER;
+            }
+            for (Map.Entry<String, int[]> e : _added.entrySet()) {
+                Codec.writeID(out, e.getKey());
+                for (int h : e.getValue()) {
+                    out.writeInt(h);
+                }
+                _end += RECORD;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _added.clear();
+    }
+
+    /** returns the estimated fraction, from 0 to 1, of the lines of the
+     *  blobs with sketches A and B that they share.
+     *  @param a
+     *  @param b */
+    static double similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < SIZE; i += 1) {
+            if (a[i] == b[i]) {
+                same += 1;
+            }
+        }
+        return (double) same / SIZE;
+    }
+
+    /** returns true if SKETCH is that of a blob with no lines.
+     *  @param sketch */
+    static boolean isEmpty(int[] sketch) {
+        return sketch[0] == EMPTY;
+    }
+
+    /** reads the file, if not yet read. a record cut short, by a write
+     *  that did not finish, is ignored, and cut off by the next write. */
+    private void read() {
+        if (_sketches != null) {
+            return;
+        }
+        _sketches = new HashMap<>();
+        if (!_file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(_file)))) {
+            Codec.readHeader(in, MAGIC, VERSION);
+            _end = HEADER;
+            while (true) {
+                String id = Codec.readID(in);
+                int[] sketch = new int[SIZE];
+                for (int i = 0; i < SIZE; i += 1) {
+                    sketch[i] = in.readInt();
+                }
+                _sketches.put(id, sketch);
+                _end += RECORD;
+            }
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns the hash of a line with hash H under hash function I.
+     *  @param h
+     *  @param i */
+    private static int hash(long h, int i) {
+        long x = h ^ (SEEDS[i]);
+        x = (x ^ (x >>> MIX_SHIFTS[0])) * MIX1;
+        x = (x ^ (x >>> MIX_SHIFTS[1])) * MIX2;
+        x ^= x >>> MIX_SHIFTS[2];
+        return (int) (x >>> HASH_SHIFT);
+    }
+
+    /** a stream sketching the lines written to it. */
+    private static class Sketcher extends OutputStream {
+
+        /** a sketch of no lines yet. */
+        Sketcher() {
+            Arrays.fill(_sketch, EMPTY);
+        }
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                endLine();
+            } else {
+                _line = (_line ^ (b & BYTE)) * FNV_PRIME;
+                _partial = true;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i += 1) {
+                write(b[i]);
+            }
+        }
+
+        /** returns the sketch of the lines written. */
+        int[] sketch() {
+            if (_partial) {
+                endLine();
+            }
+            return _sketch;
+        }
+
+        /** adds the line being hashed to the sketch. */
+        private void endLine() {
+            for (int i = 0; i < SIZE; i += 1) {
+                _sketch[i] = Math.min(_sketch[i], hash(_line, i));
+            }
+            _line = FNV_OFFSET;
+            _partial = false;
+        }
+
+        /** the sketch so far. */
+        private final int[] _sketch = new int[SIZE];
+
+        /** hash of the line so far. */
+        private long _line = FNV_OFFSET;
+
+        /** true if the line so far is not empty. */
+        private boolean _partial;
+    }
+
+    /** number of hash functions, and of ints in a sketch. */
+    static final int SIZE = 64;
+
+    /** name of the file within .gitlet. */
+    static final String FILE = "sketches";
+
+    /** magic number heading the file ("GLSK"). */
+    static final int MAGIC = 0x474c534b;
+
+    /** format version of the file. */
+    static final int VERSION = 1;
+
+    /** the value of every place of the sketch of no lines, above any
+     *  line's hash. */
+    private static final int EMPTY = Integer.MAX_VALUE;
+
+    /** offset basis and prime of the FNV-1a hash of lines. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L,
+        FNV_PRIME = 0x100000001b3L;
+
+    /** length of the header: magic and version. */
+    private static final int HEADER = Integer.BYTES + 1;
+
+    /** length of a record: a raw id and a sketch. */
+    private static final int RECORD = Codec.ID_BYTES + SIZE * Integer.BYTES;
+
+    /** multipliers and shifts of the mixing (splitmix64's) that makes a
+     *  line's hash under each hash function, and the step between the
+     *  functions' seeds. */
+    private static final long MIX1 = 0xbf58476d1ce4e5b9L,
+        MIX2 = 0x94d049bb133111ebL, GOLDEN = 0x9e3779b97f4a7c15L;
+
+    /** see MIX1. */
+    private static final int[] MIX_SHIFTS = {30, 27, 31};
+
+    /** shift taking a line's hash to 30 bits, below EMPTY. */
+    private static final int HASH_SHIFT = 34;
+
+    /** mask of a byte. */
+    private static final int BYTE = 0xff;
+
+    /** the seed of each hash function. */
+    private static final long[] SEEDS = new long[SIZE];
+
+    static {
+        for (int i = 0; i < SIZE; i += 1) {
+            SEEDS[i] = GOLDEN * (i + 1);
+        }
+    }
+
+    /** the sketches of each repository directory. */
+    private static final HashMap<String, Sketches> OPEN = new HashMap<>();
+
+    /** the blob store. */
+    private final File _blobs;
+
+    /** the file. */
+    private final File _file;
+
+    /** length of the file's header and whole records, or 0 if there is
+     *  no file. */
+    private long _end;
+
+    /** sketches by blob id, once read. */
+    private HashMap<String, int[]> _sketches;
+
+    /** sketches made since the file was read or written, in order. */
+    private final LinkedHashMap<String, int[]> _added = new LinkedHashMap<>();
+}
@@ -0,0 +1,424 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/** The staging area, kept in the single binary file .gitlet/index. each
+ *  entry names a path and is either staged for addition (with the id of
+ *  its stored blob), staged for removal, or neither, only caching the
+ *  blob id a working file was last found to have. entries also record
+ *  the mode, size, modification time and inode the working file had
+ *  when its blob id was found, so a file whose stat data is unchanged
+ *  need not be hashed again. a file modified within the same clock tick
+ *  as the index was written could look unchanged, so an entry is only
+ *  trusted if its file is older than the index (racy-timestamp
+ *  protection). the file is rewritten whole and moved into place.
+ *  @author David Babazadeh
+ */
+class StagingIndex {
+
+    /** an entry of the index. */
+    static final class Entry {
+        /** entry for PATH in STATE with blob ID (null if none) and the
+         *  stat data STAT (null if none).
+         *  @param path
+         *  @param state
+         *  @param id
+         *  @param stat */
+        Entry(String path, byte state, String id, Stat stat) {
+            this.path = path;
+            this.state = state;
+            this.id = id;
+            this.stat = stat;
+        }
+
+        /** path, relative to the working directory and '/'-separated. */
+        final String path;
+
+        /** ADDED, REMOVED or CACHED. */
+        byte state;
+
+        /** blob id staged or cached, or null. */
+        String id;
+
+        /** stat data of the working file when ID was found, or null. */
+        Stat stat;
+    }
+
+    /** stat data of a working file. */
+    static final class Stat {
+        /** stat data MODE, SIZE, MTIME (nanoseconds) and INODE.
+         *  @param mode
+         *  @param size
+         *  @param mtime
+         *  @param inode */
+        Stat(int mode, long size, long mtime, long inode) {
+            this.mode = mode;
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        /** returns stat data of FILE, or null if it is not a file.
+         *  @param file */
+        static Stat of(File file) {
+            Path path = file.toPath();
+            try {
+                return of(path, Files.readAttributes(path,
+                        PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+            } catch (UnsupportedOperationException excp) {
+                return basic(path);
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        /** returns stat data of the file at PATH, whose attributes,
+         *  not following links, are ATTRS, or null if it is not a file.
+         *  mode is 0, or EXECUTABLE, where the platform has no modes,
+         *  and the inode is a hash of the file key where that holds no
+         *  inode number.
+         *  @param path
+         *  @param attrs */
+        static Stat of(Path path, BasicFileAttributes attrs) {
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            int mode;
+            if (attrs instanceof PosixFileAttributes) {
+                mode = REGULAR;
+                for (PosixFilePermission perm
+                         : ((PosixFileAttributes) attrs).permissions()) {
+                    mode |= PERMISSION_BITS[perm.ordinal()];
+                }
+            } else {
+                mode = Files.isExecutable(path) ? EXECUTABLE : 0;
+            }
+            Object key = attrs.fileKey();
+            return new Stat(mode, attrs.size(),
+                    nanos(attrs.lastModifiedTime()),
+                    key == null ? 0 : key.hashCode());
+        }
+
+        /** returns stat data of PATH from its basic attributes.
+         *  @param path */
+        private static Stat basic(Path path) {
+            try {
+                return of(path, Files.readAttributes(path,
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        /** writes STAT, which may be null, to OUT.
+         *  @param out
+         *  @param stat */
+        static void write(DataOutput out, Stat stat) throws IOException {
+            out.writeBoolean(stat != null);
+            if (stat != null) {
+                out.writeInt(stat.mode);
+                out.writeLong(stat.size);
+                out.writeLong(stat.mtime);
+                out.writeLong(stat.inode);
+            }
+        }
+
+        /** returns stat data, or null, written to IN by write.
+         *  @param in */
+        static Stat read(DataInput in) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            return new Stat(in.readInt(), in.readLong(), in.readLong(),
+                    in.readLong());
+        }
+
+        /** returns true if this is the same stat data as OTHER.
+         *  @param other */
+        boolean matches(Stat other) {
+            return other != null && mode == other.mode && size == other.size
+                && mtime == other.mtime && inode == other.inode;
+        }
+
+        /** file type and permission bits. */
+        final int mode;
+
+        /** length in bytes. */
+        final long size;
+
+        /** modification time in nanoseconds. */
+        final long mtime;
+
+        /** inode number, or a hash of the file key. */
+        final long inode;
+    }
+
+    /** index stored in FILE, which need not exist yet.
+     *  @param file */
+    StagingIndex(File file) {
+        _file = file;
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("unrecognized index %s", file);
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String path = Codec.readString(in);
+                byte state = in.readByte();
+                String id = in.readBoolean() ? Codec.readID(in) : null;
+                Stat stat = Stat.read(in);
+                _entries.put(path, new Entry(path, state, id, stat));
+            }
+            _written = nanos(Files.getLastModifiedTime(file.toPath()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns paths staged for addition, in order. */
+    TreeSet<String> added() {
+        return inState(ADDED);
+    }
+
+    /** returns paths staged for removal, in order. */
+    TreeSet<String> removed() {
+        return inState(REMOVED);
+    }
+
+    /** returns true if anything is staged. */
+    boolean hasStaged() {
+        for (Entry entry : _entries.values()) {
+            if (entry.state != CACHED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** returns the blob id staged for PATH, or null if it is not staged
+     *  for addition.
+     *  @param path */
+    String staged(String path) {
+        Entry entry = _entries.get(path);
+        return entry == null || entry.state != ADDED ? null : entry.id;
+    }
+
+    /** stages blob ID for addition as PATH, whose working file had stat
+     *  data STAT (null if unknown) when hashed.
+     *  @param path
+     *  @param id
+     *  @param stat */
+    void add(String path, String id, Stat stat) {
+        put(new Entry(path, ADDED, id, stat));
+    }
+
+    /** stages PATH for removal.
+     *  @param path */
+    void remove(String path) {
+        put(new Entry(path, REMOVED, null, null));
+    }
+
+    /** unstages PATH, keeping what is known of its working file.
+     *  @param path */
+    void unstage(String path) {
+        Entry entry = _entries.get(path);
+        if (entry == null || entry.state == CACHED) {
+            return;
+        } else if (entry.state == REMOVED) {
+            _entries.remove(path);
+        } else {
+            entry.state = CACHED;
+        }
+        _dirty = true;
+    }
+
+    /** unstages everything. */
+    void clear() {
+        for (String path : new TreeSet<>(_entries.keySet())) {
+            unstage(path);
+        }
+    }
+
+    /** forgets everything, staged or cached. */
+    void reset() {
+        _entries.clear();
+        _dirty = true;
+    }
+
+    /** returns the blob id last found for working file FILE at PATH if
+     *  its stat data is unchanged since and it is older than the index,
+     *  otherwise null.
+     *  @param path
+     *  @param file */
+    String cachedID(String path, File file) {
+        return cachedID(_entries.get(path), file);
+    }
+
+    /** returns the blob id last found for the working file at PATH if
+     *  its stat data STAT is unchanged since and it is older than the
+     *  index, otherwise null.
+     *  @param path
+     *  @param stat */
+    String cachedID(String path, Stat stat) {
+        return cachedID(_entries.get(path), stat);
+    }
+
+    /** returns the blob id ENTRY (null for none) records for working
+     *  file FILE, as cachedID(String, File) does. safe to call from
+     *  several threads while the index is not changed.
+     *  @param entry
+     *  @param file */
+    String cachedID(Entry entry, File file) {
+        return trusted(entry) && entry.stat.matches(Stat.of(file))
+            ? entry.id : null;
+    }
+
+    /** returns the blob id ENTRY (null for none) records for a working
+     *  file whose stat data is now STAT, as cachedID(Entry, File) does.
+     *  @param entry
+     *  @param stat */
+    String cachedID(Entry entry, Stat stat) {
+        return trusted(entry) && entry.stat.matches(stat) ? entry.id : null;
+    }
+
+    /** records that the working file at PATH had blob ID when it had
+     *  stat data STAT, unless PATH is staged. STAT must be taken before
+     *  the file is hashed, so a change made while hashing shows.
+     *  @param path
+     *  @param id
+     *  @param stat */
+    void cache(String path, String id, Stat stat) {
+        Entry entry = _entries.get(path);
+        if (stat != null && (entry == null || entry.state == CACHED)) {
+            put(new Entry(path, CACHED, id, stat));
+        }
+    }
+
+    /** forgets cached blob ids, eg. once ids change, keeping staged
+     *  entries. */
+    void dropCache() {
+        _entries.values().removeIf(entry -> entry.state == CACHED);
+        _dirty = true;
+    }
+
+    /** returns all entries, by path. */
+    Map<String, Entry> entries() {
+        return _entries;
+    }
+
+    /** writes the index if it has changed, to a temporary file moved
+     *  into place. */
+    void write() {
+        if (!_dirty) {
+            return;
+        }
+        File temp = new File(_file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(_entries.size());
+            for (Entry entry : _entries.values()) {
+                Codec.writeString(out, entry.path);
+                out.writeByte(entry.state);
+                out.writeBoolean(entry.id != null);
+                if (entry.id != null) {
+                    Codec.writeID(out, entry.id);
+                }
+                Stat.write(out, entry.stat);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectStore.install(temp, _file);
+        _dirty = false;
+    }
+
+    /** returns true if ENTRY (null for none) caches an id whose stat
+     *  data can be trusted.
+     *  @param entry */
+    private boolean trusted(Entry entry) {
+        return entry != null && entry.id != null && entry.stat != null
+            && entry.stat.mtime < _written;
+    }
+
+    /** adds or replaces ENTRY.
+     *  @param entry */
+    private void put(Entry entry) {
+        _entries.put(entry.path, entry);
+        _dirty = true;
+    }
+
+    /** returns paths of entries in STATE, in order.
+     *  @param state */
+    private TreeSet<String> inState(byte state) {
+        TreeSet<String> result = new TreeSet<>();
+        for (Entry entry : _entries.values()) {
+            if (entry.state == state) {
+                result.add(entry.path);
+            }
+        }
+        return result;
+    }
+
+    /** returns TIME in nanoseconds.
+     *  @param time */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** entry states. */
+    static final byte CACHED = 0, ADDED = 1, REMOVED = 2;
+
+    /** magic number heading the index ("GLIN"). */
+    static final int MAGIC = 0x474c494e;
+
+    /** format version of the index. */
+    static final int VERSION = 1;
+
+    /** mode reported for executable files where there are no modes. */
+    private static final int EXECUTABLE = 0100755;
+
+    /** file type bits of a regular file. */
+    private static final int REGULAR = 0100000;
+
+    /** mode bit of each PosixFilePermission, by ordinal. */
+    private static final int[] PERMISSION_BITS = {
+        0400, 0200, 0100, 040, 020, 010, 04, 02, 01
+    };
+
+    /** the index file. */
+    private final File _file;
+
+    /** entries by path. */
+    private final TreeMap<String, Entry> _entries = new TreeMap<>();
+
+    /** modification time of the index file when read, in nanoseconds;
+     *  entries for files at least this new are not trusted. */
+    private long _written = Long.MIN_VALUE;
+
+    /** true if entries have changed since read. */
+    private boolean _dirty;
+}
@@ -0,0 +1,350 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Copies history from one repository to another on the same file
+ *  system, for fetch and push. the commits to copy are found by walking
+ *  the sending repository's commit graph back from the commit asked for
+ *  (the want), stopping at commits the receiving repository already has
+ *  (the haves): a repository holding a commit holds its ancestors and
+ *  everything they refer to, so the walk stops at the common ancestors
+ *  and goes no further into shared history. the wanted commits are then
+ *  copied parents first, each after the trees and blobs it refers to
+ *  that the receiver lacks; subtrees the receiver has are skipped whole,
+ *  as trees are content addressed. objects are copied as stored, without
+ *  decoding, into packs of at most BATCH objects, except blobs past the
+ *  receiver's big file threshold, which are copied loose as files. each
+ *  pack only refers to objects in itself or in packs installed before
+ *  it, so a copy that stops part way leaves the receiver consistent.
+ *  a copy without blobs, for a partial clone, copies commits and trees
+ *  only; the blobs are copied later, when needed, by copyBlobs.
+ *  @author David Babazadeh
+ */
+class Transfer {
+
+    /** a copy from repository directory FROM to repository directory TO.
+     *  @param from
+     *  @param to */
+    Transfer(File from, File to) {
+        this(from, to, true);
+    }
+
+    /** a copy from repository directory FROM to repository directory TO,
+     *  of blobs too unless BLOBS is false.
+     *  @param from
+     *  @param to
+     *  @param blobs */
+    Transfer(File from, File to, boolean blobs) {
+        _from = from;
+        _to = to;
+        _blobs = blobs;
+        _threshold = new Config(new File(to, "config")).bigFileThreshold();
+    }
+
+    /** returns true if the receiving repository has commit ID.
+     *  @param id */
+    boolean has(String id) {
+        return ObjectStore.exists(new File(new File(_to, COMMITS), id));
+    }
+
+    /** copies commit ID, and all it refers to, that the receiving
+     *  repository lacks. returns the number of commits copied.
+     *  @param id */
+    int copy(String id) {
+        CommitGraph graph = CommitGraph.of(_from);
+        graph.add(ObjectStore.readObject(new File(new File(_from, COMMITS),
+                id), Commit.class));
+        BitSet wanted = new BitSet(), seen = new BitSet();
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.push(graph.index(id));
+        while (!pending.isEmpty()) {
+            int row = pending.pop();
+            if (row < 0 || seen.get(row)) {
+                continue;
+            }
+            seen.set(row);
+            if (!has(graph.id(row))) {
+                wanted.set(row);
+                pending.push(graph.parent1(row));
+                pending.push(graph.parent2(row));
+            }
+        }
+        ArrayList<String> copied = new ArrayList<>();
+        for (int row = wanted.nextSetBit(0); row >= 0;
+             row = wanted.nextSetBit(row + 1)) {
+            String commit = graph.id(row);
+            String tree = graph.tree(row);
+            if (tree != null) {
+                copyTree(tree);
+            } else if (_blobs) {
+                for (String blob : ObjectStore.readObject(
+                         new File(new File(_from, COMMITS), commit),
+                         Commit.class).files().values()) {
+                    copyBlob(blob);
+                }
+            }
+            copyObject(COMMITS, commit);
+            copied.add(commit);
+        }
+        flush();
+        if (!copied.isEmpty()) {
+            List<Commit> commits = new ArrayList<>();
+            for (String commit : copied) {
+                commits.add(ObjectStore.readObject(new File(new File(_to,
+                        COMMITS), commit), Commit.class));
+            }
+            CommitGraph.of(_to).add(commits);
+            Metadata.of(_to).add(commits);
+        }
+        return copied.size();
+    }
+
+    /** copies tree ID, and the trees and blobs below it, unless the
+     *  receiver has it.
+     *  @param id */
+    private void copyTree(String id) {
+        if (id.equals(Tree.EMPTY) || lacks(Tree.DIR, id)) {
+            for (Map.Entry<String, String> entry
+                     : Tree.read(new File(_from, Tree.DIR), id).entries()
+                     .entrySet()) {
+                if (Tree.isTree(entry.getKey())) {
+                    copyTree(entry.getValue());
+                } else if (_blobs) {
+                    copyBlob(entry.getValue());
+                }
+            }
+            if (!id.equals(Tree.EMPTY)) {
+                copyObject(Tree.DIR, id);
+            }
+        }
+    }
+
+    /** copies those of blobs IDS, and their chunks, that the receiver
+     *  lacks, reading them in batches of FETCH_BATCH on up to
+     *  FETCH_THREADS threads while the batches read are written.
+     *  @param ids */
+    void copyBlobs(Collection<String> ids) {
+        ArrayList<List<String>> batches = new ArrayList<>();
+        for (String id : ids) {
+            if (lacks(BLOBS, id)) {
+                if (batches.isEmpty()
+                    || batches.get(batches.size() - 1).size() == FETCH_BATCH) {
+                    batches.add(new ArrayList<>());
+                }
+                batches.get(batches.size() - 1).add(id);
+            }
+        }
+        if (batches.isEmpty()) {
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(batches.size(), FETCH_THREADS));
+        try {
+            ArrayList<Future<List<Map.Entry<String, byte[]>>>> reads =
+                new ArrayList<>();
+            for (List<String> batch : batches) {
+                reads.add(pool.submit(() -> read(batch)));
+            }
+            for (Future<List<Map.Entry<String, byte[]>>> read : reads) {
+                for (Map.Entry<String, byte[]> blob : read.get()) {
+                    if (blob.getValue() == null) {
+                        copyBlob(blob.getKey());
+                    } else if (lacks(BLOBS, blob.getKey())) {
+                        add(BLOBS, blob.getKey(), blob.getValue());
+                    }
+                }
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        flush();
+    }
+
+    /** returns the ids and stored contents of blobs BATCH of the sender,
+     *  each after the chunks it refers to. big loose blobs, which are
+     *  copied as files, are returned with null contents.
+     *  @param batch */
+    private List<Map.Entry<String, byte[]>> read(List<String> batch) {
+        ArrayList<Map.Entry<String, byte[]>> result = new ArrayList<>();
+        for (String id : batch) {
+            File blob = new File(new File(_from, BLOBS), id);
+            if (!ObjectStore.exists(blob)) {
+                GLet.error("The remote does not have blob %s.", id);
+            }
+            if (blob.isFile() && Blob.size(blob) >= _threshold) {
+                result.add(new AbstractMap.SimpleEntry<>(id, null));
+                continue;
+            }
+            byte[] contents = ObjectStore.readContents(blob);
+            if (contents.length >= Integer.BYTES
+                && ByteBuffer.wrap(contents).getInt() == Codec.CHUNKED_MAGIC) {
+                for (Map.Entry<String, Integer> chunk : Blob.chunks(blob)) {
+                    result.add(new AbstractMap.SimpleEntry<>(chunk.getKey(),
+                            ObjectStore.readContents(new File(blob
+                                .getParentFile(), chunk.getKey()))));
+                }
+            }
+            result.add(new AbstractMap.SimpleEntry<>(id, contents));
+        }
+        return result;
+    }
+
+    /** copies blob ID, and its chunks if it is chunked, unless the
+     *  receiver has it. big loose blobs are copied as files.
+     *  @param id */
+    private void copyBlob(String id) {
+        if (!lacks(BLOBS, id)) {
+            return;
+        }
+        File blob = new File(new File(_from, BLOBS), id);
+        if (blob.isFile() && Blob.size(blob) >= _threshold) {
+            copyChunks(blob);
+            File dest = new File(new File(_to, BLOBS), id);
+            File temp = new File(dest.getParentFile(), id + TEMP);
+            try {
+                Files.copy(blob.toPath(), temp.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ObjectStore.install(temp, dest);
+            IdIndex.added(dest);
+            _loose.get(BLOBS).add(id);
+            return;
+        }
+        byte[] contents = ObjectStore.readContents(blob);
+        if (contents.length >= Integer.BYTES
+            && ByteBuffer.wrap(contents).getInt() == Codec.CHUNKED_MAGIC) {
+            copyChunks(blob);
+        }
+        add(BLOBS, id, contents);
+    }
+
+    /** copies the chunks of BLOB, if it is a chunked blob.
+     *  @param blob */
+    private void copyChunks(File blob) {
+        List<Map.Entry<String, Integer>> chunks = Blob.chunks(blob);
+        if (chunks != null) {
+            for (Map.Entry<String, Integer> chunk : chunks) {
+                copyBlob(chunk.getKey());
+            }
+        }
+    }
+
+    /** returns true if the receiver has no object ID in directory DIR
+     *  and none is being copied. the loose objects of each directory are
+     *  listed once rather than looked for one at a time.
+     *  @param dir
+     *  @param id */
+    private boolean lacks(String dir, String id) {
+        if (_writer != null && _writer.contains(Pack.kind(dir), id)) {
+            return false;
+        }
+        HashSet<String> loose = _loose.computeIfAbsent(dir, k -> {
+            List<String> names = Utils.plainFilenamesIn(new File(_to, k));
+            return names == null ? new HashSet<>() : new HashSet<>(names);
+        });
+        return !loose.contains(id)
+            && !Pack.contains(_to, Pack.kind(dir), id);
+    }
+
+    /** adds object ID in directory DIR of the sender, as stored, to the
+     *  pack being written.
+     *  @param dir
+     *  @param id */
+    private void copyObject(String dir, String id) {
+        add(dir, id,
+            ObjectStore.readContents(new File(new File(_from, dir), id)));
+    }
+
+    /** adds object ID in directory DIR, stored as CONTENTS, to the pack
+     *  being written, installing the pack once it holds BATCH objects.
+     *  @param dir
+     *  @param id
+     *  @param contents */
+    private void add(String dir, String id, byte[] contents) {
+        if (_writer == null) {
+            _writer = new PackWriter(new File(_to, Pack.DIR));
+        }
+        _writer.add(Pack.kind(dir), id, contents);
+        _packed.computeIfAbsent(dir, k -> new ArrayList<>()).add(id);
+        if (_writer.size() >= BATCH) {
+            flush();
+        }
+    }
+
+    /** installs the pack being written, if any, then records the ids
+     *  of the commits and blobs in it in the receiver's id indexes. */
+    private void flush() {
+        if (_writer != null) {
+            _writer.finish();
+            _writer = null;
+            Pack.invalidate(_to);
+            for (Map.Entry<String, List<String>> e : _packed.entrySet()) {
+                IdIndex.added(new File(_to, e.getKey()), e.getValue());
+            }
+            _packed.clear();
+        }
+    }
+
+    /** names of the directories of commits and blobs. */
+    private static final String COMMITS = "commits", BLOBS = "blobs";
+
+    /** most objects in one pack. */
+    static final int BATCH = FastImport.BATCH;
+
+    /** blobs read per task by copyBlobs. */
+    static final int FETCH_BATCH = 64;
+
+    /** most threads reading blobs in copyBlobs. reading is mostly
+     *  waiting on the file system, so this does not follow the number
+     *  of processors. */
+    static final int FETCH_THREADS = 8;
+
+    /** suffix of files being copied. */
+    private static final String TEMP = ".tmp";
+
+    /** the sending and receiving repository directories. */
+    private final File _from, _to;
+
+    /** true if blobs are copied with the commits that refer to them. */
+    private final boolean _blobs;
+
+    /** size from which blobs are copied loose. */
+    private final long _threshold;
+
+    /** the names of the loose files of each object directory of the
+     *  receiver, once listed. */
+    private final HashMap<String, HashSet<String>> _loose = new HashMap<>();
+
+    /** the ids of the objects in the pack being written, by object
+     *  directory. */
+    private final HashMap<String, List<String>> _packed = new HashMap<>();
+
+    /** the pack being written, or null. */
+    private PackWriter _writer;
+}
@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A directory of a commit: the names in it mapped to the ids of the
+ *  blobs, and for names ending in '/' the subtrees, they refer to. trees
+ *  are content addressed like blobs, so a commit writes new trees only
+ *  along the paths it changes and shares every other subtree with its
+ *  parent, and two commits whose subtrees have the same id hold the same
+ *  files below them.
+ *  @author David Babazadeh
+ */
+class Tree {
+
+    /** tree holding ENTRIES.
+     *  @param entries */
+    Tree(TreeMap<String, String> entries) {
+        _entries = entries;
+    }
+
+    /** returns the entries of this tree: names, with a trailing '/' for
+     *  subtrees, mapped to ids. */
+    TreeMap<String, String> entries() {
+        return _entries;
+    }
+
+    /** returns this tree in the binary object format: header, entry
+     *  count, then each name and raw id in name order. */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Codec.writeHeader(out, Codec.TREE_MAGIC);
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, String> entry : _entries.entrySet()) {
+                Codec.writeString(out, entry.getKey());
+                Codec.writeID(out, entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error serializing tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** returns tree encoded in IN.
+     *  @param in */
+    static Tree decode(DataInput in) throws IOException {
+        Codec.readHeader(in, Codec.TREE_MAGIC);
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int n = in.readInt(); n > 0; n -= 1) {
+            String name = Codec.readString(in);
+            entries.put(name, Codec.readID(in));
+        }
+        return new Tree(entries);
+    }
+
+    /** returns tree ID stored in directory TREES. the empty tree need
+     *  not be stored. trees read or written recently are kept in CACHE,
+     *  which their entries must not be changed through.
+     *  @param trees
+     *  @param id */
+    static Tree read(File trees, String id) {
+        if (id.equals(EMPTY)) {
+            return new Tree(new TreeMap<>());
+        }
+        File file = new File(trees, id);
+        Tree result = CACHE.get(file.getPath());
+        if (result != null) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                ObjectStore.open(file)))) {
+            result = decode(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        CACHE.put(file.getPath(), result);
+        return result;
+    }
+
+    /** returns id of the tree made by applying CHANGES to tree ROOT, or
+     *  to the empty tree if ROOT is null. CHANGES maps '/'-separated
+     *  paths to blob ids, or to null for paths to remove. only trees on
+     *  changed paths are read and, unless TREES is null, written to
+     *  TREES; every other subtree keeps its id.
+     *  @param trees
+     *  @param root
+     *  @param changes */
+    static String update(File trees, String root,
+                         SortedMap<String, String> changes) {
+        if (trees != null) {
+            trees.mkdirs();
+        }
+        return update(store(trees), root, changes);
+    }
+
+    /** returns id of the tree made by applying CHANGES to tree ROOT, as
+     *  update above does, reading trees from and writing them to STORE.
+     *  @param store
+     *  @param root
+     *  @param changes */
+    static String update(Store store, String root,
+                         SortedMap<String, String> changes) {
+        return apply(store, root, changes, true);
+    }
+
+    /** returns id of the blob at PATH below tree ROOT of TREES, or null
+     *  if there is none. reads only the trees along PATH.
+     *  @param trees
+     *  @param root
+     *  @param path */
+    static String lookup(File trees, String root, String path) {
+        return lookup(store(trees), root, path);
+    }
+
+    /** returns id of the blob at PATH below tree ROOT of STORE, or null
+     *  if there is none. reads only the trees along PATH.
+     *  @param store
+     *  @param root
+     *  @param path */
+    static String lookup(Store store, String root, String path) {
+        String id = root;
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', start)) {
+            id = store.read(id).entries().get(
+                    path.substring(start, slash + 1));
+            if (id == null) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        return store.read(id).entries().get(path.substring(start));
+    }
+
+    /** Where trees are read from and written to. */
+    interface Store {
+
+        /** returns tree ID.
+         *  @param id */
+        Tree read(String id);
+
+        /** stores TREE, whose encoding CONTENTS has id ID.
+         *  @param id
+         *  @param tree
+         *  @param contents */
+        void write(String id, Tree tree, byte[] contents);
+    }
+
+    /** returns the store of trees in directory TREES, which writes
+     *  nothing if TREES is null.
+     *  @param trees */
+    static Store store(File trees) {
+        return new Store() {
+            @Override
+            public Tree read(String id) {
+                return Tree.read(trees, id);
+            }
+
+            @Override
+            public void write(String id, Tree tree, byte[] contents) {
+                if (trees != null) {
+                    File file = new File(trees, id);
+                    ObjectStore.write(file, contents);
+                    CACHE.put(file.getPath(), tree);
+                }
+            }
+        };
+    }
+
+    /** adds the path and blob id of every file below tree ROOT of TREES
+     *  to OUT, each path starting with PREFIX.
+     *  @param trees
+     *  @param root
+     *  @param prefix
+     *  @param out */
+    static void flatten(File trees, String root, String prefix,
+                        Map<String, String> out) {
+        for (Map.Entry<String, String> entry
+                 : read(trees, root).entries().entrySet()) {
+            String name = prefix + entry.getKey();
+            if (isTree(name)) {
+                flatten(trees, entry.getValue(), name, out);
+            } else {
+                out.put(name, entry.getValue());
+            }
+        }
+    }
+
+    /** adds to OUT the path, starting with PREFIX, of every file whose
+     *  blob differs between trees A and B of TREES, including files in
+     *  only one of them. either tree may be null for none. subtrees with
+     *  equal ids are skipped without being read.
+     *  @param trees
+     *  @param a
+     *  @param b
+     *  @param prefix
+     *  @param out */
+    static void diff(File trees, String a, String b, String prefix,
+                     Set<String> out) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        changes(trees, a, b, prefix, changes);
+        out.addAll(changes.keySet());
+    }
+
+    /** puts in OUT the path, starting with PREFIX, of every file whose
+     *  blob differs between trees A and B of TREES, mapped to its blob in
+     *  B, or to null if only A has it. either tree may be null for none.
+     *  subtrees with equal ids are skipped without being read.
+     *  @param trees
+     *  @param a
+     *  @param b
+     *  @param prefix
+     *  @param out */
+    static void changes(File trees, String a, String b, String prefix,
+                        Map<String, String> out) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        TreeMap<String, String> as = entries(trees, a), bs = entries(trees, b);
+        TreeSet<String> names = new TreeSet<>(as.keySet());
+        names.addAll(bs.keySet());
+        for (String name : names) {
+            String idA = as.get(name), idB = bs.get(name);
+            if (isTree(name)) {
+                changes(trees, idA, idB, prefix + name, out);
+            } else if (idA == null || !idA.equals(idB)) {
+                out.put(prefix + name, idB);
+            }
+        }
+    }
+
+    /** returns true if entry NAME names a subtree.
+     *  @param name */
+    static boolean isTree(String name) {
+        return name.endsWith("/");
+    }
+
+    /** returns the entries of tree ID of TREES, or none if ID is null.
+     *  @param trees
+     *  @param id */
+    private static TreeMap<String, String> entries(File trees, String id) {
+        return id == null ? new TreeMap<>() : read(trees, id).entries();
+    }
+
+    /** returns id of tree ROOT (null for none) of STORE with CHANGES
+     *  applied, writing it to STORE. returns null if the result is
+     *  empty, unless ISROOT.
+     *  @param store
+     *  @param root
+     *  @param changes
+     *  @param isRoot */
+    private static String apply(Store store, String root,
+                                SortedMap<String, String> changes,
+                                boolean isRoot) {
+        TreeMap<String, String> entries = root == null ? new TreeMap<>()
+            : new TreeMap<>(store.read(root).entries());
+        TreeMap<String, TreeMap<String, String>> subtrees = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subtrees.computeIfAbsent(path.substring(0, slash + 1),
+                        k -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> sub
+                 : subtrees.entrySet()) {
+            String id = apply(store, entries.get(sub.getKey()),
+                    sub.getValue(), false);
+            if (id == null) {
+                entries.remove(sub.getKey());
+            } else {
+                entries.put(sub.getKey(), id);
+            }
+        }
+        if (entries.isEmpty() && !isRoot) {
+            return null;
+        }
+        Tree tree = new Tree(entries);
+        byte[] contents = tree.encode();
+        String id = Utils.sha1(contents);
+        store.write(id, tree, contents);
+        return id;
+    }
+
+    /** greatest total entry count of cached trees. */
+    static final int BUDGET = 1 << 16;
+
+    /** trees read or written, by path, each weighing its entry count
+     *  plus one. */
+    static final ObjectCache<Tree> CACHE =
+        new ObjectCache<>("trees", BUDGET, t -> t._entries.size() + 1);
+
+    /** name of tree directory within .gitlet. */
+    static final String DIR = "trees";
+
+    /** id of the tree with no entries. */
+    static final String EMPTY =
+        Utils.sha1(new Tree(new TreeMap<>()).encode());
+
+    /** names mapped to ids. */
+    private final TreeMap<String, String> _entries;
+}
@@ -0,0 +1,353 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** The files of the working directory. when the file-system monitor
+ *  (FsMonitor) is running, a listing of the working tree with the stat
+ *  data of each file is kept in .gitlet/fsmonitor/worktree along with the
+ *  monitor's token for it, and brought up to date by examining only the
+ *  paths the monitor reports changed since. otherwise the working tree is
+ *  walked on the common fork-join pool, so large checkouts are listed by
+ *  every core at once.
+ *  @author David Babazadeh
+ */
+class WorkTree {
+
+    /** files of working directory CWD of repository directory GITLET.
+     *  @param cwd
+     *  @param gitlet */
+    WorkTree(File cwd, File gitlet) {
+        _cwd = cwd;
+        _monitor = new FsMonitor(gitlet);
+        _snapshot = new File(new File(gitlet, FsMonitor.DIR), SNAPSHOT);
+    }
+
+    /** returns the paths, relative to the working directory and
+     *  '/'-separated, of every file outside .gitlet, in lexicographic
+     *  order, each with its stat data (null if it is not a regular file).
+     *  symbolic links to directories are not followed. */
+    List<Map.Entry<String, StagingIndex.Stat>> files() {
+        TreeMap<String, StagingIndex.Stat> listing = monitored();
+        if (listing != null) {
+            return new ArrayList<>(listing.entrySet());
+        }
+        List<Map.Entry<String, StagingIndex.Stat>> result =
+            walk(_cwd.toPath(), "", true);
+        if (_token != null) {
+            listing = new TreeMap<>();
+            for (Map.Entry<String, StagingIndex.Stat> e : result) {
+                listing.put(e.getKey(), e.getValue());
+            }
+            save(listing);
+        }
+        return result;
+    }
+
+    /** returns the files below directory DIR, relative to the working
+     *  directory and '/'-separated ("" for the whole working tree), as
+     *  files() does.
+     *  @param dir */
+    List<Map.Entry<String, StagingIndex.Stat>> files(String dir) {
+        if (dir.isEmpty()) {
+            return files();
+        }
+        String prefix = dir + "/";
+        TreeMap<String, StagingIndex.Stat> listing = monitored();
+        if (listing != null) {
+            return new ArrayList<>(
+                    listing.subMap(prefix, dir + SLASH_NEXT).entrySet());
+        }
+        return walk(_cwd.toPath().resolve(dir), prefix, false);
+    }
+
+    /** returns true if there is a file, and not a directory, at PATH,
+     *  relative to the working directory. safe to call from several
+     *  threads, as is stat.
+     *  @param path */
+    boolean exists(String path) {
+        TreeMap<String, StagingIndex.Stat> listing = monitored();
+        if (listing != null) {
+            return listing.containsKey(path);
+        }
+        File file = new File(_cwd, path);
+        return file.exists() && !file.isDirectory();
+    }
+
+    /** returns the stat data of the file at PATH, relative to the working
+     *  directory, or null if it is not a regular file.
+     *  @param path */
+    StagingIndex.Stat stat(String path) {
+        TreeMap<String, StagingIndex.Stat> listing = monitored();
+        return listing != null ? listing.get(path)
+            : StagingIndex.Stat.of(new File(_cwd, path));
+    }
+
+    /** returns the listing brought up to date from the monitor, or null
+     *  if the monitor is not running or cannot tell what has changed
+     *  since the listing was saved. the listing is found once. */
+    private synchronized TreeMap<String, StagingIndex.Stat> monitored() {
+        if (_asked) {
+            return _listing;
+        }
+        _asked = true;
+        _token = _monitor.token();
+        if (_token == null) {
+            _snapshot.delete();
+            return null;
+        }
+        FsMonitor.Token saved = savedToken();
+        Set<String> changed = _monitor.changed(saved, _token);
+        if (changed == null) {
+            return null;
+        }
+        TreeMap<String, StagingIndex.Stat> listing = load();
+        if (listing == null) {
+            return null;
+        }
+        for (String path : new TreeSet<>(changed)) {
+            listing.remove(path);
+            listing.subMap(path + "/", path + SLASH_NEXT).clear();
+            Path file = _cwd.toPath().resolve(path);
+            BasicFileAttributes attrs = attributes(file);
+            if (attrs == null) {
+                continue;
+            } else if (attrs.isDirectory()) {
+                for (Map.Entry<String, StagingIndex.Stat> e
+                         : walk(file, path + "/", false)) {
+                    listing.put(e.getKey(), e.getValue());
+                }
+            } else if (!attrs.isSymbolicLink() || !Files.isDirectory(file)) {
+                listing.put(path, StagingIndex.Stat.of(file, attrs));
+            }
+        }
+        if (changed.isEmpty()) {
+            saveToken(_token);
+        } else {
+            save(listing);
+        }
+        _listing = listing;
+        return listing;
+    }
+
+    /** returns the files below directory DIR, whose path relative to the
+     *  working directory is PREFIX, with their stat data, in order. skips
+     *  .gitlet if TOP.
+     *  @param dir
+     *  @param prefix
+     *  @param top */
+    private static List<Map.Entry<String, StagingIndex.Stat>> walk(Path dir,
+            String prefix, boolean top) {
+        List<Map.Entry<String, StagingIndex.Stat>> result =
+            ForkJoinPool.commonPool().invoke(new Walk(dir, prefix, top));
+        result.sort(Map.Entry.comparingByKey());
+        return result;
+    }
+
+    /** writes LISTING, with the monitor's token for it, as the saved
+     *  listing.
+     *  @param listing */
+    private void save(TreeMap<String, StagingIndex.Stat> listing) {
+        File temp = new File(_snapshot.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(
+                        Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(_token.generation);
+            out.writeLong(_token.offset);
+            out.writeInt(listing.size());
+            for (Map.Entry<String, StagingIndex.Stat> e
+                     : listing.entrySet()) {
+                Codec.writeString(out, e.getKey());
+                StagingIndex.Stat.write(out, e.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectStore.install(temp, _snapshot);
+    }
+
+    /** records TOKEN as the token of the saved listing, in place.
+     *  @param token */
+    private void saveToken(FsMonitor.Token token) {
+        try (RandomAccessFile out = new RandomAccessFile(_snapshot, "rw")) {
+            out.seek(TOKEN);
+            out.writeLong(token.generation);
+            out.writeLong(token.offset);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** returns the token of the saved listing, or null if there is no
+     *  usable one. */
+    private FsMonitor.Token savedToken() {
+        if (!_snapshot.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(_snapshot.toPath()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            return new FsMonitor.Token(in.readLong(), in.readLong());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** returns the saved listing, or null if it cannot be read. */
+    private TreeMap<String, StagingIndex.Stat> load() {
+        TreeMap<String, StagingIndex.Stat> result = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(
+                        Files.newInputStream(_snapshot.toPath())))) {
+            in.skipBytes(TOKEN + 2 * Long.BYTES);
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String path = Codec.readString(in);
+                result.put(path, StagingIndex.Stat.read(in));
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return result;
+    }
+
+    /** returns the attributes of PATH, not following links, or null if
+     *  it has gone.
+     *  @param path */
+    private static BasicFileAttributes attributes(Path path) {
+        try {
+            return Files.readAttributes(path, PosixFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException excp) {
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException excp2) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** lists the files below one directory, forking a task for each
+     *  subdirectory. */
+    private static class Walk
+        extends RecursiveTask<List<Map.Entry<String, StagingIndex.Stat>>> {
+
+        /** version of the serialized form; fork-join tasks are
+         *  serializable but walks are never serialized. */
+        private static final long serialVersionUID = 1L;
+
+        /** lists files below DIR, whose path relative to the working
+         *  directory is PREFIX. skips .gitlet if TOP.
+         *  @param dir
+         *  @param prefix
+         *  @param top */
+        Walk(Path dir, String prefix, boolean top) {
+            _dir = dir;
+            _prefix = prefix;
+            _top = top;
+        }
+
+        @Override
+        protected List<Map.Entry<String, StagingIndex.Stat>> compute() {
+            ArrayList<Map.Entry<String, StagingIndex.Stat>> result =
+                new ArrayList<>();
+            ArrayList<Walk> subdirs = new ArrayList<>();
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(_dir)) {
+                for (Path path : dir) {
+                    String name = path.getFileName().toString();
+                    BasicFileAttributes attrs = attributes(path);
+                    if (attrs == null || _top && name.equals(GITLET)) {
+                        continue;
+                    } else if (attrs.isDirectory()) {
+                        Walk sub = new Walk(path, _prefix + name + "/", false);
+                        sub.fork();
+                        subdirs.add(sub);
+                    } else if (!attrs.isSymbolicLink()
+                               || !Files.isDirectory(path)) {
+                        result.add(new SimpleImmutableEntry<>(
+                                _prefix + name,
+                                StagingIndex.Stat.of(path, attrs)));
+                    }
+                }
+            } catch (IOException excp) {
+                return result;
+            }
+            for (Walk sub : subdirs) {
+                result.addAll(sub.join());
+            }
+            return result;
+        }
+
+        /** directory listed. */
+        private final Path _dir;
+
+        /** path of _dir relative to the working directory. */
+        private final String _prefix;
+
+        /** true if _dir is the working directory. */
+        private final boolean _top;
+    }
+
+    /** name of the repository directory, which is never scanned. */
+    static final String GITLET = ".gitlet";
+
+    /** name of the saved listing within .gitlet/fsmonitor. */
+    static final String SNAPSHOT = "worktree";
+
+    /** magic number heading the saved listing ("GLWT"). */
+    static final int MAGIC = 0x474c5754;
+
+    /** format version of the saved listing. */
+    static final int VERSION = 1;
+
+    /** position of the token in the saved listing. */
+    static final int TOKEN = 8;
+
+    /** the character after '/', ending the range of paths below a
+     *  directory. */
+    private static final char SLASH_NEXT = '/' + 1;
+
+    /** the working directory. */
+    private final File _cwd;
+
+    /** the file-system monitor. */
+    private final FsMonitor _monitor;
+
+    /** the saved listing. */
+    private final File _snapshot;
+
+    /** true once the monitor has been asked for a token. */
+    private boolean _asked;
+
+    /** the monitor's token for now, or null if it is not running. */
+    private FsMonitor.Token _token;
+
+    /** the listing brought up to date from the monitor, or null. */
+    private TreeMap<String, StagingIndex.Stat> _listing;
+}